@@ -0,0 +1,89 @@
+/*
+ * Copyright Dansk Bibliotekscenter a/s. Licensed under GPLv3
+ * See license text in LICENSE.txt or at https://opensource.dbc.dk/licenses/gpl-3.0/
+ */
+
+package dk.dbc.updateservice;
+
+import dk.dbc.updateservice.dto.AuthenticationDTO;
+import dk.dbc.updateservice.dto.BibliographicRecordDTO;
+import dk.dbc.updateservice.dto.MessageEntryDTO;
+import dk.dbc.updateservice.dto.RecordDataDTO;
+import dk.dbc.updateservice.dto.TypeEnumDTO;
+import dk.dbc.updateservice.dto.UpdateRecordResponseDTO;
+import dk.dbc.updateservice.dto.UpdateServiceRequestDTO;
+import dk.dbc.updateservice.dto.UpdateStatusEnumDTO;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Requests and responses shaped like those recorded in the test mappings,
+ * scaled by the number of datafields and messages
+ */
+final class BenchmarkData {
+    private BenchmarkData() {
+    }
+
+    /**
+     * @param datafields number of datafields of the record, each with three subfields
+     * @return pretty printed MARCXchange record as sent by the clients of the connector
+     */
+    static String marcXchangeRecord(int datafields) {
+        final StringBuilder record = new StringBuilder(256 + datafields * 256)
+                .append("<record xmlns=\"info:lc/xmlns/marcxchange-v1\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"")
+                .append(" xsi:schemaLocation=\"http://www.loc.gov/standards/iso25577/marcxchange-1-1.xsd\">\n")
+                .append("                            <leader>dbfhfgh2</leader>\n");
+        for (int i = 0; i < datafields; i++) {
+            record.append("                            <datafield ind1=\"0\" ind2=\"0\" tag=\"")
+                    .append(String.format("%03d", i % 1000)).append("\">\n")
+                    .append("                                <subfield code=\"a\">68693268</subfield>\n")
+                    .append("                                <subfield code=\"b\">870979</subfield>\n")
+                    .append("                                <subfield code=\"&amp;\">VIAF ").append(i).append("</subfield>\n")
+                    .append("                            </datafield>\n");
+        }
+        return record.append("                        </record>").toString();
+    }
+
+    static BibliographicRecordDTO bibliographicRecord(int datafields) {
+        final RecordDataDTO recordDataDTO = new RecordDataDTO();
+        recordDataDTO.setContent(List.of(marcXchangeRecord(datafields)));
+        final BibliographicRecordDTO bibliographicRecordDTO = new BibliographicRecordDTO();
+        bibliographicRecordDTO.setRecordSchema("info:lc/xmlns/marcxchange-v1");
+        bibliographicRecordDTO.setRecordPacking("xml");
+        bibliographicRecordDTO.setRecordDataDTO(recordDataDTO);
+        return bibliographicRecordDTO;
+    }
+
+    static UpdateServiceRequestDTO updateRequest(int datafields) {
+        final AuthenticationDTO authenticationDTO = new AuthenticationDTO();
+        authenticationDTO.setGroupId("010100");
+        authenticationDTO.setPassword("");
+        authenticationDTO.setUserId("");
+        final UpdateServiceRequestDTO updateServiceRequestDTO = new UpdateServiceRequestDTO();
+        updateServiceRequestDTO.setAuthenticationDTO(authenticationDTO);
+        updateServiceRequestDTO.setSchemaName("dbcautoritet");
+        updateServiceRequestDTO.setTrackingId("benchmark");
+        updateServiceRequestDTO.setBibliographicRecordDTO(bibliographicRecord(datafields));
+        return updateServiceRequestDTO;
+    }
+
+    /**
+     * @param messages number of validation messages of the response
+     * @return failed response as returned for a record with validation errors
+     */
+    static UpdateRecordResponseDTO updateResponse(int messages) {
+        final List<MessageEntryDTO> messageEntryDTOS = new ArrayList<>(messages);
+        for (int i = 0; i < messages; i++) {
+            final MessageEntryDTO messageEntryDTO = new MessageEntryDTO();
+            messageEntryDTO.setMessage("Delfelt 'a' i felt '" + String.format("%03d", i % 1000)
+                    + "' er obligatorisk men mangler i posten");
+            messageEntryDTO.setType(TypeEnumDTO.FATAL);
+            messageEntryDTOS.add(messageEntryDTO);
+        }
+        final UpdateRecordResponseDTO updateRecordResponseDTO = new UpdateRecordResponseDTO();
+        updateRecordResponseDTO.setUpdateStatusEnumDTO(UpdateStatusEnumDTO.FAILED);
+        updateRecordResponseDTO.addMessageEntryDtos(messageEntryDTOS);
+        return updateRecordResponseDTO;
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright Dansk Bibliotekscenter a/s. Licensed under GPLv3
+ * See license text in LICENSE.txt or at https://opensource.dbc.dk/licenses/gpl-3.0/
+ */
+
+package dk.dbc.updateservice;
+
+import dk.dbc.commons.jsonb.JSONBException;
+import dk.dbc.updateservice.dto.UpdateServiceRequestDTO;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Allocations of sending an update request body encoded to a String, into a
+ * buffer borrowed from {@link UpdateServiceBufferPool} and streamed, under
+ * both request entity processing modes of Jersey
+ * <p>
+ * With BUFFERED processing the Apache connector writes the entity to a
+ * ByteArrayOutputStream and sends a copy of its bytes, which is reproduced
+ * here. With CHUNKED processing the entity is written to the connection, here
+ * a null stream. Run with -prof gc and compare gc.alloc.rate.norm.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BufferPoolBenchmark {
+    @Param({"10", "100", "1000"})
+    public int datafields;
+
+    @Param({"BUFFERED", "CHUNKED"})
+    public String requestEntityProcessing;
+
+    private final UpdateServiceBufferPool bufferPool = new UpdateServiceBufferPool(16L << 20, 1 << 20);
+    private UpdateServiceRequestDTO updateRequest;
+
+    @Setup
+    public void createRequest() {
+        updateRequest = BenchmarkData.updateRequest(datafields);
+    }
+
+    @Benchmark
+    public Object sendString() throws IOException, JSONBException {
+        final String json = UpdateServiceJsonCodec.encode(updateRequest, false);
+        final OutputStream outputStream = entityStream();
+        outputStream.write(json.getBytes(StandardCharsets.UTF_8));
+        return sent(outputStream);
+    }
+
+    @Benchmark
+    public Object sendPooled() throws IOException, JSONBException {
+        final UpdateServiceBufferPool.Buffer buffer = bufferPool.acquire();
+        try {
+            UpdateServiceJsonCodec.encode(updateRequest, false, buffer);
+            final OutputStream outputStream = entityStream();
+            UpdateServiceJsonCodec.bufferedEntity(buffer).write(outputStream);
+            return sent(outputStream);
+        } finally {
+            buffer.release();
+        }
+    }
+
+    @Benchmark
+    public Object sendStreamed() throws IOException {
+        final OutputStream outputStream = entityStream();
+        UpdateServiceJsonCodec.streamingEntity(updateRequest, false).write(outputStream);
+        return sent(outputStream);
+    }
+
+    private OutputStream entityStream() {
+        return "BUFFERED".equals(requestEntityProcessing) ? new ByteArrayOutputStream() : OutputStream.nullOutputStream();
+    }
+
+    private static Object sent(OutputStream outputStream) {
+        return outputStream instanceof ByteArrayOutputStream
+                ? ((ByteArrayOutputStream) outputStream).toByteArray()
+                : outputStream;
+    }
+}
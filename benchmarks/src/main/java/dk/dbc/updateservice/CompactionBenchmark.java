@@ -0,0 +1,109 @@
+/*
+ * Copyright Dansk Bibliotekscenter a/s. Licensed under GPLv3
+ * See license text in LICENSE.txt or at https://opensource.dbc.dk/licenses/gpl-3.0/
+ */
+
+package dk.dbc.updateservice;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dk.dbc.updateservice.dto.BibliographicRecordDTO;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of compacting MARCXchange records while encoding requests, and what it
+ * saves the server when decoding the request and parsing the record
+ * <p>
+ * The sizes of the request bodies with and without compaction are printed when
+ * the benchmark is set up.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompactionBenchmark {
+    @Param({"10", "100", "1000"})
+    public int datafields;
+
+    private final ObjectMapper serverObjectMapper = new ObjectMapper()
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+    private BibliographicRecordDTO bibliographicRecord;
+    private byte[] body;
+    private byte[] compactedBody;
+    private DocumentBuilder documentBuilder;
+
+    @Setup
+    public void createRecord() throws Exception {
+        bibliographicRecord = BenchmarkData.bibliographicRecord(datafields);
+        body = encode(false);
+        compactedBody = encode(true);
+        final DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory.newInstance();
+        documentBuilderFactory.setNamespaceAware(true);
+        documentBuilder = documentBuilderFactory.newDocumentBuilder();
+        System.out.printf(Locale.ROOT, "%n%d datafields: %d bytes, %d bytes compacted (%.0f%% smaller)%n",
+                datafields, body.length, compactedBody.length, 100.0 * (body.length - compactedBody.length) / body.length);
+    }
+
+    @Benchmark
+    public long encode() throws IOException {
+        final CountingOutputStream outputStream = new CountingOutputStream();
+        UpdateServiceJsonCodec.streamingEntity(bibliographicRecord, false).write(outputStream);
+        return outputStream.getCount();
+    }
+
+    @Benchmark
+    public long encodeCompacted() throws IOException {
+        final CountingOutputStream outputStream = new CountingOutputStream();
+        UpdateServiceJsonCodec.streamingEntity(bibliographicRecord, true).write(outputStream);
+        return outputStream.getCount();
+    }
+
+    @Benchmark
+    public Document serverParse() throws Exception {
+        return parse(body);
+    }
+
+    @Benchmark
+    public Document serverParseCompacted() throws Exception {
+        return parse(compactedBody);
+    }
+
+    /*
+     * What update service does with a request: decodes the JSON and parses the record
+     */
+    private Document parse(byte[] request) throws Exception {
+        final BibliographicRecordDTO decoded = serverObjectMapper.readValue(request, BibliographicRecordDTO.class);
+        final String record = (String) decoded.getRecordDataDTO().getContent().get(0);
+        documentBuilder.reset();
+        return documentBuilder.parse(new InputSource(new StringReader(record)));
+    }
+
+    private byte[] encode(boolean compact) throws IOException {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        UpdateServiceJsonCodec.streamingEntity(bibliographicRecord, compact).write(outputStream);
+        return outputStream.toByteArray();
+    }
+}
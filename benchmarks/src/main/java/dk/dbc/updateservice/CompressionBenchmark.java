@@ -0,0 +1,86 @@
+/*
+ * Copyright Dansk Bibliotekscenter a/s. Licensed under GPLv3
+ * See license text in LICENSE.txt or at https://opensource.dbc.dk/licenses/gpl-3.0/
+ */
+
+package dk.dbc.updateservice;
+
+import dk.dbc.commons.jsonb.JSONBContext;
+import dk.dbc.updateservice.dto.BibliographicRecordDTO;
+import dk.dbc.updateservice.dto.UpdateServiceRequestDTO;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of compressing the recorded request payloads with gzip before sending
+ * them, against sending them as they are
+ * <p>
+ * The sizes of the payloads before and after compression are printed when the
+ * benchmark is set up, so the bandwidth saved can be weighed against the time
+ * per call spent compressing.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompressionBenchmark {
+    @Param({"/api/v1/updateservice", "/api/v2/doublerecordcheck", "/api/v2/classificationcheck"})
+    public String endpoint;
+
+    @Param("src/test/resources")
+    public String recordings;
+
+    private String json;
+
+    @Setup
+    public void loadPayload() throws Exception {
+        final Class<?> type = "/api/v1/updateservice".equals(endpoint)
+                ? UpdateServiceRequestDTO.class
+                : BibliographicRecordDTO.class;
+        // the largest recorded payload of the endpoint
+        json = null;
+        final JSONBContext jsonbContext = new JSONBContext();
+        for (Object request : RecordedRequests.load(Paths.get(recordings), endpoint, type)) {
+            final String candidate = jsonbContext.marshall(request);
+            if (json == null || candidate.length() > json.length()) {
+                json = candidate;
+            }
+        }
+        final long plainSize = json.getBytes(StandardCharsets.UTF_8).length;
+        final long gzipSize = gzip();
+        System.out.printf(Locale.ROOT, "%n%s: %d bytes, %d bytes with gzip (%.1fx smaller)%n",
+                endpoint, plainSize, gzipSize, (double) plainSize / gzipSize);
+    }
+
+    @Benchmark
+    public long plain() throws IOException {
+        final CountingOutputStream outputStream = new CountingOutputStream();
+        outputStream.write(json.getBytes(StandardCharsets.UTF_8));
+        return outputStream.getCount();
+    }
+
+    @Benchmark
+    public long gzip() throws IOException {
+        final CountingOutputStream outputStream = new CountingOutputStream();
+        UpdateServiceJsonCodec.gzipEntity(json).write(outputStream);
+        return outputStream.getCount();
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright Dansk Bibliotekscenter a/s. Licensed under GPLv3
+ * See license text in LICENSE.txt or at https://opensource.dbc.dk/licenses/gpl-3.0/
+ */
+
+package dk.dbc.updateservice;
+
+import dk.dbc.commons.jsonb.JSONBContext;
+import dk.dbc.commons.jsonb.JSONBException;
+import dk.dbc.updateservice.dto.BibliographicRecordDTO;
+import dk.dbc.updateservice.dto.UpdateServiceRequestDTO;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding of request bodies with {@link JSONBContext}, as the connectors did
+ * before sharing {@link UpdateServiceJsonCodec}, and with the codec, both to a
+ * String as sent by default and streamed as sent when streaming requests are
+ * enabled
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MarshallingBenchmark {
+    @Param({"10", "100", "1000"})
+    public int datafields;
+
+    private final JSONBContext jsonbContext = new JSONBContext();
+    private UpdateServiceRequestDTO updateRequest;
+    private BibliographicRecordDTO bibliographicRecord;
+
+    @Setup
+    public void createRequests() {
+        updateRequest = BenchmarkData.updateRequest(datafields);
+        bibliographicRecord = BenchmarkData.bibliographicRecord(datafields);
+    }
+
+    @Benchmark
+    public String marshallUpdateRequest() throws JSONBException {
+        return jsonbContext.marshall(updateRequest);
+    }
+
+    @Benchmark
+    public String encodeUpdateRequest() throws JSONBException {
+        return UpdateServiceJsonCodec.encode(updateRequest, false);
+    }
+
+    @Benchmark
+    public void streamUpdateRequest() throws IOException {
+        UpdateServiceJsonCodec.streamingEntity(updateRequest).write(OutputStream.nullOutputStream());
+    }
+
+    @Benchmark
+    public String marshallBibliographicRecord() throws JSONBException {
+        return jsonbContext.marshall(bibliographicRecord);
+    }
+
+    @Benchmark
+    public String encodeBibliographicRecord() throws JSONBException {
+        return UpdateServiceJsonCodec.encode(bibliographicRecord, false);
+    }
+
+    @Benchmark
+    public void streamBibliographicRecord() throws IOException {
+        UpdateServiceJsonCodec.streamingEntity(bibliographicRecord).write(OutputStream.nullOutputStream());
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright Dansk Bibliotekscenter a/s. Licensed under GPLv3
+ * See license text in LICENSE.txt or at https://opensource.dbc.dk/licenses/gpl-3.0/
+ */
+
+package dk.dbc.updateservice;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dk.dbc.commons.jsonb.JSONBContext;
+import dk.dbc.commons.jsonb.JSONBException;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Request bodies of the recorded WireMock mappings, so the load generator
+ * sends exactly the payloads the stubs answer
+ */
+final class RecordedRequests {
+    private RecordedRequests() {
+    }
+
+    /**
+     * @param root directory holding the mappings directory
+     * @param url  URL of the endpoint, for example /api/v2/doublerecordcheck
+     * @param type type of the request bodies
+     * @param <T>  type of the request bodies
+     * @return requests of all mappings of the endpoint matching the body by equalToJson
+     * @throws IOException    if the mappings could not be read
+     * @throws JSONBException if a recorded body could not be decoded
+     */
+    static <T> List<T> load(Path root, String url, Class<T> type) throws IOException, JSONBException {
+        final ObjectMapper objectMapper = new ObjectMapper();
+        final JSONBContext jsonbContext = new JSONBContext();
+        final List<Path> mappings;
+        try (Stream<Path> files = Files.list(root.resolve("mappings"))) {
+            mappings = files.filter(file -> file.toString().endsWith(".json"))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+        final List<T> requests = new ArrayList<>();
+        for (Path mapping : mappings) {
+            final JsonNode request = objectMapper.readTree(mapping.toFile()).path("request");
+            if (!url.equals(request.path("url").asText())) {
+                continue;
+            }
+            for (JsonNode bodyPattern : request.path("bodyPatterns")) {
+                final JsonNode equalToJson = bodyPattern.path("equalToJson");
+                if (!equalToJson.isMissingNode()) {
+                    final String body = equalToJson.isTextual() ? equalToJson.asText() : equalToJson.toString();
+                    requests.add(jsonbContext.unmarshall(body, type));
+                }
+            }
+        }
+        if (requests.isEmpty()) {
+            throw new IllegalArgumentException("No recorded requests for " + url + " in " + root.resolve("mappings"));
+        }
+        return requests;
+    }
+}
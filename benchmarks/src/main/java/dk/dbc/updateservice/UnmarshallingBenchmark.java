@@ -0,0 +1,72 @@
+/*
+ * Copyright Dansk Bibliotekscenter a/s. Licensed under GPLv3
+ * See license text in LICENSE.txt or at https://opensource.dbc.dk/licenses/gpl-3.0/
+ */
+
+package dk.dbc.updateservice;
+
+import dk.dbc.commons.jsonb.JSONBContext;
+import dk.dbc.commons.jsonb.JSONBException;
+import dk.dbc.updateservice.dto.UpdateRecordResponseDTO;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding of update responses, from a String by {@link JSONBContext}, from
+ * the response stream by reading it into a String first as the connectors used
+ * to, and from the response stream by {@link UpdateServiceJsonCodec} as the
+ * connectors do now
+ * <p>
+ * Run with {@code -prof gc} to compare the bytes allocated per decoded response.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UnmarshallingBenchmark {
+    @Param({"1", "100", "10000"})
+    public int messages;
+
+    private final JSONBContext jsonbContext = new JSONBContext();
+    private String response;
+    private byte[] responseBytes;
+
+    @Setup
+    public void createResponse() throws JSONBException {
+        response = jsonbContext.marshall(BenchmarkData.updateResponse(messages));
+        responseBytes = response.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public UpdateRecordResponseDTO unmarshallUpdateResponse() throws JSONBException {
+        return jsonbContext.unmarshall(response, UpdateRecordResponseDTO.class);
+    }
+
+    @Benchmark
+    public UpdateRecordResponseDTO bufferAndUnmarshallUpdateResponse() throws IOException, JSONBException {
+        final String buffered = new String(new ByteArrayInputStream(responseBytes).readAllBytes(), StandardCharsets.UTF_8);
+        return jsonbContext.unmarshall(buffered, UpdateRecordResponseDTO.class);
+    }
+
+    @Benchmark
+    public UpdateRecordResponseDTO decodeUpdateResponse() throws JSONBException {
+        return UpdateServiceJsonCodec.decode(new ByteArrayInputStream(responseBytes), UpdateRecordResponseDTO.class);
+    }
+}
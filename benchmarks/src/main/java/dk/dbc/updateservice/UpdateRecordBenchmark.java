@@ -0,0 +1,102 @@
+/*
+ * Copyright Dansk Bibliotekscenter a/s. Licensed under GPLv3
+ * See license text in LICENSE.txt or at https://opensource.dbc.dk/licenses/gpl-3.0/
+ */
+
+package dk.dbc.updateservice;
+
+import com.sun.net.httpserver.HttpServer;
+import dk.dbc.commons.jsonb.JSONBContext;
+import dk.dbc.commons.jsonb.JSONBException;
+import dk.dbc.updateservice.dto.UpdateRecordResponseDTO;
+import dk.dbc.updateservice.dto.UpdateServiceRequestDTO;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The full updateRecord call path, from encoding the request to decoding the
+ * response, against an in-process HTTP server answering with a canned response
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UpdateRecordBenchmark {
+    @Param({"10", "1000"})
+    public int datafields;
+
+    @Param({"1", "100"})
+    public int messages;
+
+    @Param({"false", "true"})
+    public boolean streamingRequests;
+
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private UpdateServiceUpdateConnector connector;
+    private UpdateServiceRequestDTO request;
+
+    @Setup
+    public void startServer() throws IOException, JSONBException {
+        final byte[] response = new JSONBContext().marshall(BenchmarkData.updateResponse(messages))
+                .getBytes(StandardCharsets.UTF_8);
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/api/v1/updateservice", exchange -> {
+            try (InputStream requestBody = exchange.getRequestBody()) {
+                requestBody.transferTo(OutputStream.nullOutputStream());
+            }
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, response.length);
+            try (OutputStream responseBody = exchange.getResponseBody()) {
+                responseBody.write(response);
+            }
+        });
+        serverExecutor = Executors.newFixedThreadPool(4);
+        server.setExecutor(serverExecutor);
+        server.start();
+
+        final String baseUrl = "http://localhost:" + server.getAddress().getPort();
+        connector = UpdateServiceUpdateConnectorFactory.create(baseUrl,
+                UpdateServiceUpdateConnector.TimingLogLevel.TRACE, streamingRequests);
+        request = BenchmarkData.updateRequest(datafields);
+    }
+
+    @TearDown
+    public void stopServer() {
+        connector.close();
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    @Benchmark
+    public UpdateRecordResponseDTO updateRecord() throws UpdateServiceUpdateConnectorException, JSONBException {
+        return connector.updateRecord(request);
+    }
+
+    @Benchmark
+    public UpdateRecordResponseDTO updateRecordAsync() {
+        return connector.updateRecordAsync(request).join();
+    }
+}
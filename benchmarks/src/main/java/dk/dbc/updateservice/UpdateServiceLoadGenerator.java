@@ -0,0 +1,251 @@
+/*
+ * Copyright Dansk Bibliotekscenter a/s. Licensed under GPLv3
+ * See license text in LICENSE.txt or at https://opensource.dbc.dk/licenses/gpl-3.0/
+ */
+
+package dk.dbc.updateservice;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.github.tomakehurst.wiremock.global.GlobalSettings;
+import com.github.tomakehurst.wiremock.http.LogNormal;
+import dk.dbc.updateservice.dto.BibliographicRecordDTO;
+import dk.dbc.updateservice.dto.SchemasRequestDTO;
+import dk.dbc.updateservice.dto.UpdateServiceRequestDTO;
+import jakarta.ws.rs.client.Client;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+
+import java.io.PrintStream;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
+
+/**
+ * Drives one connector at a fixed arrival rate against WireMock serving the
+ * recorded mappings, and reports latency percentiles, throughput and errors
+ * <p>
+ * Calls are started on a fixed schedule regardless of how many are still in
+ * flight (an open model). The latency of a call is measured from the time it
+ * was scheduled to start, not from when a worker got to it, so time spent
+ * waiting behind slow calls is counted rather than omitted. Latencies of failed
+ * calls are not recorded, only counted as errors.
+ * </p>
+ * <p>
+ * Settings are read from system properties:
+ * </p>
+ * <pre>
+ *     connector      updateservice, getschemas, doublerecordcheck or classificationcheck (default updateservice)
+ *     rate           calls started per second (default 100)
+ *     duration       seconds to measure (default 60)
+ *     warmup         seconds to run before measuring (default 10)
+ *     concurrency    max calls in flight, also the size of the connection pool (default 50)
+ *     latency        milliseconds the server waits before responding, the median if latency.sigma is set (default 0)
+ *     latency.sigma  sigma of a log-normal distribution of the server latency (default 0, a fixed latency)
+ *     streaming      true to stream request bodies using chunked transfer encoding (default false)
+ *     recordings     directory holding the mappings and __files directories (default src/test/resources)
+ *     hgrm           file to write the full percentile distribution to (default none)
+ * </pre>
+ */
+public class UpdateServiceLoadGenerator {
+    private static final long HIGHEST_TRACKABLE_LATENCY = TimeUnit.MINUTES.toNanos(10);
+    private static final double NANOS_PER_MILLI = 1_000_000.0;
+
+    private final String connectorName = System.getProperty("connector", "updateservice");
+    private final int rate = Integer.getInteger("rate", 100);
+    private final int duration = Integer.getInteger("duration", 60);
+    private final int warmup = Integer.getInteger("warmup", 10);
+    private final int concurrency = Integer.getInteger("concurrency", 50);
+    private final int latency = Integer.getInteger("latency", 0);
+    private final double latencySigma = Double.parseDouble(System.getProperty("latency.sigma", "0"));
+    private final boolean streaming = Boolean.getBoolean("streaming");
+    private final Path recordings = Paths.get(System.getProperty("recordings", "src/test/resources"));
+    private final String hgrm = System.getProperty("hgrm");
+
+    private final Recorder recorder = new Recorder(HIGHEST_TRACKABLE_LATENCY, 3);
+    private final Histogram total = new Histogram(HIGHEST_TRACKABLE_LATENCY, 3);
+    private final LongAdder errors = new LongAdder();
+    private long totalErrors;
+    private Histogram interval;
+
+    public static void main(String[] args) throws Exception {
+        new UpdateServiceLoadGenerator().run();
+    }
+
+    private void run() throws Exception {
+        if (rate < 1 || duration < 1 || warmup < 0 || concurrency < 1) {
+            throw new IllegalArgumentException("rate, duration and concurrency must be positive and warmup not negative");
+        }
+        final WireMockServer wireMockServer = new WireMockServer(options()
+                .dynamicPort()
+                .usingFilesUnderDirectory(recordings.toString())
+                .containerThreads(concurrency + 10)
+                .asynchronousResponseEnabled(true)
+                .asynchronousResponseThreads(concurrency)
+                .disableRequestJournal());
+        wireMockServer.start();
+        final GlobalSettings globalSettings = new GlobalSettings();
+        if (latencySigma > 0) {
+            globalSettings.setDelayDistribution(new LogNormal(latency, latencySigma));
+        } else if (latency > 0) {
+            globalSettings.setFixedDelay(latency);
+        }
+        wireMockServer.updateGlobalSettings(globalSettings);
+
+        final PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(concurrency);
+        connectionManager.setDefaultMaxPerRoute(concurrency);
+        final Client client = UpdateServiceHttpClientFactory.create(connectionManager, 0, 0, streaming);
+        try {
+            run(calls(client, "http://localhost:" + wireMockServer.port()));
+        } finally {
+            client.close();
+            connectionManager.close();
+            wireMockServer.stop();
+        }
+    }
+
+    private List<Callable<?>> calls(Client client, String baseUrl) throws Exception {
+        switch (connectorName) {
+            case "updateservice": {
+                final UpdateServiceUpdateConnector connector = new UpdateServiceUpdateConnector(client, baseUrl,
+                        UpdateServiceUpdateConnector.TimingLogLevel.TRACE).withStreamingRequests(streaming);
+                return RecordedRequests.load(recordings, "/api/v1/updateservice", UpdateServiceRequestDTO.class).stream()
+                        .map(request -> (Callable<?>) () -> connector.updateRecord(request))
+                        .collect(Collectors.toList());
+            }
+            case "getschemas": {
+                final UpdateServiceUpdateConnector connector = new UpdateServiceUpdateConnector(client, baseUrl,
+                        UpdateServiceUpdateConnector.TimingLogLevel.TRACE).withStreamingRequests(streaming);
+                return RecordedRequests.load(recordings, "/api/v1/updateservice/getschemas", SchemasRequestDTO.class).stream()
+                        .map(request -> (Callable<?>) () -> connector.getSchemas(request))
+                        .collect(Collectors.toList());
+            }
+            case "doublerecordcheck": {
+                final UpdateServiceDoubleRecordCheckConnector connector = new UpdateServiceDoubleRecordCheckConnector(client, baseUrl,
+                        UpdateServiceDoubleRecordCheckConnector.TimingLogLevel.TRACE).withStreamingRequests(streaming);
+                return RecordedRequests.load(recordings, "/api/v2/doublerecordcheck", BibliographicRecordDTO.class).stream()
+                        .map(request -> (Callable<?>) () -> connector.doubleRecordCheck(request))
+                        .collect(Collectors.toList());
+            }
+            case "classificationcheck": {
+                final UpdateServiceClassificationCheckConnector connector = new UpdateServiceClassificationCheckConnector(client, baseUrl,
+                        UpdateServiceClassificationCheckConnector.TimingLogLevel.TRACE).withStreamingRequests(streaming);
+                return RecordedRequests.load(recordings, "/api/v2/classificationcheck", BibliographicRecordDTO.class).stream()
+                        .map(request -> (Callable<?>) () -> connector.classificationCheck(request))
+                        .collect(Collectors.toList());
+            }
+            default:
+                throw new IllegalArgumentException("Unknown connector " + connectorName);
+        }
+    }
+
+    private void run(List<Callable<?>> calls) throws Exception {
+        System.out.printf(Locale.ROOT, "%s: %d calls/s for %ds after %ds warmup, concurrency %d, server latency %dms%s%n",
+                connectorName, rate, duration, warmup, concurrency, latency,
+                latencySigma > 0 ? " (log-normal, sigma " + latencySigma + ")" : "");
+
+        final ThreadPoolExecutor workers = new ThreadPoolExecutor(concurrency, concurrency, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>());
+        final ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
+        final long intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        final long start = System.nanoTime();
+        final long measureStart = start + TimeUnit.SECONDS.toNanos(warmup);
+        final long end = measureStart + TimeUnit.SECONDS.toNanos(duration);
+        reporter.scheduleAtFixedRate(() -> report(workers, start), 1, 1, TimeUnit.SECONDS);
+        try {
+            for (long i = 0; ; i++) {
+                final long scheduled = start + i * intervalNanos;
+                if (scheduled >= end) {
+                    break;
+                }
+                for (long wait = scheduled - System.nanoTime(); wait > 0; wait = scheduled - System.nanoTime()) {
+                    LockSupport.parkNanos(wait);
+                }
+                final Callable<?> call = calls.get((int) (i % calls.size()));
+                final boolean measured = scheduled >= measureStart;
+                workers.execute(() -> {
+                    try {
+                        call.call();
+                        if (measured) {
+                            recorder.recordValue(Math.min(System.nanoTime() - scheduled, HIGHEST_TRACKABLE_LATENCY));
+                        }
+                    } catch (Exception e) {
+                        if (measured) {
+                            errors.increment();
+                        }
+                    }
+                });
+            }
+            workers.shutdown();
+            if (!workers.awaitTermination(1, TimeUnit.MINUTES)) {
+                System.out.printf(Locale.ROOT, "%d calls still in flight after one minute, ignoring them%n",
+                        workers.shutdownNow().size() + workers.getActiveCount());
+            }
+        } finally {
+            reporter.shutdownNow();
+            reporter.awaitTermination(1, TimeUnit.SECONDS);
+        }
+        collectInterval();
+        summary(workers.getCompletedTaskCount());
+    }
+
+    private synchronized void collectInterval() {
+        interval = recorder.getIntervalHistogram(interval);
+        total.add(interval);
+        totalErrors += errors.sumThenReset();
+    }
+
+    private synchronized void report(ThreadPoolExecutor workers, long start) {
+        final long elapsed = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start);
+        final long errorsBefore = totalErrors;
+        collectInterval();
+        if (elapsed <= warmup) {
+            System.out.printf(Locale.ROOT, "%4ds warmup   queued %d%n", elapsed, workers.getQueue().size());
+        } else {
+            System.out.printf(Locale.ROOT, "%4ds calls %6d errors %4d p50 %8.2fms p99 %8.2fms max %8.2fms queued %d%n",
+                    elapsed, interval.getTotalCount(), totalErrors - errorsBefore,
+                    millis(interval.getValueAtPercentile(50)), millis(interval.getValueAtPercentile(99)),
+                    millis(interval.getMaxValue()), workers.getQueue().size());
+        }
+    }
+
+    private void summary(long completedCalls) throws Exception {
+        System.out.println();
+        System.out.printf(Locale.ROOT, "calls      %d measured, %d completed in total%n", total.getTotalCount() + totalErrors, completedCalls);
+        System.out.printf(Locale.ROOT, "throughput %.1f calls/s (target %d)%n", (double) total.getTotalCount() / duration, rate);
+        System.out.printf(Locale.ROOT, "errors     %d%n", totalErrors);
+        for (double percentile : new double[]{50, 90, 99, 99.9, 99.99}) {
+            System.out.printf(Locale.ROOT, "p%-9s %.2fms%n", BigDecimal.valueOf(percentile).stripTrailingZeros().toPlainString(),
+                    millis(total.getValueAtPercentile(percentile)));
+        }
+        System.out.printf(Locale.ROOT, "max        %.2fms%n", millis(total.getMaxValue()));
+        if (latency > 0) {
+            System.out.printf(Locale.ROOT, "(latencies include %dms %s server latency)%n", latency,
+                    latencySigma > 0 ? "median" : "fixed");
+        }
+        if (hgrm != null) {
+            try (PrintStream out = new PrintStream(hgrm, "UTF-8")) {
+                total.outputPercentileDistribution(out, NANOS_PER_MILLI);
+            }
+            System.out.println("percentile distribution in milliseconds written to " + hgrm);
+        }
+    }
+
+    private static double millis(long nanos) {
+        return nanos / NANOS_PER_MILLI;
+    }
+}
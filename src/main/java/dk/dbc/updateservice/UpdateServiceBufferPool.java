@@ -0,0 +1,234 @@
+/*
+ * Copyright Dansk Bibliotekscenter a/s. Licensed under GPLv3
+ * See license text in LICENSE.txt or at https://opensource.dbc.dk/licenses/gpl-3.0/
+ */
+
+package dk.dbc.updateservice;
+
+import org.eclipse.microprofile.config.Config;
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of byte buffers reused for encoding request bodies, so each call does
+ * not allocate and discard buffers the size of the whole document
+ * <p>
+ * The pool is split into stripes picked by the id of the calling thread, so
+ * threads rarely contend for the same stripe. A buffer acquired by one thread
+ * may be released by another, as is the case for asynchronous calls. Buffers
+ * grow as needed while in use; released buffers larger than the max buffer size
+ * are dropped, as are buffers which would take the memory retained by the pool
+ * above the max retained size.
+ * </p>
+ * <p>
+ * A single pool is meant to be shared by all connectors.
+ * </p>
+ */
+public class UpdateServiceBufferPool {
+    public static final String HITS = "updateservice_connector_buffer_pool_hits";
+    public static final String MISSES = "updateservice_connector_buffer_pool_misses";
+    public static final String RETAINED_BYTES = "updateservice_connector_buffer_pool_retained_bytes";
+
+    static final int INITIAL_BUFFER_SIZE = 8192;
+
+    private final long maxRetainedBytes;
+    private final int maxBufferSize;
+    private final ArrayDeque<byte[]>[] stripes;
+    private final AtomicLong retainedBytes = new AtomicLong();
+    private Counter hits;
+    private Counter misses;
+
+    /**
+     * @param maxRetainedBytes max number of bytes kept by the pool in buffers not in use
+     * @param maxBufferSize    max size in bytes of the buffers kept by the pool
+     */
+    @SuppressWarnings("unchecked")
+    public UpdateServiceBufferPool(long maxRetainedBytes, int maxBufferSize) {
+        if (maxRetainedBytes < 0) {
+            throw new IllegalArgumentException("maxRetainedBytes must not be negative, was " + maxRetainedBytes);
+        }
+        if (maxBufferSize < INITIAL_BUFFER_SIZE) {
+            throw new IllegalArgumentException("maxBufferSize must be at least " + INITIAL_BUFFER_SIZE + ", was " + maxBufferSize);
+        }
+        this.maxRetainedBytes = maxRetainedBytes;
+        this.maxBufferSize = maxBufferSize;
+        final int processors = Runtime.getRuntime().availableProcessors();
+        stripes = new ArrayDeque[Integer.highestOneBit(Math.max(1, processors - 1)) << 1];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new ArrayDeque<>();
+        }
+    }
+
+    /**
+     * Creates pool from the following settings, all optional except for the first
+     * <pre>
+     *     {prefix}BUFFER_POOL_ENABLED             true to enable the pool (default false)
+     *     {prefix}BUFFER_POOL_MAX_RETAINED_BYTES  max bytes kept in buffers not in use (default 16777216)
+     *     {prefix}BUFFER_POOL_MAX_BUFFER_SIZE     max size of the buffers kept (default 1048576)
+     * </pre>
+     *
+     * @param config configuration to read
+     * @param prefix prefix of the settings, for example UPDATE_SERVICE_HTTP_
+     * @return the pool if enabled
+     */
+    static Optional<UpdateServiceBufferPool> fromConfig(Config config, String prefix) {
+        if (!config.getOptionalValue(prefix + "BUFFER_POOL_ENABLED", Boolean.class).orElse(false)) {
+            return Optional.empty();
+        }
+        return Optional.of(new UpdateServiceBufferPool(
+                config.getOptionalValue(prefix + "BUFFER_POOL_MAX_RETAINED_BYTES", Long.class).orElse(16L << 20),
+                config.getOptionalValue(prefix + "BUFFER_POOL_MAX_BUFFER_SIZE", Integer.class).orElse(1 << 20)));
+    }
+
+    /**
+     * Registers {@value #HITS} and {@value #MISSES} counters of buffers taken
+     * from the pool and buffers allocated because the pool had none, and a
+     * {@value #RETAINED_BYTES} gauge
+     *
+     * @param metricRegistry registry to register the metrics in
+     * @return this pool
+     */
+    public UpdateServiceBufferPool withMetrics(MetricRegistry metricRegistry) {
+        hits = metricRegistry.counter(HITS);
+        misses = metricRegistry.counter(MISSES);
+        metricRegistry.gauge(RETAINED_BYTES, this, UpdateServiceBufferPool::getRetainedBytes);
+        return this;
+    }
+
+    /**
+     * @return number of bytes kept by the pool in buffers not in use
+     */
+    public long getRetainedBytes() {
+        return retainedBytes.get();
+    }
+
+    /**
+     * @return empty buffer, to be released when no longer used
+     */
+    public Buffer acquire() {
+        final ArrayDeque<byte[]> stripe = stripe();
+        final byte[] bytes;
+        synchronized (stripe) {
+            bytes = stripe.pollFirst();
+        }
+        if (bytes == null) {
+            if (misses != null) {
+                misses.inc();
+            }
+            return new Buffer(this, new byte[INITIAL_BUFFER_SIZE]);
+        }
+        retainedBytes.addAndGet(-bytes.length);
+        if (hits != null) {
+            hits.inc();
+        }
+        return new Buffer(this, bytes);
+    }
+
+    /**
+     * @param buffer buffer to release, may be null
+     */
+    static void release(Buffer buffer) {
+        if (buffer != null) {
+            buffer.release();
+        }
+    }
+
+    private void offer(byte[] bytes) {
+        if (bytes.length > maxBufferSize) {
+            return;
+        }
+        if (retainedBytes.addAndGet(bytes.length) > maxRetainedBytes) {
+            retainedBytes.addAndGet(-bytes.length);
+            return;
+        }
+        final ArrayDeque<byte[]> stripe = stripe();
+        synchronized (stripe) {
+            stripe.offerFirst(bytes);
+        }
+    }
+
+    private ArrayDeque<byte[]> stripe() {
+        return stripes[(int) Thread.currentThread().getId() & (stripes.length - 1)];
+    }
+
+    /**
+     * Growable buffer borrowed from a pool
+     * <p>
+     * A buffer is used by one call at a time and must not be used after it
+     * has been released.
+     * </p>
+     */
+    public static final class Buffer extends OutputStream {
+        private final UpdateServiceBufferPool pool;
+        private byte[] bytes;
+        private int size;
+
+        private Buffer(UpdateServiceBufferPool pool, byte[] bytes) {
+            this.pool = pool;
+            this.bytes = bytes;
+        }
+
+        @Override
+        public void write(int b) {
+            ensureCapacity(size + 1);
+            bytes[size++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            ensureCapacity(size + len);
+            System.arraycopy(b, off, bytes, size, len);
+            size += len;
+        }
+
+        /**
+         * @param outputStream stream to write the contents of the buffer to
+         * @throws IOException if the stream could not be written
+         */
+        public void writeTo(OutputStream outputStream) throws IOException {
+            outputStream.write(bytes, 0, size);
+        }
+
+        /**
+         * @return backing array of the buffer, holding {@link #size()} bytes
+         */
+        public byte[] array() {
+            return bytes;
+        }
+
+        /**
+         * @return number of bytes in the buffer
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Returns the buffer to its pool, doing nothing if it has already been released
+         */
+        public void release() {
+            final byte[] released = bytes;
+            if (released != null) {
+                bytes = null;
+                size = 0;
+                pool.offer(released);
+            }
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity > bytes.length) {
+                if (capacity < 0) {
+                    throw new OutOfMemoryError("Buffer size exceeds max array size");
+                }
+                bytes = Arrays.copyOf(bytes, Math.max(capacity, (int) Math.min(bytes.length * 2L, Integer.MAX_VALUE - 8)));
+            }
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright Dansk Bibliotekscenter a/s. Licensed under GPLv3
+ * See license text in LICENSE.txt or at https://opensource.dbc.dk/licenses/gpl-3.0/
+ */
+
+package dk.dbc.updateservice;
+
+import dk.dbc.updateservice.dto.UpdateRecordResponseDTO;
+import dk.dbc.updateservice.dto.UpdateServiceRequestDTO;
+
+/**
+ * Outcome of a single request sent through
+ * {@link UpdateServiceUpdateConnector#updateRecords(java.util.Collection, int)}
+ * <p>
+ * Exactly one of {@link #getResponse()} and {@link #getException()} is non-null.
+ * </p>
+ */
+public class UpdateServiceBulkUpdateResult {
+    private final UpdateServiceRequestDTO request;
+    private final UpdateRecordResponseDTO response;
+    private final Exception exception;
+
+    private UpdateServiceBulkUpdateResult(UpdateServiceRequestDTO request, UpdateRecordResponseDTO response, Exception exception) {
+        this.request = request;
+        this.response = response;
+        this.exception = exception;
+    }
+
+    static UpdateServiceBulkUpdateResult success(UpdateServiceRequestDTO request, UpdateRecordResponseDTO response) {
+        return new UpdateServiceBulkUpdateResult(request, response, null);
+    }
+
+    static UpdateServiceBulkUpdateResult failure(UpdateServiceRequestDTO request, Exception exception) {
+        return new UpdateServiceBulkUpdateResult(request, null, exception);
+    }
+
+    /**
+     * @return the request this is the result of
+     */
+    public UpdateServiceRequestDTO getRequest() {
+        return request;
+    }
+
+    /**
+     * @return the response returned by update service or null if the call failed
+     */
+    public UpdateRecordResponseDTO getResponse() {
+        return response;
+    }
+
+    /**
+     * @return the exception which would have been thrown by
+     * {@link UpdateServiceUpdateConnector#updateRecord(UpdateServiceRequestDTO)}
+     * or null if the call succeeded
+     */
+    public Exception getException() {
+        return exception;
+    }
+
+    /**
+     * @return true if a response was received from update service
+     */
+    public boolean isSuccess() {
+        return exception == null;
+    }
+
+    @Override
+    public String toString() {
+        return "UpdateServiceBulkUpdateResult{" +
+                "response=" + response +
+                ", exception=" + exception +
+                '}';
+    }
+}
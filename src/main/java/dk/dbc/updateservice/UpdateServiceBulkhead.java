@@ -0,0 +1,259 @@
+/*
+ * Copyright Dansk Bibliotekscenter a/s. Licensed under GPLv3
+ * See license text in LICENSE.txt or at https://opensource.dbc.dk/licenses/gpl-3.0/
+ */
+
+package dk.dbc.updateservice;
+
+import dk.dbc.invariant.InvariantUtil;
+import org.eclipse.microprofile.config.Config;
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.Tag;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Separates the calls to the update service endpoints into compartments, so a
+ * slow endpoint cannot take all the threads and connections the others need
+ * <p>
+ * Every endpoint has its own limit on calls in flight. In addition the
+ * bulkhead knows the capacity of the shared connection pool, and an endpoint
+ * may have a number of connections reserved: calls to other endpoints are not
+ * let in when they would leave fewer free connections than the unused
+ * reservations. Calls not let in wait for up to the max wait time and are then
+ * rejected with {@link UpdateServiceBulkheadFullException}. Asynchronous calls
+ * are rejected right away instead of blocking the caller or a timer thread.
+ * </p>
+ * <p>
+ * Endpoints are named by the last element of their path, that is updateservice,
+ * getschemas, doublerecordcheck and classificationcheck. A single bulkhead is
+ * meant to be shared by all connectors using the same connection pool.
+ * </p>
+ */
+public class UpdateServiceBulkhead implements UpdateServiceCallInterceptor {
+    public static final String IN_USE = "updateservice_connector_bulkhead_in_use";
+    public static final String REJECTIONS = "updateservice_connector_bulkhead_rejections";
+
+    static final String[] ENDPOINTS = {"updateservice", "getschemas", "doublerecordcheck", "classificationcheck"};
+
+    private final int capacity;
+    private Duration maxWait = Duration.ZERO;
+    private MetricRegistry metricRegistry;
+
+    // guarded by this
+    private final Map<String, Compartment> compartments = new HashMap<>();
+    private int inUse;
+
+    /**
+     * @param capacity number of connections in the shared pool, which is also
+     *                 the max number of calls in flight across all endpoints
+     */
+    public UpdateServiceBulkhead(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive, was " + capacity);
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * Creates bulkhead from the following settings, all optional except for the first
+     * <pre>
+     *     {prefix}BULKHEAD_ENABLED                      true to enable the bulkhead (default false)
+     *     {prefix}BULKHEAD_MAX_WAIT_MS                  max time a call waits to be let in (default 0)
+     *     {prefix}BULKHEAD_{ENDPOINT}_MAX_CALLS         max calls in flight to the endpoint (default capacity)
+     *     {prefix}BULKHEAD_{ENDPOINT}_RESERVED          connections reserved for the endpoint (default 0)
+     * </pre>
+     * where {ENDPOINT} is UPDATESERVICE, GETSCHEMAS, DOUBLERECORDCHECK or CLASSIFICATIONCHECK
+     *
+     * @param config   configuration to read
+     * @param prefix   prefix of the settings, for example UPDATE_SERVICE_
+     * @param capacity number of connections in the shared pool
+     * @return the bulkhead if enabled
+     */
+    static Optional<UpdateServiceBulkhead> fromConfig(Config config, String prefix, int capacity) {
+        if (!config.getOptionalValue(prefix + "BULKHEAD_ENABLED", Boolean.class).orElse(false)) {
+            return Optional.empty();
+        }
+        final UpdateServiceBulkhead bulkhead = new UpdateServiceBulkhead(capacity);
+        config.getOptionalValue(prefix + "BULKHEAD_MAX_WAIT_MS", Long.class)
+                .ifPresent(ms -> bulkhead.withMaxWait(Duration.ofMillis(ms)));
+        for (String endpoint : ENDPOINTS) {
+            final String endpointPrefix = prefix + "BULKHEAD_" + endpoint.toUpperCase(Locale.ROOT) + "_";
+            config.getOptionalValue(endpointPrefix + "MAX_CALLS", Integer.class)
+                    .ifPresent(maxCalls -> bulkhead.withMaxCalls(endpoint, maxCalls));
+            config.getOptionalValue(endpointPrefix + "RESERVED", Integer.class)
+                    .ifPresent(reserved -> bulkhead.withReserved(endpoint, reserved));
+        }
+        return Optional.of(bulkhead);
+    }
+
+    /**
+     * @param maxWait max time a call waits to be let in before being rejected (default 0)
+     * @return this bulkhead
+     */
+    public synchronized UpdateServiceBulkhead withMaxWait(Duration maxWait) {
+        this.maxWait = InvariantUtil.checkNotNullOrThrow(maxWait, "maxWait");
+        return this;
+    }
+
+    /**
+     * @param endpoint name of the endpoint, for example doublerecordcheck
+     * @param maxCalls max number of calls in flight to the endpoint (default capacity)
+     * @return this bulkhead
+     */
+    public synchronized UpdateServiceBulkhead withMaxCalls(String endpoint, int maxCalls) {
+        if (maxCalls < 1) {
+            throw new IllegalArgumentException("maxCalls must be positive, was " + maxCalls);
+        }
+        compartment(endpoint).maxCalls = maxCalls;
+        return this;
+    }
+
+    /**
+     * @param endpoint name of the endpoint, for example doublerecordcheck
+     * @param reserved number of connections only calls to the endpoint may use (default 0)
+     * @return this bulkhead
+     */
+    public synchronized UpdateServiceBulkhead withReserved(String endpoint, int reserved) {
+        final Compartment compartment = compartment(endpoint);
+        final int totalReserved = compartments.values().stream()
+                .mapToInt(c -> c.reserved)
+                .sum() - compartment.reserved + reserved;
+        if (reserved < 0 || totalReserved > capacity) {
+            throw new IllegalArgumentException(String.format(
+                    "reserved connections must be between 0 and the capacity of %d in total, was %d", capacity, totalReserved));
+        }
+        compartment.reserved = reserved;
+        return this;
+    }
+
+    /**
+     * Registers a {@value #IN_USE} gauge and a {@value #REJECTIONS} counter for
+     * every endpoint, tagged with the name of the endpoint
+     *
+     * @param metricRegistry registry to register the metrics in
+     * @return this bulkhead
+     */
+    public synchronized UpdateServiceBulkhead withMetrics(MetricRegistry metricRegistry) {
+        this.metricRegistry = metricRegistry;
+        for (String endpoint : ENDPOINTS) {
+            compartment(endpoint);
+        }
+        compartments.forEach(this::registerMetrics);
+        return this;
+    }
+
+    /**
+     * @param endpoint name of the endpoint
+     * @return number of calls in flight to the endpoint
+     */
+    public synchronized int getInUse(String endpoint) {
+        final Compartment compartment = compartments.get(endpoint);
+        return compartment == null ? 0 : compartment.inUse;
+    }
+
+    @Override
+    public int order() {
+        return ORDER_BULKHEAD;
+    }
+
+    @Override
+    public Call begin(String path) {
+        final Compartment compartment = acquire(UpdateServiceCallInterceptors.endpointName(path), true);
+        return failure -> release(compartment);
+    }
+
+    @Override
+    public Call beginNonBlocking(String path) {
+        final Compartment compartment = acquire(UpdateServiceCallInterceptors.endpointName(path), false);
+        return failure -> release(compartment);
+    }
+
+    private synchronized Compartment acquire(String endpoint, boolean mayWait) {
+        final Compartment compartment = compartment(endpoint);
+        if (!canEnter(compartment)) {
+            if (!mayWait) {
+                throw reject(endpoint, compartment);
+            }
+            final long deadline = System.nanoTime() + maxWait.toNanos();
+            try {
+                do {
+                    final long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        throw reject(endpoint, compartment);
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                } while (!canEnter(compartment));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw reject(endpoint, compartment);
+            }
+        }
+        compartment.inUse++;
+        inUse++;
+        return compartment;
+    }
+
+    private synchronized void release(Compartment compartment) {
+        compartment.inUse--;
+        inUse--;
+        notifyAll();
+    }
+
+    private boolean canEnter(Compartment compartment) {
+        if (compartment.inUse >= compartment.maxCalls) {
+            return false;
+        }
+        if (compartment.inUse < compartment.reserved) {
+            return true;
+        }
+        int reservedByOthers = 0;
+        for (Compartment other : compartments.values()) {
+            if (other != compartment) {
+                reservedByOthers += Math.max(0, other.reserved - other.inUse);
+            }
+        }
+        return inUse + reservedByOthers < capacity;
+    }
+
+    private UpdateServiceBulkheadFullException reject(String endpoint, Compartment compartment) {
+        if (compartment.rejections != null) {
+            compartment.rejections.inc();
+        }
+        return new UpdateServiceBulkheadFullException(String.format(
+                "Bulkhead of endpoint '%s' is full with %d calls in flight", endpoint, compartment.inUse), endpoint);
+    }
+
+    private Compartment compartment(String endpoint) {
+        return compartments.computeIfAbsent(endpoint, e -> {
+            final Compartment compartment = new Compartment(capacity);
+            if (metricRegistry != null) {
+                registerMetrics(e, compartment);
+            }
+            return compartment;
+        });
+    }
+
+    private void registerMetrics(String endpoint, Compartment compartment) {
+        final Tag endpointTag = new Tag("endpoint", endpoint);
+        metricRegistry.gauge(IN_USE, this, bulkhead -> bulkhead.getInUse(endpoint), endpointTag);
+        compartment.rejections = metricRegistry.counter(REJECTIONS, endpointTag);
+    }
+
+    private static class Compartment {
+        private int maxCalls;
+        private int reserved;
+        private int inUse;
+        private Counter rejections;
+
+        Compartment(int maxCalls) {
+            this.maxCalls = maxCalls;
+        }
+    }
+}
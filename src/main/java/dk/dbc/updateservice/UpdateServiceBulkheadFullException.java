@@ -0,0 +1,32 @@
+/*
+ * Copyright Dansk Bibliotekscenter a/s. Licensed under GPLv3
+ * See license text in LICENSE.txt or at https://opensource.dbc.dk/licenses/gpl-3.0/
+ */
+
+package dk.dbc.updateservice;
+
+import jakarta.ws.rs.ProcessingException;
+
+/**
+ * Thrown instead of sending a call when the bulkhead compartment of its
+ * endpoint is full
+ * <p>
+ * Extends {@link ProcessingException} so callers already handling transport
+ * failures also handle rejected calls.
+ * </p>
+ */
+public class UpdateServiceBulkheadFullException extends ProcessingException {
+    private final String endpoint;
+
+    public UpdateServiceBulkheadFullException(String message, String endpoint) {
+        super(message);
+        this.endpoint = endpoint;
+    }
+
+    /**
+     * @return name of the endpoint whose compartment was full
+     */
+    public String getEndpoint() {
+        return endpoint;
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright Dansk Bibliotekscenter a/s. Licensed under GPLv3
+ * See license text in LICENSE.txt or at https://opensource.dbc.dk/licenses/gpl-3.0/
+ */
+
+package dk.dbc.updateservice;
+
+/**
+ * Hook invoked around every call made by a connector, synchronous and asynchronous alike
+ */
+interface UpdateServiceCallInterceptor {
+    int ORDER_METRICS = 0;
+    int ORDER_BULKHEAD = 25;
+    int ORDER_CONCURRENCY_LIMITER = 50;
+    int ORDER_CIRCUIT_BREAKER = 100;
+    int ORDER_RETRY_BUDGET = 200;
+    int ORDER_STATISTICS = Integer.MAX_VALUE;
+
+    /**
+     * Interceptors with lower order are invoked first and see the
+     * rejections of interceptors with higher order
+     *
+     * @return order of this interceptor
+     */
+    int order();
+
+    /**
+     * Invoked before a call is sent
+     *
+     * @param path path of the endpoint being called
+     * @return handle to be notified when the call has completed
+     * @throws RuntimeException to reject the call
+     */
+    Call begin(String path);
+
+    /**
+     * Invoked instead of {@link #begin(String)} before a call is sent by an
+     * asynchronous entry point or from a timer thread, where the interceptor
+     * must not block: a call that would have to wait is rejected right away
+     *
+     * @param path path of the endpoint being called
+     * @return handle to be notified when the call has completed
+     * @throws RuntimeException to reject the call
+     */
+    default Call beginNonBlocking(String path) {
+        return begin(path);
+    }
+
+    interface Call {
+        /**
+         * Invoked when a response has been received
+         *
+         * @param status http status code of the response
+         */
+        default void responseStatus(int status) {
+        }
+
+        /**
+         * Invoked exactly once when the call has completed
+         *
+         * @param failure the failure of the call or null if it succeeded
+         */
+        void end(Throwable failure);
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright Dansk Bibliotekscenter a/s. Licensed under GPLv3
+ * See license text in LICENSE.txt or at https://opensource.dbc.dk/licenses/gpl-3.0/
+ */
+
+package dk.dbc.updateservice;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Ordered chain of the {@link UpdateServiceCallInterceptor}s of a connector
+ */
+final class UpdateServiceCallInterceptors {
+    private static final UpdateServiceCallInterceptor.Call NO_OP_CALL = failure -> {
+    };
+
+    private volatile List<UpdateServiceCallInterceptor> interceptors = new ArrayList<>();
+
+    /**
+     * Returns the name used for an endpoint in metrics and logs, i.e. the
+     * last element of its path
+     *
+     * @param path path of the endpoint
+     * @return endpoint name
+     */
+    static String endpointName(String path) {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    synchronized void add(UpdateServiceCallInterceptor interceptor) {
+        final List<UpdateServiceCallInterceptor> copy = new ArrayList<>(interceptors);
+        copy.add(interceptor);
+        copy.sort(Comparator.comparingInt(UpdateServiceCallInterceptor::order));
+        interceptors = copy;
+    }
+
+    UpdateServiceCallInterceptor.Call begin(String path) {
+        return begin(path, false);
+    }
+
+    /**
+     * Begins a call without blocking the calling thread, for the asynchronous
+     * entry points and the hedging timer
+     *
+     * @param path path of the endpoint being called
+     * @return handle to be notified when the call has completed
+     */
+    UpdateServiceCallInterceptor.Call beginNonBlocking(String path) {
+        return begin(path, true);
+    }
+
+    private UpdateServiceCallInterceptor.Call begin(String path, boolean nonBlocking) {
+        final List<UpdateServiceCallInterceptor> current = interceptors;
+        if (current.isEmpty()) {
+            return NO_OP_CALL;
+        }
+        final List<UpdateServiceCallInterceptor.Call> calls = new ArrayList<>(current.size());
+        try {
+            for (UpdateServiceCallInterceptor interceptor : current) {
+                calls.add(nonBlocking ? interceptor.beginNonBlocking(path) : interceptor.begin(path));
+            }
+        } catch (RuntimeException e) {
+            end(calls, e);
+            throw e;
+        }
+        return new UpdateServiceCallInterceptor.Call() {
+            @Override
+            public void responseStatus(int status) {
+                for (UpdateServiceCallInterceptor.Call call : calls) {
+                    call.responseStatus(status);
+                }
+            }
+
+            @Override
+            public void end(Throwable failure) {
+                UpdateServiceCallInterceptors.end(calls, failure);
+            }
+        };
+    }
+
+    private static void end(List<UpdateServiceCallInterceptor.Call> calls, Throwable failure) {
+        for (int i = calls.size() - 1; i >= 0; i--) {
+            calls.get(i).end(failure);
+        }
+    }
+}
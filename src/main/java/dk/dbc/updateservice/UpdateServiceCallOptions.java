@@ -0,0 +1,121 @@
+/*
+ * Copyright Dansk Bibliotekscenter a/s. Licensed under GPLv3
+ * See license text in LICENSE.txt or at https://opensource.dbc.dk/licenses/gpl-3.0/
+ */
+
+package dk.dbc.updateservice;
+
+import dk.dbc.invariant.InvariantUtil;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Options of a single call
+ * <p>
+ * A call given a timeout or a deadline fails with
+ * {@link UpdateServiceDeadlineExceededException} once the time is up, whether
+ * it is connecting, waiting for the response or waiting to retry. The connect
+ * and read timeouts of every attempt are lowered to the time left, and no
+ * retry is attempted after the deadline has passed.
+ * </p>
+ */
+public class UpdateServiceCallOptions {
+    private Duration timeout;
+    private Instant deadline;
+
+    /**
+     * @param timeout max duration of the call, counted from when the call is made
+     * @return these options
+     */
+    public UpdateServiceCallOptions withTimeout(Duration timeout) {
+        this.timeout = InvariantUtil.checkNotNullOrThrow(timeout, "timeout");
+        return this;
+    }
+
+    /**
+     * @param deadline point in time by which the call must have completed
+     * @return these options
+     */
+    public UpdateServiceCallOptions withDeadline(Instant deadline) {
+        this.deadline = InvariantUtil.checkNotNullOrThrow(deadline, "deadline");
+        return this;
+    }
+
+    public Duration getTimeout() {
+        return timeout;
+    }
+
+    public Instant getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * @return the deadline of a call made now, the earliest of the timeout and
+     * the deadline, or null if neither is set
+     */
+    Deadline startCall() {
+        if (timeout == null && deadline == null) {
+            return null;
+        }
+        Duration budget = timeout;
+        if (deadline != null) {
+            final Duration untilDeadline = Duration.between(Instant.now(), deadline);
+            if (budget == null || untilDeadline.compareTo(budget) < 0) {
+                budget = untilDeadline;
+            }
+        }
+        return new Deadline(budget);
+    }
+
+    /**
+     * Deadline of a call in progress
+     */
+    static final class Deadline {
+        private final Duration timeout;
+        private final long start = System.nanoTime();
+        private final long deadlineNanos;
+
+        Deadline(Duration timeout) {
+            this.timeout = timeout;
+            deadlineNanos = start + timeout.toNanos();
+        }
+
+        long remainingMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+        }
+
+        UpdateServiceDeadlineExceededException exceeded() {
+            return new UpdateServiceDeadlineExceededException(timeout,
+                    Duration.ofNanos(System.nanoTime() - start));
+        }
+
+        /**
+         * @param future future of the call
+         * @param <T>    type of the result
+         * @return future completed as the given future, or with
+         * {@link UpdateServiceDeadlineExceededException} if that has not
+         * happened by the deadline
+         */
+        <T> CompletableFuture<T> bound(CompletableFuture<T> future) {
+            final CompletableFuture<T> result = new CompletableFuture<>();
+            future.whenComplete((value, failure) -> {
+                if (failure == null) {
+                    result.complete(value);
+                } else {
+                    result.completeExceptionally(UpdateServiceFutures.unwrap(failure));
+                }
+            });
+            final long remainingNanos = deadlineNanos - System.nanoTime();
+            if (remainingNanos <= 0) {
+                result.completeExceptionally(exceeded());
+            } else if (!result.isDone()) {
+                CompletableFuture.delayedExecutor(remainingNanos, TimeUnit.NANOSECONDS)
+                        .execute(() -> result.completeExceptionally(exceeded()));
+            }
+            return result;
+        }
+    }
+}
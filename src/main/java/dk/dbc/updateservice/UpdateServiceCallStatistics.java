@@ -0,0 +1,143 @@
+/*
+ * Copyright Dansk Bibliotekscenter a/s. Licensed under GPLv3
+ * See license text in LICENSE.txt or at https://opensource.dbc.dk/licenses/gpl-3.0/
+ */
+
+package dk.dbc.updateservice;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the latency and outcome of the most recent calls made by a connector
+ * <p>
+ * Samples are kept in a fixed size ring buffer written without locking, so
+ * snapshots are approximate under concurrent updates, which is fine for
+ * health reporting and tuning purposes.
+ * </p>
+ */
+public class UpdateServiceCallStatistics implements UpdateServiceCallInterceptor {
+    static final int DEFAULT_CAPACITY = 1024;
+
+    private final int mask;
+    private final long[] endTimes;
+    private final long[] latencies;
+    private final boolean[] failures;
+    private final AtomicLong sequence = new AtomicLong();
+
+    public UpdateServiceCallStatistics() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity number of samples kept, rounded up to a power of two
+     */
+    public UpdateServiceCallStatistics(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive, was " + capacity);
+        }
+        final int size = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        mask = size - 1;
+        endTimes = new long[size];
+        latencies = new long[size];
+        failures = new boolean[size];
+    }
+
+    /**
+     * Statistics are recorded after all interceptors which may reject a call,
+     * so they only reflect calls actually sent to update service. Calls
+     * cancelled because a hedge won are not recorded either.
+     */
+    @Override
+    public int order() {
+        return ORDER_STATISTICS;
+    }
+
+    @Override
+    public Call begin(String path) {
+        final long start = System.nanoTime();
+        return failure -> {
+            if (failure instanceof CancellationException) {
+                // lost to another hedged request, neither a latency nor a failure of update service
+                return;
+            }
+            final long end = System.nanoTime();
+            record(end, end - start, failure != null);
+        };
+    }
+
+    void record(long endTimeNanos, long latencyNanos, boolean failed) {
+        final int slot = (int) (sequence.getAndIncrement() & mask);
+        endTimes[slot] = endTimeNanos;
+        latencies[slot] = latencyNanos;
+        failures[slot] = failed;
+    }
+
+    /**
+     * @param window only calls completed within this duration are included
+     * @return snapshot of the calls completed within the window
+     */
+    public Snapshot snapshot(Duration window) {
+        final long now = System.nanoTime();
+        final long windowNanos = window.toNanos();
+        final int recorded = (int) Math.min(sequence.get(), latencies.length);
+        final long[] sample = new long[recorded];
+        int count = 0;
+        int failed = 0;
+        for (int i = 0; i < recorded; i++) {
+            if (now - endTimes[i] <= windowNanos) {
+                sample[count++] = latencies[i];
+                if (failures[i]) {
+                    failed++;
+                }
+            }
+        }
+        Arrays.sort(sample, 0, count);
+        return new Snapshot(Arrays.copyOf(sample, count), failed);
+    }
+
+    public static class Snapshot {
+        private final long[] sortedLatencies;
+        private final int failures;
+
+        Snapshot(long[] sortedLatencies, int failures) {
+            this.sortedLatencies = sortedLatencies;
+            this.failures = failures;
+        }
+
+        /**
+         * @return number of calls in the snapshot
+         */
+        public int getCount() {
+            return sortedLatencies.length;
+        }
+
+        /**
+         * @return number of failed calls in the snapshot
+         */
+        public int getFailures() {
+            return failures;
+        }
+
+        /**
+         * @return fraction of failed calls, 0 if the snapshot is empty
+         */
+        public double getErrorRate() {
+            return sortedLatencies.length == 0 ? 0 : (double) failures / sortedLatencies.length;
+        }
+
+        /**
+         * @param quantile quantile between 0 and 1
+         * @return latency at the given quantile, {@link Duration#ZERO} if the snapshot is empty
+         */
+        public Duration getLatency(double quantile) {
+            if (sortedLatencies.length == 0) {
+                return Duration.ZERO;
+            }
+            final int index = (int) Math.ceil(quantile * sortedLatencies.length) - 1;
+            return Duration.ofNanos(sortedLatencies[Math.max(0, Math.min(index, sortedLatencies.length - 1))]);
+        }
+    }
+}
@@ -0,0 +1,368 @@
+/*
+ * Copyright Dansk Bibliotekscenter a/s. Licensed under GPLv3
+ * See license text in LICENSE.txt or at https://opensource.dbc.dk/licenses/gpl-3.0/
+ */
+
+package dk.dbc.updateservice;
+
+import dk.dbc.invariant.InvariantUtil;
+import org.eclipse.microprofile.config.Config;
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.Tag;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import jakarta.ws.rs.ProcessingException;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Circuit breaker failing calls fast while update service is failing or slow
+ * <p>
+ * The outcome of the most recent calls is kept in a sliding window. When the
+ * window holds at least the minimum number of calls and either the failure rate
+ * or the slow call rate reaches its threshold, the breaker opens and rejects all
+ * calls with {@link UpdateServiceCircuitBreakerOpenException}. After the open
+ * duration a limited number of probe calls are let through (half open). The
+ * breaker closes if they all succeed in time, otherwise it opens again.
+ * </p>
+ * <p>
+ * A call includes the retries made by the connector, so a call is only
+ * recorded as failed when all its attempts failed. Only failures telling that
+ * update service is unavailable count: transport failures and timeouts, which
+ * the client reports as {@link ProcessingException}, and 5xx responses. Other
+ * responses, 4xx included, count as successes, and calls failing before
+ * reaching update service, for instance because the request could not be
+ * encoded, being cancelled or exceeding the deadline set by the caller are
+ * not recorded.
+ * </p>
+ * <p>
+ * A probe not completed within the slow call duration is bound to be recorded
+ * as slow, which opens the breaker again. Once all probes are out and have
+ * been for that long, the breaker opens again without waiting for them, so
+ * hung probes cannot keep it half open.
+ * </p>
+ */
+public class UpdateServiceCircuitBreaker implements UpdateServiceCallInterceptor {
+    public static final String STATE = "updateservice_connector_circuit_breaker_state";
+    public static final String REJECTIONS = "updateservice_connector_circuit_breaker_rejections";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(UpdateServiceCircuitBreaker.class);
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private static final byte SUCCESS = 0;
+    private static final byte FAILURE = 1;
+    private static final byte SLOW = 2;
+    private static final byte SLOW_FAILURE = FAILURE | SLOW;
+    private static final byte IGNORED = -1;
+
+    private final String name;
+    private double failureRateThreshold = 0.5;
+    private double slowCallRateThreshold = 1.0;
+    private Duration slowCallDuration = Duration.ofSeconds(60);
+    private int minimumCalls = 20;
+    private Duration openDuration = Duration.ofSeconds(30);
+    private int halfOpenCalls = 5;
+    private Counter rejections;
+
+    // guarded by this
+    private State state = State.CLOSED;
+    private long generation;
+    private byte[] window = new byte[100];
+    private int windowIndex;
+    private int windowCount;
+    private int failures;
+    private int slowCalls;
+    private long openUntil;
+    private int halfOpenPermits;
+    private int halfOpenSuccesses;
+    private long lastProbeStart;
+
+    /**
+     * @param name name of the breaker used in logs and metrics, typically the name of the connector
+     */
+    public UpdateServiceCircuitBreaker(String name) {
+        this.name = InvariantUtil.checkNotNullNotEmptyOrThrow(name, "name");
+    }
+
+    /**
+     * Creates breaker from the following settings, all optional except for the first
+     * <pre>
+     *     {prefix}CIRCUIT_BREAKER_ENABLED                  true to enable the breaker (default false)
+     *     {prefix}CIRCUIT_BREAKER_FAILURE_RATE_THRESHOLD   failure rate opening the breaker (default 0.5)
+     *     {prefix}CIRCUIT_BREAKER_SLOW_CALL_RATE_THRESHOLD slow call rate opening the breaker (default 1.0)
+     *     {prefix}CIRCUIT_BREAKER_SLOW_CALL_DURATION_MS    calls taking longer than this are slow (default 60000)
+     *     {prefix}CIRCUIT_BREAKER_WINDOW_SIZE              number of calls in the sliding window (default 100)
+     *     {prefix}CIRCUIT_BREAKER_MINIMUM_CALLS            calls needed in the window before opening (default 20)
+     *     {prefix}CIRCUIT_BREAKER_OPEN_DURATION_MS         time the breaker stays open (default 30000)
+     *     {prefix}CIRCUIT_BREAKER_HALF_OPEN_CALLS          probe calls let through when half open (default 5)
+     * </pre>
+     *
+     * @param config configuration to read
+     * @param prefix prefix of the settings, for example UPDATE_SERVICE_
+     * @param name   name of the breaker
+     * @return the breaker if enabled
+     */
+    static Optional<UpdateServiceCircuitBreaker> fromConfig(Config config, String prefix, String name) {
+        if (!config.getOptionalValue(prefix + "CIRCUIT_BREAKER_ENABLED", Boolean.class).orElse(false)) {
+            return Optional.empty();
+        }
+        final UpdateServiceCircuitBreaker circuitBreaker = new UpdateServiceCircuitBreaker(name);
+        config.getOptionalValue(prefix + "CIRCUIT_BREAKER_FAILURE_RATE_THRESHOLD", Double.class)
+                .ifPresent(circuitBreaker::withFailureRateThreshold);
+        config.getOptionalValue(prefix + "CIRCUIT_BREAKER_SLOW_CALL_RATE_THRESHOLD", Double.class)
+                .ifPresent(circuitBreaker::withSlowCallRateThreshold);
+        config.getOptionalValue(prefix + "CIRCUIT_BREAKER_SLOW_CALL_DURATION_MS", Long.class)
+                .ifPresent(ms -> circuitBreaker.withSlowCallDuration(Duration.ofMillis(ms)));
+        config.getOptionalValue(prefix + "CIRCUIT_BREAKER_WINDOW_SIZE", Integer.class)
+                .ifPresent(circuitBreaker::withWindowSize);
+        config.getOptionalValue(prefix + "CIRCUIT_BREAKER_MINIMUM_CALLS", Integer.class)
+                .ifPresent(circuitBreaker::withMinimumCalls);
+        config.getOptionalValue(prefix + "CIRCUIT_BREAKER_OPEN_DURATION_MS", Long.class)
+                .ifPresent(ms -> circuitBreaker.withOpenDuration(Duration.ofMillis(ms)));
+        config.getOptionalValue(prefix + "CIRCUIT_BREAKER_HALF_OPEN_CALLS", Integer.class)
+                .ifPresent(circuitBreaker::withHalfOpenCalls);
+        return Optional.of(circuitBreaker);
+    }
+
+    /**
+     * @param failureRateThreshold fraction of failed calls in the window opening the breaker (default 0.5)
+     * @return this breaker
+     */
+    public UpdateServiceCircuitBreaker withFailureRateThreshold(double failureRateThreshold) {
+        this.failureRateThreshold = failureRateThreshold;
+        return this;
+    }
+
+    /**
+     * @param slowCallRateThreshold fraction of slow calls in the window opening the breaker (default 1.0)
+     * @return this breaker
+     */
+    public UpdateServiceCircuitBreaker withSlowCallRateThreshold(double slowCallRateThreshold) {
+        this.slowCallRateThreshold = slowCallRateThreshold;
+        return this;
+    }
+
+    /**
+     * @param slowCallDuration calls taking longer than this are slow (default 60 seconds)
+     * @return this breaker
+     */
+    public UpdateServiceCircuitBreaker withSlowCallDuration(Duration slowCallDuration) {
+        this.slowCallDuration = InvariantUtil.checkNotNullOrThrow(slowCallDuration, "slowCallDuration");
+        return this;
+    }
+
+    /**
+     * @param windowSize number of calls in the sliding window (default 100)
+     * @return this breaker
+     */
+    public synchronized UpdateServiceCircuitBreaker withWindowSize(int windowSize) {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("windowSize must be positive, was " + windowSize);
+        }
+        window = new byte[windowSize];
+        resetWindow();
+        return this;
+    }
+
+    /**
+     * @param minimumCalls calls needed in the window before the breaker can open (default 20)
+     * @return this breaker
+     */
+    public UpdateServiceCircuitBreaker withMinimumCalls(int minimumCalls) {
+        this.minimumCalls = minimumCalls;
+        return this;
+    }
+
+    /**
+     * @param openDuration time the breaker stays open before letting probe calls through (default 30 seconds)
+     * @return this breaker
+     */
+    public UpdateServiceCircuitBreaker withOpenDuration(Duration openDuration) {
+        this.openDuration = InvariantUtil.checkNotNullOrThrow(openDuration, "openDuration");
+        return this;
+    }
+
+    /**
+     * @param halfOpenCalls probe calls let through when half open, all of which must succeed to close (default 5)
+     * @return this breaker
+     */
+    public UpdateServiceCircuitBreaker withHalfOpenCalls(int halfOpenCalls) {
+        if (halfOpenCalls < 1) {
+            throw new IllegalArgumentException("halfOpenCalls must be positive, was " + halfOpenCalls);
+        }
+        this.halfOpenCalls = halfOpenCalls;
+        return this;
+    }
+
+    /**
+     * Registers a {@value #STATE} gauge (0 closed, 1 open, 2 half open) and a
+     * {@value #REJECTIONS} counter, both tagged with the name of the breaker
+     *
+     * @param metricRegistry registry to register the metrics in
+     * @return this breaker
+     */
+    public UpdateServiceCircuitBreaker withMetrics(MetricRegistry metricRegistry) {
+        final Tag nameTag = new Tag("connector", name);
+        metricRegistry.gauge(STATE, this, breaker -> breaker.getState().ordinal(), nameTag);
+        rejections = metricRegistry.counter(REJECTIONS, nameTag);
+        return this;
+    }
+
+    /**
+     * @return current state of the breaker
+     */
+    public synchronized State getState() {
+        if (state == State.OPEN && System.nanoTime() - openUntil >= 0) {
+            return State.HALF_OPEN;
+        }
+        return state;
+    }
+
+    @Override
+    public int order() {
+        return ORDER_CIRCUIT_BREAKER;
+    }
+
+    @Override
+    public Call begin(String path) {
+        final long callGeneration = acquirePermission();
+        final long start = System.nanoTime();
+        return new Call() {
+            private int status;
+
+            @Override
+            public void responseStatus(int status) {
+                this.status = status;
+            }
+
+            @Override
+            public void end(Throwable failure) {
+                final boolean slow = System.nanoTime() - start > slowCallDuration.toNanos();
+                record(callGeneration, outcome(failure, status, slow));
+            }
+        };
+    }
+
+    static byte outcome(Throwable failure, int status, boolean slow) {
+        final boolean failed;
+        if (failure instanceof UpdateServiceDeadlineExceededException) {
+            // the caller ran out of time, which says nothing about update service
+            return IGNORED;
+        } else if (failure instanceof ProcessingException || failure instanceof TimeoutException || status >= 500) {
+            failed = true;
+        } else if (failure == null || status != 0) {
+            // update service answered, even if the answer was not the expected one
+            failed = false;
+        } else {
+            // cancelled or failed before reaching update service
+            return IGNORED;
+        }
+        return (byte) ((failed ? FAILURE : SUCCESS) | (slow ? SLOW : SUCCESS));
+    }
+
+    private synchronized long acquirePermission() {
+        final long now = System.nanoTime();
+        if (state == State.OPEN && now - openUntil >= 0) {
+            transitionTo(State.HALF_OPEN);
+        } else if (state == State.HALF_OPEN && halfOpenPermits == 0 && now - lastProbeStart > slowCallDuration.toNanos()) {
+            LOGGER.warn("Opening circuit breaker '{}' again, its probe calls did not complete within {} ms",
+                    name, slowCallDuration.toMillis());
+            transitionTo(State.OPEN);
+        }
+        if (state == State.OPEN || (state == State.HALF_OPEN && halfOpenPermits == 0)) {
+            if (rejections != null) {
+                rejections.inc();
+            }
+            throw new UpdateServiceCircuitBreakerOpenException(
+                    String.format("Circuit breaker '%s' is %s", name, state), state);
+        }
+        if (state == State.HALF_OPEN) {
+            halfOpenPermits--;
+            lastProbeStart = now;
+        }
+        return generation;
+    }
+
+    private synchronized void record(long callGeneration, byte outcome) {
+        if (callGeneration != generation) {
+            // completed after a state transition, the outcome belongs to an earlier state
+            return;
+        }
+        if (outcome == IGNORED) {
+            if (state == State.HALF_OPEN) {
+                halfOpenPermits++;
+            }
+            return;
+        }
+        if (state == State.HALF_OPEN) {
+            if (outcome != SUCCESS) {
+                transitionTo(State.OPEN);
+            } else if (++halfOpenSuccesses == halfOpenCalls) {
+                transitionTo(State.CLOSED);
+            }
+            return;
+        }
+        if (windowCount == window.length) {
+            forget(window[windowIndex]);
+        } else {
+            windowCount++;
+        }
+        window[windowIndex] = outcome;
+        windowIndex = (windowIndex + 1) % window.length;
+        if ((outcome & FAILURE) != 0) {
+            failures++;
+        }
+        if ((outcome & SLOW) != 0) {
+            slowCalls++;
+        }
+        if (windowCount >= minimumCalls
+                && ((double) failures / windowCount >= failureRateThreshold
+                || (double) slowCalls / windowCount >= slowCallRateThreshold)) {
+            LOGGER.warn("Opening circuit breaker '{}' for {} ms, {} failed and {} slow of the last {} calls",
+                    name, openDuration.toMillis(), failures, slowCalls, windowCount);
+            transitionTo(State.OPEN);
+        }
+    }
+
+    private void forget(byte outcome) {
+        if (outcome == FAILURE || outcome == SLOW_FAILURE) {
+            failures--;
+        }
+        if (outcome == SLOW || outcome == SLOW_FAILURE) {
+            slowCalls--;
+        }
+    }
+
+    private void transitionTo(State newState) {
+        if (newState == State.CLOSED || state == State.HALF_OPEN) {
+            LOGGER.info("Circuit breaker '{}' transitions from {} to {}", name, state, newState);
+        }
+        state = newState;
+        generation++;
+        switch (newState) {
+            case OPEN:
+                openUntil = System.nanoTime() + openDuration.toNanos();
+                break;
+            case HALF_OPEN:
+                halfOpenPermits = halfOpenCalls;
+                halfOpenSuccesses = 0;
+                break;
+            case CLOSED:
+                resetWindow();
+                break;
+        }
+    }
+
+    private void resetWindow() {
+        windowIndex = 0;
+        windowCount = 0;
+        failures = 0;
+        slowCalls = 0;
+    }
+}
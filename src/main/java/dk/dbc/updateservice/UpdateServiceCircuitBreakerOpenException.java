@@ -0,0 +1,31 @@
+/*
+ * Copyright Dansk Bibliotekscenter a/s. Licensed under GPLv3
+ * See license text in LICENSE.txt or at https://opensource.dbc.dk/licenses/gpl-3.0/
+ */
+
+package dk.dbc.updateservice;
+
+import jakarta.ws.rs.ProcessingException;
+
+/**
+ * Thrown instead of sending a call while the circuit breaker of a connector is open
+ * <p>
+ * Extends {@link ProcessingException} so callers already handling transport
+ * failures also handle calls rejected by the breaker.
+ * </p>
+ */
+public class UpdateServiceCircuitBreakerOpenException extends ProcessingException {
+    private final UpdateServiceCircuitBreaker.State state;
+
+    public UpdateServiceCircuitBreakerOpenException(String message, UpdateServiceCircuitBreaker.State state) {
+        super(message);
+        this.state = state;
+    }
+
+    /**
+     * @return state of the breaker when the call was rejected
+     */
+    public UpdateServiceCircuitBreaker.State getState() {
+        return state;
+    }
+}
@@ -10,4 +10,8 @@ public class UpdateServiceClassificationCheckConnectorException extends Exceptio
     public UpdateServiceClassificationCheckConnectorException(String msg) {
         super(msg);
     }
+
+    public UpdateServiceClassificationCheckConnectorException(String msg, Throwable cause) {
+        super(msg, cause);
+    }
 }
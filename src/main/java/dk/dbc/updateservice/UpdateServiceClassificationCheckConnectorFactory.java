@@ -1,15 +1,19 @@
 package dk.dbc.updateservice;
 
 import dk.dbc.httpclient.HttpClient;
+import org.eclipse.microprofile.config.Config;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.metrics.MetricRegistry;
 import org.glassfish.jersey.client.ClientConfig;
+import org.glassfish.jersey.client.ClientProperties;
+import org.glassfish.jersey.client.RequestEntityProcessing;
 import org.glassfish.jersey.jackson.JacksonFeature;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import jakarta.annotation.PostConstruct;
-import jakarta.annotation.PreDestroy;
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.inject.Instance;
 import jakarta.enterprise.inject.Produces;
 import jakarta.inject.Inject;
 import jakarta.ws.rs.client.Client;
@@ -32,6 +36,36 @@ public class UpdateServiceClassificationCheckConnectorFactory {
         return new UpdateServiceClassificationCheckConnector(client, updateServiceBaseUrl, level);
     }
 
+    /**
+     * Creates connector which streams request bodies onto the connection, using
+     * chunked transfer encoding if streamingRequests is true
+     *
+     * @param updateServiceBaseUrl base URL for update service endpoint
+     * @param level                timings log level
+     * @param streamingRequests    true to stream request bodies
+     * @return new connector
+     */
+    public static UpdateServiceClassificationCheckConnector create(String updateServiceBaseUrl, UpdateServiceClassificationCheckConnector.TimingLogLevel level, boolean streamingRequests) {
+        final ClientConfig clientConfig = new ClientConfig()
+                .register(new JacksonFeature());
+        if (streamingRequests) {
+            clientConfig.property(ClientProperties.REQUEST_ENTITY_PROCESSING, RequestEntityProcessing.CHUNKED);
+        }
+        final Client client = HttpClient.newClient(clientConfig);
+        LOGGER.info("Creating UpdateServiceClassificationCheckConnector for: {} (streaming requests: {})", updateServiceBaseUrl, streamingRequests);
+        return new UpdateServiceClassificationCheckConnector(client, updateServiceBaseUrl, level)
+                .withStreamingRequests(streamingRequests);
+    }
+
+    @Inject
+    UpdateServiceHttpClientFactory httpClientFactory;
+
+    @Inject
+    Instance<MetricRegistry> metricRegistry;
+
+    @Inject
+    Config config;
+
     @Inject
     @ConfigProperty(name = "UPDATE_SERVICE_URL")
     private String updateServiceUrl;
@@ -44,16 +78,18 @@ public class UpdateServiceClassificationCheckConnectorFactory {
 
     @PostConstruct
     public void initializeConnector() {
-        updateServiceClassificationCheckConnector = UpdateServiceClassificationCheckConnectorFactory.create(updateServiceUrl, level);
+        final UpdateServiceConnectorWiring wiring = new UpdateServiceConnectorWiring(config, "UPDATE_SERVICE_CLASSIFICATION_CHECK_", "classificationcheck",
+                "UpdateServiceClassificationCheckConnector", httpClientFactory, metricRegistry);
+        updateServiceClassificationCheckConnector = wiring.create(updateServiceUrl,
+                httpClient -> new UpdateServiceClassificationCheckConnector(httpClient, updateServiceUrl, level));
+        wiring.enable(UpdateServiceHedging.fromConfig(config, wiring.getPrefix(), wiring.getEndpoint()), "hedging",
+                UpdateServiceHedging::withMetrics, updateServiceClassificationCheckConnector::withHedging);
+        wiring.enable(UpdateServiceSingleFlight.fromConfig(config, wiring.getPrefix(), wiring.getEndpoint()), "single flight coalescing",
+                UpdateServiceSingleFlight::withMetrics, updateServiceClassificationCheckConnector::withSingleFlight);
     }
 
     @Produces
     public UpdateServiceClassificationCheckConnector getInstance() {
         return updateServiceClassificationCheckConnector;
     }
-
-    @PreDestroy
-    public void tearDownConnector() {
-        updateServiceClassificationCheckConnector.close();
-    }
 }
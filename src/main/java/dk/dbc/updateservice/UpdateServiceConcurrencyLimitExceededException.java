@@ -0,0 +1,32 @@
+/*
+ * Copyright Dansk Bibliotekscenter a/s. Licensed under GPLv3
+ * See license text in LICENSE.txt or at https://opensource.dbc.dk/licenses/gpl-3.0/
+ */
+
+package dk.dbc.updateservice;
+
+import jakarta.ws.rs.ProcessingException;
+
+/**
+ * Thrown instead of sending a call when the concurrency limit of a connector is
+ * reached and the call could not be queued
+ * <p>
+ * Extends {@link ProcessingException} so callers already handling transport
+ * failures also handle rejected calls.
+ * </p>
+ */
+public class UpdateServiceConcurrencyLimitExceededException extends ProcessingException {
+    private final int limit;
+
+    public UpdateServiceConcurrencyLimitExceededException(String message, int limit) {
+        super(message);
+        this.limit = limit;
+    }
+
+    /**
+     * @return concurrency limit when the call was rejected
+     */
+    public int getLimit() {
+        return limit;
+    }
+}
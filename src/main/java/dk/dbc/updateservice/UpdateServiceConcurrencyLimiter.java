@@ -0,0 +1,300 @@
+/*
+ * Copyright Dansk Bibliotekscenter a/s. Licensed under GPLv3
+ * See license text in LICENSE.txt or at https://opensource.dbc.dk/licenses/gpl-3.0/
+ */
+
+package dk.dbc.updateservice;
+
+import dk.dbc.invariant.InvariantUtil;
+import jakarta.ws.rs.ProcessingException;
+import org.eclipse.microprofile.config.Config;
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.Tag;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adaptive limit on the number of calls in flight
+ * <p>
+ * The limit follows the latency of update service using a gradient algorithm:
+ * the latency of every call is compared to a long term average, and the limit
+ * shrinks when calls get slower than the average and grows, by roughly the
+ * square root of the limit, while they are not. Calls failing with a
+ * {@link ProcessingException}, for instance a timeout, or answered with 429 or
+ * 503 shrink the limit multiplicatively, except for calls exceeding their
+ * {@link UpdateServiceCallOptions} deadline (the decrease of AIMD). The limit only
+ * grows while at least half of it is in use, so a quiet connector does not
+ * drift towards the max limit.
+ * </p>
+ * <p>
+ * Calls over the limit wait for up to the queue timeout for a call to complete,
+ * and are rejected with {@link UpdateServiceConcurrencyLimitExceededException}
+ * if none does or if the queue is full. With the default queue timeout of zero
+ * they are rejected right away. Asynchronous calls never wait, as that would
+ * block the caller or a shared timer thread, and are rejected right away too.
+ * </p>
+ */
+public class UpdateServiceConcurrencyLimiter implements UpdateServiceCallInterceptor {
+    public static final String LIMIT = "updateservice_connector_concurrency_limit";
+    public static final String IN_FLIGHT = "updateservice_connector_concurrency_in_flight";
+    public static final String REJECTIONS = "updateservice_connector_concurrency_limit_rejections";
+
+    // number of samples the long term latency average is taken over
+    private static final double LONG_RTT_SAMPLES = 600;
+    // weight of a new limit estimate
+    private static final double SMOOTHING = 0.2;
+
+    private final String name;
+    private int minLimit = 1;
+    private int maxLimit = 200;
+    private double backoffRatio = 0.9;
+    private Duration queueTimeout = Duration.ZERO;
+    private int maxQueued = 100;
+    private Counter rejections;
+
+    // guarded by this
+    private double limit = 20;
+    private int inFlight;
+    private int queued;
+    private double longRttNanos;
+
+    /**
+     * @param name name of the limiter used in metrics, typically the name of the connector
+     */
+    public UpdateServiceConcurrencyLimiter(String name) {
+        this.name = InvariantUtil.checkNotNullNotEmptyOrThrow(name, "name");
+    }
+
+    /**
+     * Creates limiter from the following settings, all optional except for the first
+     * <pre>
+     *     {prefix}CONCURRENCY_LIMIT_ENABLED            true to enable the limiter (default false)
+     *     {prefix}CONCURRENCY_LIMIT_INITIAL            limit until latencies have been seen (default 20)
+     *     {prefix}CONCURRENCY_LIMIT_MIN                lowest limit (default 1)
+     *     {prefix}CONCURRENCY_LIMIT_MAX                highest limit (default 200)
+     *     {prefix}CONCURRENCY_LIMIT_BACKOFF_RATIO      factor applied to the limit on timeouts, 429 and 503 (default 0.9)
+     *     {prefix}CONCURRENCY_LIMIT_QUEUE_TIMEOUT_MS   max time a call over the limit waits (default 0)
+     *     {prefix}CONCURRENCY_LIMIT_MAX_QUEUED         max number of waiting calls (default 100)
+     * </pre>
+     *
+     * @param config configuration to read
+     * @param prefix prefix of the settings, for example UPDATE_SERVICE_
+     * @param name   name of the limiter
+     * @return the limiter if enabled
+     */
+    static Optional<UpdateServiceConcurrencyLimiter> fromConfig(Config config, String prefix, String name) {
+        if (!config.getOptionalValue(prefix + "CONCURRENCY_LIMIT_ENABLED", Boolean.class).orElse(false)) {
+            return Optional.empty();
+        }
+        final UpdateServiceConcurrencyLimiter limiter = new UpdateServiceConcurrencyLimiter(name);
+        config.getOptionalValue(prefix + "CONCURRENCY_LIMIT_MIN", Integer.class)
+                .ifPresent(limiter::withMinLimit);
+        config.getOptionalValue(prefix + "CONCURRENCY_LIMIT_MAX", Integer.class)
+                .ifPresent(limiter::withMaxLimit);
+        config.getOptionalValue(prefix + "CONCURRENCY_LIMIT_INITIAL", Integer.class)
+                .ifPresent(limiter::withInitialLimit);
+        config.getOptionalValue(prefix + "CONCURRENCY_LIMIT_BACKOFF_RATIO", Double.class)
+                .ifPresent(limiter::withBackoffRatio);
+        config.getOptionalValue(prefix + "CONCURRENCY_LIMIT_QUEUE_TIMEOUT_MS", Long.class)
+                .ifPresent(ms -> limiter.withQueueTimeout(Duration.ofMillis(ms)));
+        config.getOptionalValue(prefix + "CONCURRENCY_LIMIT_MAX_QUEUED", Integer.class)
+                .ifPresent(limiter::withMaxQueued);
+        return Optional.of(limiter);
+    }
+
+    /**
+     * @param initialLimit limit until latencies have been seen (default 20)
+     * @return this limiter
+     */
+    public synchronized UpdateServiceConcurrencyLimiter withInitialLimit(int initialLimit) {
+        if (initialLimit < 1) {
+            throw new IllegalArgumentException("initialLimit must be positive, was " + initialLimit);
+        }
+        limit = initialLimit;
+        return this;
+    }
+
+    /**
+     * @param minLimit lowest limit (default 1)
+     * @return this limiter
+     */
+    public synchronized UpdateServiceConcurrencyLimiter withMinLimit(int minLimit) {
+        if (minLimit < 1) {
+            throw new IllegalArgumentException("minLimit must be positive, was " + minLimit);
+        }
+        this.minLimit = minLimit;
+        return this;
+    }
+
+    /**
+     * @param maxLimit highest limit (default 200)
+     * @return this limiter
+     */
+    public synchronized UpdateServiceConcurrencyLimiter withMaxLimit(int maxLimit) {
+        if (maxLimit < 1) {
+            throw new IllegalArgumentException("maxLimit must be positive, was " + maxLimit);
+        }
+        this.maxLimit = maxLimit;
+        return this;
+    }
+
+    /**
+     * @param backoffRatio factor applied to the limit on timeouts, 429 and 503, between 0 and 1 (default 0.9)
+     * @return this limiter
+     */
+    public synchronized UpdateServiceConcurrencyLimiter withBackoffRatio(double backoffRatio) {
+        if (backoffRatio <= 0 || backoffRatio >= 1) {
+            throw new IllegalArgumentException("backoffRatio must be between 0 and 1, was " + backoffRatio);
+        }
+        this.backoffRatio = backoffRatio;
+        return this;
+    }
+
+    /**
+     * @param queueTimeout max time a call over the limit waits for a call to complete (default 0)
+     * @return this limiter
+     */
+    public synchronized UpdateServiceConcurrencyLimiter withQueueTimeout(Duration queueTimeout) {
+        this.queueTimeout = InvariantUtil.checkNotNullOrThrow(queueTimeout, "queueTimeout");
+        return this;
+    }
+
+    /**
+     * @param maxQueued max number of calls waiting, calls beyond are rejected right away (default 100)
+     * @return this limiter
+     */
+    public synchronized UpdateServiceConcurrencyLimiter withMaxQueued(int maxQueued) {
+        this.maxQueued = maxQueued;
+        return this;
+    }
+
+    /**
+     * Registers {@value #LIMIT} and {@value #IN_FLIGHT} gauges and a {@value #REJECTIONS}
+     * counter, all tagged with the name of the limiter
+     *
+     * @param metricRegistry registry to register the metrics in
+     * @return this limiter
+     */
+    public UpdateServiceConcurrencyLimiter withMetrics(MetricRegistry metricRegistry) {
+        final Tag nameTag = new Tag("connector", name);
+        metricRegistry.gauge(LIMIT, this, UpdateServiceConcurrencyLimiter::getLimit, nameTag);
+        metricRegistry.gauge(IN_FLIGHT, this, UpdateServiceConcurrencyLimiter::getInFlight, nameTag);
+        rejections = metricRegistry.counter(REJECTIONS, nameTag);
+        return this;
+    }
+
+    /**
+     * @return current limit on the number of calls in flight
+     */
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * @return number of calls in flight
+     */
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    @Override
+    public int order() {
+        return ORDER_CONCURRENCY_LIMITER;
+    }
+
+    @Override
+    public Call begin(String path) {
+        return begin(acquire(true));
+    }
+
+    @Override
+    public Call beginNonBlocking(String path) {
+        return begin(acquire(false));
+    }
+
+    private Call begin(int inFlightAtStart) {
+        final long start = System.nanoTime();
+        return new Call() {
+            private int status;
+
+            @Override
+            public void responseStatus(int status) {
+                this.status = status;
+            }
+
+            @Override
+            public void end(Throwable failure) {
+                release(System.nanoTime() - start, inFlightAtStart, failure, status);
+            }
+        };
+    }
+
+    private synchronized int acquire(boolean mayWait) {
+        if (inFlight >= (int) limit) {
+            if (!mayWait || queueTimeout.isZero() || queued >= maxQueued) {
+                throw reject();
+            }
+            final long deadline = System.nanoTime() + queueTimeout.toNanos();
+            queued++;
+            try {
+                while (inFlight >= (int) limit) {
+                    final long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        throw reject();
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw reject();
+            } finally {
+                queued--;
+            }
+        }
+        return ++inFlight;
+    }
+
+    private UpdateServiceConcurrencyLimitExceededException reject() {
+        if (rejections != null) {
+            rejections.inc();
+        }
+        return new UpdateServiceConcurrencyLimitExceededException(
+                String.format("Concurrency limit %d of '%s' exceeded", (int) limit, name), (int) limit);
+    }
+
+    private synchronized void release(long rttNanos, int inFlightAtStart, Throwable failure, int status) {
+        inFlight--;
+        if (failure instanceof UpdateServiceCircuitBreakerOpenException || failure instanceof CancellationException
+                || failure instanceof UpdateServiceDeadlineExceededException) {
+            // rejected before being sent, a hedge cancelled because another request won or
+            // a call out of time set by the caller, says nothing about update service
+        } else if (failure instanceof ProcessingException || status == 429 || status == 503) {
+            limit = Math.max(minLimit, limit * backoffRatio);
+        } else {
+            update(rttNanos, inFlightAtStart);
+        }
+        notifyAll();
+    }
+
+    private void update(long rttNanos, int inFlightAtStart) {
+        if (longRttNanos == 0) {
+            longRttNanos = rttNanos;
+            return;
+        }
+        longRttNanos += (rttNanos - longRttNanos) / LONG_RTT_SAMPLES;
+        if (longRttNanos > 2 * rttNanos) {
+            // load has dropped, let the average catch up faster
+            longRttNanos *= 0.95;
+        }
+        if (inFlightAtStart < limit / 2) {
+            return;
+        }
+        final double gradient = Math.max(0.5, Math.min(1.0, longRttNanos / rttNanos));
+        final double newLimit = limit * gradient + Math.sqrt(limit);
+        limit = Math.max(minLimit, Math.min(maxLimit, limit * (1 - SMOOTHING) + newLimit * SMOOTHING));
+    }
+}
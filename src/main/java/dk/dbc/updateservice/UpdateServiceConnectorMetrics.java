@@ -0,0 +1,135 @@
+/*
+ * Copyright Dansk Bibliotekscenter a/s. Licensed under GPLv3
+ * See license text in LICENSE.txt or at https://opensource.dbc.dk/licenses/gpl-3.0/
+ */
+
+package dk.dbc.updateservice;
+
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.Tag;
+import org.eclipse.microprofile.metrics.Timer;
+
+import jakarta.ws.rs.ProcessingException;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * MicroProfile metrics for the calls made by a connector
+ * <p>
+ * All metrics are tagged with the endpoint called (updateservice, getschemas,
+ * doublerecordcheck or classificationcheck):
+ * </p>
+ * <ul>
+ *     <li>{@value #REQUESTS} timer of all calls, including retries</li>
+ *     <li>{@value #RESPONSES} counter of responses, additionally tagged with the http status code</li>
+ *     <li>{@value #FAILURES} counter of failed calls, additionally tagged with the failure type</li>
+ *     <li>{@value #IN_FLIGHT} gauge of calls in flight</li>
+ * </ul>
+ * <p>
+ * Calls cancelled because a hedge won are neither timed nor counted as failed.
+ * The metrics are resolved once per endpoint, status code and failure type,
+ * not on every call. Connectors recording in the same registry share its
+ * in-flight gauges.
+ * </p>
+ */
+public class UpdateServiceConnectorMetrics implements UpdateServiceCallInterceptor {
+    public static final String REQUESTS = "updateservice_connector_requests";
+    public static final String RESPONSES = "updateservice_connector_responses";
+    public static final String FAILURES = "updateservice_connector_failures";
+    public static final String IN_FLIGHT = "updateservice_connector_in_flight";
+
+    // a gauge can only be registered once in a registry, so its count is shared by all instances recording there
+    private static final Map<MetricRegistry, Map<String, AtomicInteger>> IN_FLIGHT_COUNTS =
+            Collections.synchronizedMap(new WeakHashMap<>());
+
+    private final MetricRegistry metricRegistry;
+    private final ConcurrentMap<String, EndpointMetrics> endpoints = new ConcurrentHashMap<>();
+
+    public UpdateServiceConnectorMetrics(MetricRegistry metricRegistry) {
+        this.metricRegistry = metricRegistry;
+    }
+
+    @Override
+    public int order() {
+        return ORDER_METRICS;
+    }
+
+    @Override
+    public Call begin(String path) {
+        final EndpointMetrics endpointMetrics = endpoints.computeIfAbsent(path, EndpointMetrics::new);
+        final long start = System.nanoTime();
+        endpointMetrics.inFlight.incrementAndGet();
+        return new Call() {
+            @Override
+            public void responseStatus(int status) {
+                endpointMetrics.responses.computeIfAbsent(status, endpointMetrics::responsesCounter).inc();
+            }
+
+            @Override
+            public void end(Throwable failure) {
+                endpointMetrics.inFlight.decrementAndGet();
+                if (failure instanceof CancellationException) {
+                    // lost to another hedged request, neither a latency nor a failure of update service
+                    return;
+                }
+                endpointMetrics.timer.update(Duration.ofNanos(System.nanoTime() - start));
+                if (failure != null) {
+                    endpointMetrics.failures.computeIfAbsent(failureType(failure), endpointMetrics::failuresCounter).inc();
+                }
+            }
+        };
+    }
+
+    /*
+     * ProcessingException is used by the client for any transport problem,
+     * the cause tells whether it was a connect failure, a timeout etc.
+     */
+    static String failureType(Throwable failure) {
+        if (failure instanceof ProcessingException && failure.getCause() != null
+                && failure.getClass() == ProcessingException.class) {
+            return failure.getCause().getClass().getSimpleName();
+        }
+        return failure.getClass().getSimpleName();
+    }
+
+    private static AtomicInteger inFlightCount(MetricRegistry metricRegistry, Tag endpointTag) {
+        synchronized (IN_FLIGHT_COUNTS) {
+            return IN_FLIGHT_COUNTS.computeIfAbsent(metricRegistry, registry -> new HashMap<>())
+                    .computeIfAbsent(endpointTag.getTagValue(), endpoint -> {
+                        final AtomicInteger inFlight = new AtomicInteger();
+                        metricRegistry.gauge(IN_FLIGHT, inFlight, AtomicInteger::get, endpointTag);
+                        return inFlight;
+                    });
+        }
+    }
+
+    private class EndpointMetrics {
+        private final Tag endpointTag;
+        private final Timer timer;
+        private final AtomicInteger inFlight;
+        private final ConcurrentMap<Integer, Counter> responses = new ConcurrentHashMap<>();
+        private final ConcurrentMap<String, Counter> failures = new ConcurrentHashMap<>();
+
+        EndpointMetrics(String path) {
+            endpointTag = new Tag("endpoint", UpdateServiceCallInterceptors.endpointName(path));
+            timer = metricRegistry.timer(REQUESTS, endpointTag);
+            inFlight = inFlightCount(metricRegistry, endpointTag);
+        }
+
+        Counter responsesCounter(int status) {
+            return metricRegistry.counter(RESPONSES, endpointTag, new Tag("status", Integer.toString(status)));
+        }
+
+        Counter failuresCounter(String type) {
+            return metricRegistry.counter(FAILURES, endpointTag, new Tag("type", type));
+        }
+    }
+}
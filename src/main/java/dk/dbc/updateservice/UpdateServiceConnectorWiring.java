@@ -0,0 +1,180 @@
+/*
+ * Copyright Dansk Bibliotekscenter a/s. Licensed under GPLv3
+ * See license text in LICENSE.txt or at https://opensource.dbc.dk/licenses/gpl-3.0/
+ */
+
+package dk.dbc.updateservice;
+
+import dk.dbc.httpclient.FailSafeHttpClient;
+import net.jodah.failsafe.RetryPolicy;
+import org.eclipse.microprofile.config.Config;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import jakarta.enterprise.inject.Instance;
+import jakarta.ws.rs.core.Response;
+import java.util.Optional;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Wires a connector onto the client and connection pool of {@link UpdateServiceHttpClientFactory},
+ * with the retries, retry budget, bulkhead, buffer pool, adaptive concurrency limit, circuit breaker
+ * and metrics configured for it, so the connector factories set up their connectors the same way
+ * <p>
+ * The following optional settings are read using the prefix of the connector:
+ * </p>
+ * <pre>
+ *     {PREFIX}STREAMING_REQUESTS      serialize request bodies straight onto the connection (default false)
+ *     {PREFIX}GZIP_REQUESTS_MIN_SIZE  compress request bodies of at least this many bytes, negative to disable (default -1)
+ *     {PREFIX}GZIP_RESPONSES          ask for gzip compressed responses (default false)
+ *     {PREFIX}COMPACT_MARCXCHANGE     strip whitespace between the elements of MARCXchange records (default false)
+ * </pre>
+ * <p>
+ * A connector streaming its request bodies is given a client sending them chunked,
+ * as Jersey would otherwise buffer every streamed body to compute its length.
+ * </p>
+ */
+final class UpdateServiceConnectorWiring {
+    private static final Logger LOGGER = LoggerFactory.getLogger(UpdateServiceConnectorWiring.class);
+
+    /**
+     * Settings common to the connectors
+     *
+     * @param <C> type of connector
+     */
+    interface Connector<C extends Connector<C>> {
+        C withAsyncRetryPolicy(RetryPolicy<Response> asyncRetryPolicy);
+
+        C withStreamingRequests(boolean streamingRequests);
+
+        C withGzipRequests(int minSize);
+
+        C withGzipResponses(boolean gzipResponses);
+
+        C withMarcXchangeCompaction(boolean compactMarcXchange);
+
+        C withSharedClient(boolean sharedClient);
+
+        C withMetrics(MetricRegistry metricRegistry);
+
+        C withRetryBudget(UpdateServiceRetryBudget retryBudget);
+
+        C withBulkhead(UpdateServiceBulkhead bulkhead);
+
+        C withBufferPool(UpdateServiceBufferPool bufferPool);
+
+        C withConcurrencyLimiter(UpdateServiceConcurrencyLimiter concurrencyLimiter);
+
+        C withCircuitBreaker(UpdateServiceCircuitBreaker circuitBreaker);
+    }
+
+    private final Config config;
+    private final String prefix;
+    private final String endpoint;
+    private final String connectorName;
+    private final UpdateServiceHttpClientFactory httpClientFactory;
+    private final MetricRegistry metricRegistry;
+
+    /**
+     * @param config            configuration to read the settings from
+     * @param prefix            prefix of the settings of the connector, e.g. UPDATE_SERVICE_
+     * @param endpoint          endpoint name used by the bulkhead, metrics and breaker of the connector
+     * @param connectorName     connector name used when logging
+     * @param httpClientFactory owner of the shared client and connection pool
+     * @param metricRegistry    registry of the metrics, used if resolvable
+     */
+    UpdateServiceConnectorWiring(Config config, String prefix, String endpoint, String connectorName,
+                                 UpdateServiceHttpClientFactory httpClientFactory,
+                                 Instance<MetricRegistry> metricRegistry) {
+        this.config = config;
+        this.prefix = prefix;
+        this.endpoint = endpoint;
+        this.connectorName = connectorName;
+        this.httpClientFactory = httpClientFactory;
+        this.metricRegistry = metricRegistry.isResolvable() ? metricRegistry.get() : null;
+    }
+
+    /**
+     * Creates connector on the shared connection pool and wires it
+     *
+     * @param updateServiceUrl base URL for update service endpoint
+     * @param newConnector     creates the connector from the http client to use
+     * @param <C>              type of connector
+     * @return new connector
+     */
+    <C extends Connector<C>> C create(String updateServiceUrl, Function<FailSafeHttpClient, C> newConnector) {
+        final UpdateServiceRetrySettings retrySettings = UpdateServiceRetrySettings.fromConfig(config, prefix, endpoint);
+        LOGGER.info("Retrying {} calls at most {} times on status codes {}, backoff {}-{} ms",
+                connectorName, retrySettings.getMaxRetries(), retrySettings.getRetryableStatusCodes(),
+                retrySettings.getBaseDelay().toMillis(), retrySettings.getMaxDelay().toMillis());
+        final RetryPolicy<Response> retryPolicy = retrySettings.toRetryPolicy();
+
+        final boolean streamingRequests = getSetting("STREAMING_REQUESTS", Boolean.class, false);
+        final int gzipRequestsMinSize = getSetting("GZIP_REQUESTS_MIN_SIZE", Integer.class, -1);
+        final boolean gzipResponses = getSetting("GZIP_RESPONSES", Boolean.class, false);
+        final boolean compactMarcXchange = getSetting("COMPACT_MARCXCHANGE", Boolean.class, false);
+        LOGGER.info("Creating {} for: {} using shared client (streaming requests: {}, gzip requests min size: {}, gzip responses: {}, compact MARCXchange: {})",
+                connectorName, updateServiceUrl, streamingRequests, gzipRequestsMinSize, gzipResponses, compactMarcXchange);
+        final C connector = newConnector.apply(FailSafeHttpClient.create(
+                        httpClientFactory.getClient(streamingRequests), retryPolicy))
+                .withAsyncRetryPolicy(retryPolicy)
+                .withStreamingRequests(streamingRequests)
+                .withGzipRequests(gzipRequestsMinSize)
+                .withGzipResponses(gzipResponses)
+                .withMarcXchangeCompaction(compactMarcXchange)
+                .withSharedClient(true);
+        if (metricRegistry != null) {
+            connector.withMetrics(metricRegistry);
+        }
+        enable(Optional.ofNullable(retrySettings.getRetryBudget()), "retry budget",
+                UpdateServiceRetryBudget::withMetrics, connector::withRetryBudget);
+        httpClientFactory.getBulkhead().ifPresent(connector::withBulkhead);
+        httpClientFactory.getBufferPool().ifPresent(connector::withBufferPool);
+        enable(UpdateServiceConcurrencyLimiter.fromConfig(config, prefix, endpoint), "adaptive concurrency limit",
+                UpdateServiceConcurrencyLimiter::withMetrics, connector::withConcurrencyLimiter);
+        enable(UpdateServiceCircuitBreaker.fromConfig(config, prefix, endpoint), "circuit breaker",
+                UpdateServiceCircuitBreaker::withMetrics, connector::withCircuitBreaker);
+        return connector;
+    }
+
+    /**
+     * Hands feature, if configured, to the connector after registering its metrics
+     *
+     * @param feature     the configured feature
+     * @param description feature description used when logging
+     * @param withMetrics registers the metrics of the feature
+     * @param connector   hands the feature to the connector
+     * @param <T>         type of feature
+     */
+    <T> void enable(Optional<T> feature, String description, BiConsumer<T, MetricRegistry> withMetrics,
+                    Consumer<T> connector) {
+        feature.ifPresent(value -> {
+            LOGGER.info("Enabling {} for {}", description, connectorName);
+            if (metricRegistry != null) {
+                withMetrics.accept(value, metricRegistry);
+            }
+            connector.accept(value);
+        });
+    }
+
+    /**
+     * @return prefix of the settings of the connector
+     */
+    String getPrefix() {
+        return prefix;
+    }
+
+    /**
+     * @return endpoint name of the connector
+     */
+    String getEndpoint() {
+        return endpoint;
+    }
+
+    private <T> T getSetting(String name, Class<T> type, T defaultValue) {
+        return config.getOptionalValue(prefix + name, type).orElse(defaultValue);
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright Dansk Bibliotekscenter a/s. Licensed under GPLv3
+ * See license text in LICENSE.txt or at https://opensource.dbc.dk/licenses/gpl-3.0/
+ */
+
+package dk.dbc.updateservice;
+
+import jakarta.ws.rs.ProcessingException;
+
+import java.time.Duration;
+
+/**
+ * Thrown when a call has not completed by the deadline set through
+ * {@link UpdateServiceCallOptions}
+ * <p>
+ * Extends {@link ProcessingException} so callers already handling transport
+ * failures, including timeouts, also handle exceeded deadlines. Calls failing
+ * with this exception are never retried.
+ * </p>
+ */
+public class UpdateServiceDeadlineExceededException extends ProcessingException {
+    private final Duration timeout;
+    private final Duration elapsed;
+
+    public UpdateServiceDeadlineExceededException(Duration timeout, Duration elapsed) {
+        super(String.format("Deadline of %d milliseconds exceeded after %d milliseconds",
+                timeout.toMillis(), elapsed.toMillis()));
+        this.timeout = timeout;
+        this.elapsed = elapsed;
+    }
+
+    /**
+     * @return time the call was given
+     */
+    public Duration getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * @return time elapsed since the call was made when the deadline was detected
+     */
+    public Duration getElapsed() {
+        return elapsed;
+    }
+}
@@ -1,8 +1,6 @@
 package dk.dbc.updateservice;
 
-import dk.dbc.commons.jsonb.JSONBContext;
 import dk.dbc.commons.jsonb.JSONBException;
-import dk.dbc.dataio.commons.utils.lang.StringUtil;
 import dk.dbc.httpclient.FailSafeHttpClient;
 import dk.dbc.httpclient.HttpPost;
 import dk.dbc.httpclient.PathBuilder;
@@ -10,21 +8,30 @@ import dk.dbc.invariant.InvariantUtil;
 import dk.dbc.updateservice.dto.BibliographicRecordDTO;
 import dk.dbc.updateservice.dto.UpdateRecordResponseDTO;
 import dk.dbc.util.Stopwatch;
+import net.jodah.failsafe.Failsafe;
 import net.jodah.failsafe.RetryPolicy;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.glassfish.jersey.client.ClientProperties;
+import org.glassfish.jersey.client.RequestEntityProcessing;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import jakarta.ws.rs.ProcessingException;
 import jakarta.ws.rs.client.Client;
+import jakarta.ws.rs.client.Entity;
+import jakarta.ws.rs.client.Invocation;
 import jakarta.ws.rs.core.Response;
+import java.io.IOException;
 import java.io.InputStream;
-import java.time.Duration;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 
-public class UpdateServiceDoubleRecordCheckConnector {
-    private final JSONBContext jsonbContext = new JSONBContext();
-
+public class UpdateServiceDoubleRecordCheckConnector implements UpdateServiceConnectorWiring.Connector<UpdateServiceDoubleRecordCheckConnector> {
     public enum TimingLogLevel {
         TRACE, DEBUG, INFO, WARN, ERROR
     }
@@ -32,15 +39,23 @@ public class UpdateServiceDoubleRecordCheckConnector {
     private static final Logger LOGGER = LoggerFactory.getLogger(UpdateServiceDoubleRecordCheckConnector.class);
     private static final String PATH_DOUBLE_RECORD_CHECK = "/api/v2/doublerecordcheck";
 
-    private static final RetryPolicy<Response> RETRY_POLICY = new RetryPolicy<Response>()
-            .handle(ProcessingException.class)
-            .handleResultIf(response -> response.getStatus() == 404)
-            .withDelay(Duration.ofSeconds(10))
-            .withMaxRetries(1);
+    private static final RetryPolicy<Response> RETRY_POLICY = new UpdateServiceRetrySettings().toRetryPolicy();
 
     private final FailSafeHttpClient failSafeHttpClient;
     private final String baseUrl;
     private final UpdateServiceDoubleRecordCheckConnector.LogLevelMethod logger;
+    private final UpdateServiceCallInterceptors interceptors = new UpdateServiceCallInterceptors();
+    private final UpdateServiceCallStatistics callStatistics = new UpdateServiceCallStatistics();
+    private boolean streamingRequests;
+    private int gzipRequestsMinSize = -1;
+    private boolean gzipResponses;
+    private boolean compactMarcXchange;
+    private UpdateServiceBufferPool bufferPool;
+    private boolean sharedClient;
+    private RetryPolicy<Response> asyncRetryPolicy;
+    private UpdateServiceHedging hedging;
+    private UpdateServiceResultCache<UpdateRecordResponseDTO> resultCache;
+    private UpdateServiceSingleFlight singleFlight;
 
     /**
      * Returns new instance with default retry policy
@@ -50,6 +65,7 @@ public class UpdateServiceDoubleRecordCheckConnector {
      */
     public UpdateServiceDoubleRecordCheckConnector(Client httpClient, String baseUrl) {
         this(FailSafeHttpClient.create(httpClient, RETRY_POLICY), baseUrl, UpdateServiceDoubleRecordCheckConnector.TimingLogLevel.INFO);
+        this.asyncRetryPolicy = RETRY_POLICY;
     }
 
     /**
@@ -61,6 +77,7 @@ public class UpdateServiceDoubleRecordCheckConnector {
      */
     public UpdateServiceDoubleRecordCheckConnector(Client httpClient, String baseUrl, UpdateServiceDoubleRecordCheckConnector.TimingLogLevel level) {
         this(FailSafeHttpClient.create(httpClient, RETRY_POLICY), baseUrl, level);
+        this.asyncRetryPolicy = RETRY_POLICY;
     }
 
     /**
@@ -85,6 +102,7 @@ public class UpdateServiceDoubleRecordCheckConnector {
                 failSafeHttpClient, "failSafeHttpClient");
         this.baseUrl = InvariantUtil.checkNotNullNotEmptyOrThrow(
                 baseUrl, "baseUrl");
+        interceptors.add(callStatistics);
         switch (level) {
             case TRACE:
                 logger = LOGGER::trace;
@@ -107,30 +125,519 @@ public class UpdateServiceDoubleRecordCheckConnector {
         }
     }
 
+    /**
+     * Enables or disables streaming of request bodies
+     * <p>
+     * When enabled the request DTO is serialized directly onto the connection
+     * instead of being built as a String first. To avoid Jersey buffering the
+     * entity to compute a Content-Length, the client given to this connector
+     * should be configured with {@link ClientProperties#REQUEST_ENTITY_PROCESSING}
+     * set to {@link RequestEntityProcessing#CHUNKED}. Asynchronous requests set
+     * this property themselves.
+     * </p>
+     *
+     * @param streamingRequests true to stream request bodies
+     * @return this connector
+     */
+    public UpdateServiceDoubleRecordCheckConnector withStreamingRequests(boolean streamingRequests) {
+        this.streamingRequests = streamingRequests;
+        return this;
+    }
+
+    /**
+     * Compresses request bodies of at least the given size with gzip, sending
+     * them with Content-Encoding: gzip
+     * <p>
+     * Streamed request bodies are compressed regardless of their size, as the
+     * size is not known before the body is written.
+     * </p>
+     *
+     * @param minSize min size in bytes of request bodies to compress, 0 to compress all, negative to compress none
+     * @return this connector
+     */
+    public UpdateServiceDoubleRecordCheckConnector withGzipRequests(int minSize) {
+        this.gzipRequestsMinSize = minSize;
+        return this;
+    }
+
+    /**
+     * Asks for responses compressed with gzip by sending Accept-Encoding: gzip
+     * <p>
+     * Responses with Content-Encoding: gzip are decompressed whether asked for
+     * or not. Clients using the Apache connector negotiate and decompress
+     * compressed responses on their own.
+     * </p>
+     *
+     * @param gzipResponses true to ask for compressed responses
+     * @return this connector
+     */
+    public UpdateServiceDoubleRecordCheckConnector withGzipResponses(boolean gzipResponses) {
+        this.gzipResponses = gzipResponses;
+        return this;
+    }
+
+    /**
+     * Enables or disables compaction of MARCXchange records before they are sent
+     * <p>
+     * When enabled, whitespace between the elements of XML record content, such
+     * as indentation, is stripped while the request is encoded, whether the
+     * content is a string or a DOM node. Subfield values are never changed, see {@link UpdateServiceMarcXchangeCompactor}.
+     * </p>
+     *
+     * @param compactMarcXchange true to compact records
+     * @return this connector
+     */
+    public UpdateServiceDoubleRecordCheckConnector withMarcXchangeCompaction(boolean compactMarcXchange) {
+        this.compactMarcXchange = compactMarcXchange;
+        return this;
+    }
+
+    /**
+     * Encodes request bodies which are not streamed into buffers borrowed
+     * from the given pool instead of allocating new ones for every call.
+     * Responses are always decoded straight from the response stream.
+     * <p>
+     * Asynchronous requests send pooled bodies with chunked transfer encoding.
+     * Synchronous requests do so only if the client given to this connector is
+     * configured with {@link ClientProperties#REQUEST_ENTITY_PROCESSING} set to
+     * {@link RequestEntityProcessing#CHUNKED}, otherwise Jersey copies the
+     * pooled body into a buffer of its own and the pool saves nothing.
+     * </p>
+     *
+     * @param bufferPool pool shared by the connectors, null to allocate buffers per call
+     * @return this connector
+     */
+    public UpdateServiceDoubleRecordCheckConnector withBufferPool(UpdateServiceBufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+        return this;
+    }
+
+    /**
+     * Marks the web resources client as shared with other connectors, so
+     * {@link #close()} leaves it open for its owner to close
+     *
+     * @param sharedClient true if the client is owned elsewhere
+     * @return this connector
+     */
+    public UpdateServiceDoubleRecordCheckConnector withSharedClient(boolean sharedClient) {
+        this.sharedClient = sharedClient;
+        return this;
+    }
+
+    /**
+     * Sets the retry policy of the asynchronous methods, which is
+     * {@link UpdateServiceRetrySettings default} for connectors created from a
+     * {@link Client}, and no retries for connectors created from a {@link FailSafeHttpClient}
+     * unless set here
+     *
+     * @param asyncRetryPolicy retry policy, null to disable retries
+     * @return this connector
+     */
+    public UpdateServiceDoubleRecordCheckConnector withAsyncRetryPolicy(RetryPolicy<Response> asyncRetryPolicy) {
+        this.asyncRetryPolicy = asyncRetryPolicy;
+        return this;
+    }
+
+    /**
+     * Registers timers, counters and gauges for the calls made by this connector,
+     * see {@link UpdateServiceConnectorMetrics}
+     *
+     * @param metricRegistry registry to register the metrics in
+     * @return this connector
+     */
+    public UpdateServiceDoubleRecordCheckConnector withMetrics(MetricRegistry metricRegistry) {
+        interceptors.add(new UpdateServiceConnectorMetrics(
+                InvariantUtil.checkNotNullOrThrow(metricRegistry, "metricRegistry")));
+        return this;
+    }
+
+    /**
+     * Fails calls fast with {@link UpdateServiceCircuitBreakerOpenException} while
+     * the given breaker is open
+     *
+     * @param circuitBreaker breaker guarding the calls made by this connector
+     * @return this connector
+     */
+    public UpdateServiceDoubleRecordCheckConnector withCircuitBreaker(UpdateServiceCircuitBreaker circuitBreaker) {
+        interceptors.add(InvariantUtil.checkNotNullOrThrow(circuitBreaker, "circuitBreaker"));
+        return this;
+    }
+
+    /**
+     * Limits the calls made by this connector to their endpoint's compartment of
+     * the given bulkhead, rejecting calls with {@link UpdateServiceBulkheadFullException}
+     * when it is full
+     *
+     * @param bulkhead bulkhead shared by the connectors using the same connection pool
+     * @return this connector
+     */
+    public UpdateServiceDoubleRecordCheckConnector withBulkhead(UpdateServiceBulkhead bulkhead) {
+        interceptors.add(InvariantUtil.checkNotNullOrThrow(bulkhead, "bulkhead"));
+        return this;
+    }
+
+    /**
+     * Caps the number of calls in flight at the adaptive limit of the given limiter,
+     * rejecting calls over the limit with {@link UpdateServiceConcurrencyLimitExceededException}
+     * unless they can be queued
+     *
+     * @param concurrencyLimiter limiter guarding the calls made by this connector
+     * @return this connector
+     */
+    public UpdateServiceDoubleRecordCheckConnector withConcurrencyLimiter(UpdateServiceConcurrencyLimiter concurrencyLimiter) {
+        interceptors.add(InvariantUtil.checkNotNullOrThrow(concurrencyLimiter, "concurrencyLimiter"));
+        return this;
+    }
+
+    /**
+     * Records the calls made by this connector in the given retry budget, which
+     * must also be set on the retry policies through
+     * {@link UpdateServiceRetrySettings#withRetryBudget(UpdateServiceRetryBudget)}
+     *
+     * @param retryBudget budget limiting the retries of this connector
+     * @return this connector
+     */
+    public UpdateServiceDoubleRecordCheckConnector withRetryBudget(UpdateServiceRetryBudget retryBudget) {
+        interceptors.add(InvariantUtil.checkNotNullOrThrow(retryBudget, "retryBudget"));
+        return this;
+    }
+
+    /**
+     * Hedges slow calls by sending an identical request after the hedging delay
+     * and using whichever response arrives first, see {@link UpdateServiceHedging}
+     * <p>
+     * With hedging enabled the blocking {@link #doubleRecordCheck(BibliographicRecordDTO)}
+     * waits for the asynchronous variant.
+     * </p>
+     *
+     * @param hedging hedging settings, null to disable hedging
+     * @return this connector
+     */
+    public UpdateServiceDoubleRecordCheckConnector withHedging(UpdateServiceHedging hedging) {
+        this.hedging = hedging;
+        return this;
+    }
+
+    /**
+     * Caches successful double record check responses keyed by a hash of the
+     * serialized record, so that checking an identical record again within the
+     * time to live of the cache does not call update service
+     * <p>
+     * Cached responses are shared by all callers checking the same record and
+     * must not be modified.
+     * </p>
+     *
+     * @param resultCache cache of responses, null to disable caching
+     * @return this connector
+     */
+    public UpdateServiceDoubleRecordCheckConnector withResultCache(UpdateServiceResultCache<UpdateRecordResponseDTO> resultCache) {
+        this.resultCache = resultCache;
+        return this;
+    }
+
+    /**
+     * Coalesces concurrent double record checks of identical records into a
+     * single call, see {@link UpdateServiceSingleFlight}
+     * <p>
+     * With coalescing enabled the blocking {@link #doubleRecordCheck(BibliographicRecordDTO)}
+     * waits for the asynchronous variant.
+     * </p>
+     *
+     * @param singleFlight single flight coalescing, null to disable coalescing
+     * @return this connector
+     */
+    public UpdateServiceDoubleRecordCheckConnector withSingleFlight(UpdateServiceSingleFlight singleFlight) {
+        this.singleFlight = singleFlight;
+        return this;
+    }
+
+    /**
+     * @return latency and outcome of the most recent calls made by this connector
+     */
+    public UpdateServiceCallStatistics getCallStatistics() {
+        return callStatistics;
+    }
+
     public UpdateRecordResponseDTO doubleRecordCheck(BibliographicRecordDTO bibliographicRecordDTO) throws UpdateServiceDoubleRecordCheckConnectorException, JSONBException {
+        if (hedging != null || singleFlight != null) {
+            return await(doubleRecordCheckAsync(bibliographicRecordDTO));
+        }
+        final String cacheKey = resultCache != null ? requestKey(bibliographicRecordDTO) : null;
+        if (cacheKey != null) {
+            final UpdateRecordResponseDTO cached = resultCache.get(cacheKey);
+            if (cached != null) {
+                return cached;
+            }
+        }
         final Stopwatch stopwatch = new Stopwatch();
+        final UpdateServiceCallInterceptor.Call call = interceptors.begin(PATH_DOUBLE_RECORD_CHECK);
+        Throwable failure = null;
         try {
-            final InputStream inputStream = sendPostRequest(PATH_DOUBLE_RECORD_CHECK, bibliographicRecordDTO, InputStream.class);
-            return jsonbContext.unmarshall(StringUtil.asString(inputStream), UpdateRecordResponseDTO.class);
+            final InputStream inputStream = sendPostRequest(PATH_DOUBLE_RECORD_CHECK, bibliographicRecordDTO, InputStream.class, call);
+            final UpdateRecordResponseDTO response = UpdateServiceJsonCodec.decode(inputStream, UpdateRecordResponseDTO.class);
+            if (cacheKey != null) {
+                resultCache.put(cacheKey, response);
+            }
+            return response;
+        } catch (UpdateServiceDoubleRecordCheckConnectorException | JSONBException | RuntimeException e) {
+            failure = e;
+            throw e;
         } finally {
+            call.end(failure);
             logger.log("doubleRecordCheck took {} milliseconds",
                     stopwatch.getElapsedTime(TimeUnit.MILLISECONDS));
         }
     }
 
-    private <T> T sendPostRequest(String basePath, BibliographicRecordDTO bibliographicRecordDTO, Class<T> type)
-            throws UpdateServiceDoubleRecordCheckConnectorException, JSONBException {
+    /**
+     * Non-blocking variant of {@link #doubleRecordCheck(BibliographicRecordDTO)}
+     *
+     * @param bibliographicRecordDTO the record to check
+     * @return future completed with the response, or exceptionally with
+     * {@link UpdateServiceDoubleRecordCheckConnectorException}, {@link JSONBException} or
+     * {@link ProcessingException} where the blocking variant would have thrown
+     */
+    public CompletableFuture<UpdateRecordResponseDTO> doubleRecordCheckAsync(BibliographicRecordDTO bibliographicRecordDTO) {
+        final String requestKey;
+        try {
+            requestKey = resultCache != null || singleFlight != null ? requestKey(bibliographicRecordDTO) : null;
+        } catch (JSONBException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        if (requestKey != null && resultCache != null) {
+            final UpdateRecordResponseDTO cached = resultCache.get(requestKey);
+            if (cached != null) {
+                return CompletableFuture.completedFuture(cached);
+            }
+        }
+        if (requestKey != null && singleFlight != null) {
+            return singleFlight.execute(PATH_DOUBLE_RECORD_CHECK + " " + requestKey,
+                    () -> sendDoubleRecordCheckAsync(bibliographicRecordDTO, requestKey));
+        }
+        return sendDoubleRecordCheckAsync(bibliographicRecordDTO, requestKey);
+    }
+
+    private CompletableFuture<UpdateRecordResponseDTO> sendDoubleRecordCheckAsync(BibliographicRecordDTO bibliographicRecordDTO,
+                                                                                 String requestKey) {
+        final Stopwatch stopwatch = new Stopwatch();
+        final CompletableFuture<UpdateRecordResponseDTO> result;
+        if (hedging != null) {
+            result = hedging.hedge(() -> sendHedgedRequestAsync(bibliographicRecordDTO), callStatistics)
+                    .thenApply(inputStream -> decode(inputStream, UpdateRecordResponseDTO.class));
+        } else {
+            final UpdateServiceCallInterceptor.Call call;
+            try {
+                call = interceptors.beginNonBlocking(PATH_DOUBLE_RECORD_CHECK);
+            } catch (RuntimeException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+            result = sendPostRequestAsync(PATH_DOUBLE_RECORD_CHECK, bibliographicRecordDTO, InputStream.class, call)
+                    .thenApply(inputStream -> decode(inputStream, UpdateRecordResponseDTO.class))
+                    .whenComplete((response, failure) -> call.end(UpdateServiceFutures.unwrap(failure)));
+        }
+        return result
+                .whenComplete((response, failure) -> {
+                    if (failure == null && requestKey != null && resultCache != null) {
+                        resultCache.put(requestKey, response);
+                    }
+                    logger.log("doubleRecordCheckAsync took {} milliseconds",
+                            stopwatch.getElapsedTime(TimeUnit.MILLISECONDS));
+                });
+    }
+
+    /*
+     * Every hedged request is a call of its own, so hedges go through the bulkhead,
+     * concurrency limit and circuit breaker like any other call and are counted once
+     * by the metrics. The call ends when the response arrives, before the hedging
+     * sees it, or as cancelled when another request won.
+     */
+    private CompletableFuture<InputStream> sendHedgedRequestAsync(BibliographicRecordDTO bibliographicRecordDTO) {
+        final UpdateServiceCallInterceptor.Call call;
+        try {
+            call = interceptors.beginNonBlocking(PATH_DOUBLE_RECORD_CHECK);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        final CompletableFuture<InputStream> request = sendPostRequestAsync(PATH_DOUBLE_RECORD_CHECK, bibliographicRecordDTO, InputStream.class, call);
+        final CompletableFuture<InputStream> attempt = new CompletableFuture<>();
+        request.whenComplete((inputStream, failure) -> {
+            call.end(UpdateServiceFutures.unwrap(failure));
+            if (failure != null) {
+                attempt.completeExceptionally(UpdateServiceFutures.unwrap(failure));
+            } else if (!attempt.complete(inputStream)) {
+                closeQuietly(inputStream);
+            }
+        });
+        attempt.whenComplete((inputStream, failure) -> {
+            if (failure instanceof CancellationException) {
+                request.cancel(true);
+            }
+        });
+        return attempt;
+    }
+
+    private static void closeQuietly(InputStream inputStream) {
+        try {
+            inputStream.close();
+        } catch (IOException e) {
+            LOGGER.debug("Failed to close discarded response", e);
+        }
+    }
+
+    private static <T> T await(CompletableFuture<T> future) throws UpdateServiceDoubleRecordCheckConnectorException, JSONBException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            final Throwable cause = UpdateServiceFutures.unwrap(e);
+            if (cause instanceof UpdateServiceDoubleRecordCheckConnectorException) {
+                throw (UpdateServiceDoubleRecordCheckConnectorException) cause;
+            }
+            if (cause instanceof JSONBException) {
+                throw (JSONBException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw e;
+        }
+    }
+
+    /*
+     * Identifies identical records for the result cache and single flight coalescing
+     */
+    private String requestKey(BibliographicRecordDTO bibliographicRecordDTO) throws JSONBException {
+        if (bibliographicRecordDTO == null) {
+            return null;
+        }
+        return UpdateServiceJsonCodec.hash(bibliographicRecordDTO);
+    }
+
+    private <T> T decode(InputStream inputStream, Class<T> type) {
+        try {
+            return UpdateServiceJsonCodec.decode(inputStream, type);
+        } catch (JSONBException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    private <T> T sendPostRequest(String basePath, BibliographicRecordDTO bibliographicRecordDTO, Class<T> type,
+                                  UpdateServiceCallInterceptor.Call call) throws UpdateServiceDoubleRecordCheckConnectorException, JSONBException {
         InvariantUtil.checkNotNullOrThrow(bibliographicRecordDTO, "bibliographicRecord");
         final PathBuilder path = new PathBuilder(basePath);
-        final HttpPost post = new HttpPost(failSafeHttpClient)
-                .withBaseUrl(baseUrl)
-                .withData(jsonbContext.marshall(bibliographicRecordDTO), "application/json")
-                .withHeader("Accept", "application/json")
-                .withPathElements(path.build());
+        final UpdateServiceBufferPool.Buffer buffer = requestBuffer();
+        try {
+            final Object entity = requestEntity(bibliographicRecordDTO, buffer);
+            final HttpPost post = new HttpPost(failSafeHttpClient)
+                    .withBaseUrl(baseUrl)
+                    .withData(entity, "application/json")
+                    .withHeader("Accept", "application/json")
+                    .withPathElements(path.build());
 
-        final Response response = post.execute();
-        assertResponseStatus(response, Response.Status.OK);
-        return readResponseEntity(response, type);
+            if (entity instanceof UpdateServiceJsonCodec.GzipEntity) {
+                post.withHeader("Content-Encoding", UpdateServiceJsonCodec.GzipEntity.CONTENT_ENCODING);
+            }
+            if (gzipResponses) {
+                post.withHeader("Accept-Encoding", "gzip");
+            }
+
+            final Response response = post.execute();
+            call.responseStatus(response.getStatus());
+            assertResponseStatus(response, Response.Status.OK);
+            return readResponseEntity(response, type);
+        } finally {
+            UpdateServiceBufferPool.release(buffer);
+        }
+    }
+
+    /*
+     * The asynchronous requests are sent through the Jersey rx invoker directly and
+     * retried according to the asyncRetryPolicy, if any. Failsafe schedules the retry
+     * delays on its own scheduler, so no thread is blocked while waiting to retry.
+     */
+    private <T> CompletableFuture<T> sendPostRequestAsync(String basePath, BibliographicRecordDTO bibliographicRecordDTO, Class<T> type,
+                                                          UpdateServiceCallInterceptor.Call call) {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        final UpdateServiceBufferPool.Buffer buffer = requestBuffer();
+        try {
+            InvariantUtil.checkNotNullOrThrow(bibliographicRecordDTO, "bibliographicRecord");
+            final Invocation.Builder invocation = failSafeHttpClient.getClient()
+                    .target(baseUrl)
+                    .path(basePath)
+                    .request()
+                    .header("Accept", "application/json");
+
+            if (streamingRequests || buffer != null) {
+                // streamed and pooled bodies are written as they are, not copied into a buffer of Jersey's
+                invocation.property(ClientProperties.REQUEST_ENTITY_PROCESSING, RequestEntityProcessing.CHUNKED);
+            }
+
+            final Object requestEntity = requestEntity(bibliographicRecordDTO, buffer);
+            if (requestEntity instanceof UpdateServiceJsonCodec.GzipEntity) {
+                invocation.header("Content-Encoding", UpdateServiceJsonCodec.GzipEntity.CONTENT_ENCODING);
+            }
+            if (gzipResponses) {
+                invocation.header("Accept-Encoding", "gzip");
+            }
+            final Entity<Object> entity = Entity.entity(requestEntity, "application/json");
+            withAsyncRetries(() -> invocation.rx().post(entity))
+                    .whenComplete((response, failure) -> {
+                        UpdateServiceBufferPool.release(buffer);
+                        if (failure != null) {
+                            future.completeExceptionally(UpdateServiceFutures.unwrap(failure));
+                            return;
+                        }
+                        try {
+                            call.responseStatus(response.getStatus());
+                            assertResponseStatus(response, Response.Status.OK);
+                            if (!future.complete(readResponseEntity(response, type))) {
+                                // cancelled, for instance by hedging, so the response is never read
+                                response.close();
+                            }
+                        } catch (UpdateServiceDoubleRecordCheckConnectorException | RuntimeException e) {
+                            future.completeExceptionally(e);
+                        }
+                    });
+        } catch (JSONBException | RuntimeException e) {
+            UpdateServiceBufferPool.release(buffer);
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private CompletionStage<Response> withAsyncRetries(Supplier<CompletionStage<Response>> attempt) {
+        if (asyncRetryPolicy == null) {
+            return attempt.get();
+        }
+        return Failsafe.with(asyncRetryPolicy)
+                .getStageAsync(() -> UpdateServiceFutures.unwrapped(attempt.get()));
+    }
+
+    /*
+     * Buffer to encode a request body into, or null when bodies are streamed or no pool is set
+     */
+    private UpdateServiceBufferPool.Buffer requestBuffer() {
+        return bufferPool != null && !streamingRequests ? bufferPool.acquire() : null;
+    }
+
+    private Object requestEntity(Object request, UpdateServiceBufferPool.Buffer buffer) throws JSONBException {
+        if (streamingRequests) {
+            return gzipRequestsMinSize >= 0
+                    ? UpdateServiceJsonCodec.gzipStreamingEntity(request, compactMarcXchange)
+                    : UpdateServiceJsonCodec.streamingEntity(request, compactMarcXchange);
+        }
+        if (buffer != null) {
+            UpdateServiceJsonCodec.encode(request, compactMarcXchange, buffer);
+            if (gzipRequestsMinSize >= 0 && buffer.size() >= gzipRequestsMinSize) {
+                return UpdateServiceJsonCodec.gzipEntity(buffer);
+            }
+            return UpdateServiceJsonCodec.bufferedEntity(buffer);
+        }
+        final String json = UpdateServiceJsonCodec.encode(request, compactMarcXchange);
+        // the number of chars is a lower bound of the number of bytes
+        if (gzipRequestsMinSize >= 0 && json.length() >= gzipRequestsMinSize) {
+            return UpdateServiceJsonCodec.gzipEntity(json);
+        }
+        return json;
     }
 
     private <T> T readResponseEntity(Response response, Class<T> type)
@@ -141,6 +648,15 @@ public class UpdateServiceDoubleRecordCheckConnector {
                     String.format("Double record check returned with null-valued %s entity",
                             type.getName()));
         }
+        if (entity instanceof InputStream) {
+            try {
+                return type.cast(UpdateServiceJsonCodec.contentDecoded((InputStream) entity,
+                        response.getHeaderString("Content-Encoding")));
+            } catch (IOException e) {
+                response.close();
+                throw new UpdateServiceDoubleRecordCheckConnectorException("Double record check returned with invalid gzip encoded entity", e);
+            }
+        }
         return entity;
     }
 
@@ -149,6 +665,8 @@ public class UpdateServiceDoubleRecordCheckConnector {
         final Response.Status actualStatus =
                 Response.Status.fromStatusCode(response.getStatus());
         if (actualStatus != expectedStatus) {
+            // the entity is never read, so release the connection
+            response.close();
             throw new UpdateServiceDoubleRecordCheckConnectorUnexpectedStatusCodeException(
                     String.format("Double record check returned with unexpected status code: %s",
                             actualStatus),
@@ -156,9 +674,13 @@ public class UpdateServiceDoubleRecordCheckConnector {
         }
     }
 
-
+    /**
+     * Closes the web resources client, unless it is shared with other connectors
+     */
     public void close() {
-        failSafeHttpClient.getClient().close();
+        if (!sharedClient) {
+            failSafeHttpClient.getClient().close();
+        }
     }
 
     @FunctionalInterface
@@ -10,4 +10,8 @@ public class UpdateServiceDoubleRecordCheckConnectorException extends Exception
     public UpdateServiceDoubleRecordCheckConnectorException(String msg) {
         super(msg);
     }
+
+    public UpdateServiceDoubleRecordCheckConnectorException(String msg, Throwable cause) {
+        super(msg, cause);
+    }
 }
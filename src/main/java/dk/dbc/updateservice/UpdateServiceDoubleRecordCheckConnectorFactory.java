@@ -1,15 +1,20 @@
 package dk.dbc.updateservice;
 
 import dk.dbc.httpclient.HttpClient;
+import dk.dbc.updateservice.dto.UpdateRecordResponseDTO;
+import org.eclipse.microprofile.config.Config;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.metrics.MetricRegistry;
 import org.glassfish.jersey.client.ClientConfig;
+import org.glassfish.jersey.client.ClientProperties;
+import org.glassfish.jersey.client.RequestEntityProcessing;
 import org.glassfish.jersey.jackson.JacksonFeature;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import jakarta.annotation.PostConstruct;
-import jakarta.annotation.PreDestroy;
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.inject.Instance;
 import jakarta.enterprise.inject.Produces;
 import jakarta.inject.Inject;
 import jakarta.ws.rs.client.Client;
@@ -32,6 +37,36 @@ public class UpdateServiceDoubleRecordCheckConnectorFactory {
         return new UpdateServiceDoubleRecordCheckConnector(client, updateServiceBaseUrl, level);
     }
 
+    /**
+     * Creates connector which streams request bodies onto the connection, using
+     * chunked transfer encoding if streamingRequests is true
+     *
+     * @param updateServiceBaseUrl base URL for update service endpoint
+     * @param level                timings log level
+     * @param streamingRequests    true to stream request bodies
+     * @return new connector
+     */
+    public static UpdateServiceDoubleRecordCheckConnector create(String updateServiceBaseUrl, UpdateServiceDoubleRecordCheckConnector.TimingLogLevel level, boolean streamingRequests) {
+        final ClientConfig clientConfig = new ClientConfig()
+                .register(new JacksonFeature());
+        if (streamingRequests) {
+            clientConfig.property(ClientProperties.REQUEST_ENTITY_PROCESSING, RequestEntityProcessing.CHUNKED);
+        }
+        final Client client = HttpClient.newClient(clientConfig);
+        LOGGER.info("Creating UpdateServiceDoubleRecordCheckConnector for: {} (streaming requests: {})", updateServiceBaseUrl, streamingRequests);
+        return new UpdateServiceDoubleRecordCheckConnector(client, updateServiceBaseUrl, level)
+                .withStreamingRequests(streamingRequests);
+    }
+
+    @Inject
+    UpdateServiceHttpClientFactory httpClientFactory;
+
+    @Inject
+    Instance<MetricRegistry> metricRegistry;
+
+    @Inject
+    Config config;
+
     @Inject
     @ConfigProperty(name = "UPDATE_SERVICE_URL")
     private String updateServiceUrl;
@@ -44,16 +79,20 @@ public class UpdateServiceDoubleRecordCheckConnectorFactory {
 
     @PostConstruct
     public void initializeConnector() {
-        updateServiceDoubleRecordCheckConnector = UpdateServiceDoubleRecordCheckConnectorFactory.create(updateServiceUrl, level);
+        final UpdateServiceConnectorWiring wiring = new UpdateServiceConnectorWiring(config, "UPDATE_SERVICE_DOUBLE_RECORD_CHECK_", "doublerecordcheck",
+                "UpdateServiceDoubleRecordCheckConnector", httpClientFactory, metricRegistry);
+        updateServiceDoubleRecordCheckConnector = wiring.create(updateServiceUrl,
+                httpClient -> new UpdateServiceDoubleRecordCheckConnector(httpClient, updateServiceUrl, level));
+        wiring.enable(UpdateServiceHedging.fromConfig(config, wiring.getPrefix(), wiring.getEndpoint()), "hedging",
+                UpdateServiceHedging::withMetrics, updateServiceDoubleRecordCheckConnector::withHedging);
+        wiring.enable(UpdateServiceResultCache.<UpdateRecordResponseDTO>fromConfig(config, wiring.getPrefix(), wiring.getEndpoint()), "result cache",
+                UpdateServiceResultCache::withMetrics, updateServiceDoubleRecordCheckConnector::withResultCache);
+        wiring.enable(UpdateServiceSingleFlight.fromConfig(config, wiring.getPrefix(), wiring.getEndpoint()), "single flight coalescing",
+                UpdateServiceSingleFlight::withMetrics, updateServiceDoubleRecordCheckConnector::withSingleFlight);
     }
 
     @Produces
     public UpdateServiceDoubleRecordCheckConnector getInstance() {
         return updateServiceDoubleRecordCheckConnector;
     }
-
-    @PreDestroy
-    public void tearDownConnector() {
-        updateServiceDoubleRecordCheckConnector.close();
-    }
 }
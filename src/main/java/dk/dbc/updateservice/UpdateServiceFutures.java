@@ -0,0 +1,56 @@
+/*
+ * Copyright Dansk Bibliotekscenter a/s. Licensed under GPLv3
+ * See license text in LICENSE.txt or at https://opensource.dbc.dk/licenses/gpl-3.0/
+ */
+
+package dk.dbc.updateservice;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Helpers shared by the asynchronous connector methods
+ */
+final class UpdateServiceFutures {
+    private UpdateServiceFutures() {
+    }
+
+    /**
+     * Strips the {@link CompletionException} and {@link ExecutionException} wrappers
+     * added by the {@link java.util.concurrent.CompletableFuture} machinery
+     *
+     * @param failure failure as seen by a completion stage
+     * @return the original cause
+     */
+    static Throwable unwrap(Throwable failure) {
+        Throwable cause = failure;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException)
+                && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+
+    /**
+     * Returns future completed like the given stage, except that failures are
+     * not wrapped in {@link CompletionException}, so exception based policies
+     * see the original cause
+     *
+     * @param stage stage to follow
+     * @param <T>   type of the result
+     * @return unwrapping future
+     */
+    static <T> CompletableFuture<T> unwrapped(CompletionStage<T> stage) {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        stage.whenComplete((result, failure) -> {
+            if (failure != null) {
+                future.completeExceptionally(unwrap(failure));
+            } else {
+                future.complete(result);
+            }
+        });
+        return future;
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright Dansk Bibliotekscenter a/s. Licensed under GPLv3
+ * See license text in LICENSE.txt or at https://opensource.dbc.dk/licenses/gpl-3.0/
+ */
+
+package dk.dbc.updateservice;
+
+import dk.dbc.invariant.InvariantUtil;
+import dk.dbc.updateservice.dto.AuthenticationDTO;
+import dk.dbc.updateservice.dto.SchemasRequestDTO;
+import org.eclipse.microprofile.health.HealthCheck;
+import org.eclipse.microprofile.health.HealthCheckResponse;
+import org.eclipse.microprofile.health.HealthCheckResponseBuilder;
+
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Health check of the update service backend of an {@link UpdateServiceUpdateConnector}
+ * <p>
+ * The backend is probed with a getschemas round trip, at most once per probe
+ * interval, and the check is DOWN when the probe fails. Additionally the latency
+ * and error rate of the recent calls made by the connector are reported, and the
+ * check is flagged as degraded when either exceeds its threshold. A degraded
+ * check is only DOWN if {@link #withDownWhenDegraded(boolean)} is enabled.
+ * </p>
+ */
+public class UpdateServiceHealthCheck implements HealthCheck {
+    public static final String NAME = "updateservice";
+
+    private final UpdateServiceUpdateConnector connector;
+    private final SchemasRequestDTO probeRequest;
+    private Duration probeInterval = Duration.ofSeconds(30);
+    private Duration probeTimeout = Duration.ofSeconds(5);
+    private Duration statisticsWindow = Duration.ofMinutes(1);
+    private Duration latencyThreshold = Duration.ofSeconds(10);
+    private double errorRateThreshold = 0.5;
+    private int minimumCalls = 20;
+    private boolean downWhenDegraded;
+
+    private ProbeResult lastProbe;
+
+    /**
+     * @param connector    connector whose backend is checked
+     * @param probeGroupId group id used in the getschemas probe
+     */
+    public UpdateServiceHealthCheck(UpdateServiceUpdateConnector connector, String probeGroupId) {
+        this.connector = InvariantUtil.checkNotNullOrThrow(connector, "connector");
+        final AuthenticationDTO authenticationDTO = new AuthenticationDTO();
+        authenticationDTO.setGroupId(InvariantUtil.checkNotNullOrThrow(probeGroupId, "probeGroupId"));
+        authenticationDTO.setUserId("");
+        authenticationDTO.setPassword("");
+        probeRequest = new SchemasRequestDTO();
+        probeRequest.setAuthenticationDTO(authenticationDTO);
+        probeRequest.setTrackingId("updateservice-health");
+    }
+
+    /**
+     * @param probeInterval the result of a probe is reused for this duration (default 30 seconds)
+     * @return this health check
+     */
+    public UpdateServiceHealthCheck withProbeInterval(Duration probeInterval) {
+        this.probeInterval = InvariantUtil.checkNotNullOrThrow(probeInterval, "probeInterval");
+        return this;
+    }
+
+    /**
+     * @param probeTimeout a probe taking longer than this fails (default 5 seconds)
+     * @return this health check
+     */
+    public UpdateServiceHealthCheck withProbeTimeout(Duration probeTimeout) {
+        this.probeTimeout = InvariantUtil.checkNotNullOrThrow(probeTimeout, "probeTimeout");
+        return this;
+    }
+
+    /**
+     * @param statisticsWindow calls completed within this duration are considered recent (default 1 minute)
+     * @return this health check
+     */
+    public UpdateServiceHealthCheck withStatisticsWindow(Duration statisticsWindow) {
+        this.statisticsWindow = InvariantUtil.checkNotNullOrThrow(statisticsWindow, "statisticsWindow");
+        return this;
+    }
+
+    /**
+     * @param latencyThreshold degraded when the p99 latency of recent calls exceeds this (default 10 seconds)
+     * @return this health check
+     */
+    public UpdateServiceHealthCheck withLatencyThreshold(Duration latencyThreshold) {
+        this.latencyThreshold = InvariantUtil.checkNotNullOrThrow(latencyThreshold, "latencyThreshold");
+        return this;
+    }
+
+    /**
+     * @param errorRateThreshold degraded when the fraction of failed recent calls exceeds this (default 0.5)
+     * @return this health check
+     */
+    public UpdateServiceHealthCheck withErrorRateThreshold(double errorRateThreshold) {
+        this.errorRateThreshold = errorRateThreshold;
+        return this;
+    }
+
+    /**
+     * @param minimumCalls number of recent calls needed before the thresholds are applied (default 20)
+     * @return this health check
+     */
+    public UpdateServiceHealthCheck withMinimumCalls(int minimumCalls) {
+        this.minimumCalls = minimumCalls;
+        return this;
+    }
+
+    /**
+     * @param downWhenDegraded true to report DOWN when degraded (default false)
+     * @return this health check
+     */
+    public UpdateServiceHealthCheck withDownWhenDegraded(boolean downWhenDegraded) {
+        this.downWhenDegraded = downWhenDegraded;
+        return this;
+    }
+
+    @Override
+    public HealthCheckResponse call() {
+        final ProbeResult probe = probe();
+        final UpdateServiceCallStatistics.Snapshot snapshot = connector.getCallStatistics().snapshot(statisticsWindow);
+        final Duration p99 = snapshot.getLatency(0.99);
+        final boolean degraded = snapshot.getCount() >= minimumCalls
+                && (p99.compareTo(latencyThreshold) > 0 || snapshot.getErrorRate() > errorRateThreshold);
+
+        final HealthCheckResponseBuilder builder = HealthCheckResponse.named(NAME)
+                .status(probe.reachable && !(degraded && downWhenDegraded))
+                .withData("reachable", probe.reachable)
+                .withData("probeLatencyMs", probe.latency.toMillis())
+                .withData("degraded", degraded)
+                .withData("recentCalls", snapshot.getCount())
+                .withData("recentErrorRate", String.format(Locale.ROOT, "%.3f", snapshot.getErrorRate()))
+                .withData("recentP99Ms", p99.toMillis());
+        if (probe.error != null) {
+            builder.withData("error", probe.error);
+        }
+        return builder.build();
+    }
+
+    private synchronized ProbeResult probe() {
+        final long now = System.nanoTime();
+        if (lastProbe != null && now - lastProbe.time < probeInterval.toNanos()) {
+            return lastProbe;
+        }
+        final CompletableFuture<?> future = connector.loadSchemasAsync(probeRequest);
+        String error = null;
+        try {
+            future.get(probeTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            error = describe(e.getCause());
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            error = "probe timed out after " + probeTimeout.toMillis() + " milliseconds";
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            error = "probe was interrupted";
+        }
+        lastProbe = new ProbeResult(now, Duration.ofNanos(System.nanoTime() - now), error);
+        return lastProbe;
+    }
+
+    private static String describe(Throwable failure) {
+        final Throwable cause = UpdateServiceFutures.unwrap(failure);
+        return cause.getMessage() != null ? cause.getMessage() : cause.getClass().getName();
+    }
+
+    private static class ProbeResult {
+        private final long time;
+        private final Duration latency;
+        private final String error;
+        private final boolean reachable;
+
+        ProbeResult(long time, Duration latency, String error) {
+            this.time = time;
+            this.latency = latency;
+            this.error = error;
+            this.reachable = error == null;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package dk.dbc.updateservice;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.health.HealthCheck;
+import org.eclipse.microprofile.health.HealthCheckResponse;
+import org.eclipse.microprofile.health.Readiness;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.inject.Instance;
+import jakarta.enterprise.inject.Produces;
+import jakarta.inject.Inject;
+import java.time.Duration;
+
+/**
+ * Produces the readiness check of the update service backend, see {@link UpdateServiceHealthCheck}
+ * <p>
+ * The check is disabled unless UPDATE_SERVICE_HEALTH_CHECK_ENABLED is true, in which
+ * case it is tuned through the following optional settings:
+ * </p>
+ * <pre>
+ *     UPDATE_SERVICE_HEALTH_PROBE_GROUP_ID         group id used in the getschemas probe (default 010100)
+ *     UPDATE_SERVICE_HEALTH_PROBE_INTERVAL_MS      the result of a probe is reused for this time (default 30000)
+ *     UPDATE_SERVICE_HEALTH_PROBE_TIMEOUT_MS       a probe taking longer than this fails (default 5000)
+ *     UPDATE_SERVICE_HEALTH_WINDOW_MS              calls completed within this time are considered recent (default 60000)
+ *     UPDATE_SERVICE_HEALTH_MAX_P99_MS             degraded when the p99 latency of recent calls exceeds this (default 10000)
+ *     UPDATE_SERVICE_HEALTH_MAX_ERROR_RATE         degraded when the fraction of failed recent calls exceeds this (default 0.5)
+ *     UPDATE_SERVICE_HEALTH_MIN_CALLS              recent calls needed before degradation is considered (default 20)
+ *     UPDATE_SERVICE_HEALTH_DOWN_WHEN_DEGRADED     report DOWN when degraded (default false)
+ * </pre>
+ * <p>
+ * No liveness check is produced, since an unavailable update service is not
+ * fixed by restarting the application calling it.
+ * </p>
+ */
+@ApplicationScoped
+public class UpdateServiceHealthCheckFactory {
+    private static final Logger LOGGER = LoggerFactory.getLogger(UpdateServiceHealthCheckFactory.class);
+
+    @Inject
+    Instance<UpdateServiceUpdateConnector> updateServiceUpdateConnector;
+
+    @Inject
+    @ConfigProperty(name = "UPDATE_SERVICE_HEALTH_CHECK_ENABLED", defaultValue = "false")
+    private boolean enabled;
+
+    @Inject
+    @ConfigProperty(name = "UPDATE_SERVICE_HEALTH_PROBE_GROUP_ID", defaultValue = "010100")
+    private String probeGroupId;
+
+    @Inject
+    @ConfigProperty(name = "UPDATE_SERVICE_HEALTH_PROBE_INTERVAL_MS", defaultValue = "30000")
+    private long probeIntervalMs;
+
+    @Inject
+    @ConfigProperty(name = "UPDATE_SERVICE_HEALTH_PROBE_TIMEOUT_MS", defaultValue = "5000")
+    private long probeTimeoutMs;
+
+    @Inject
+    @ConfigProperty(name = "UPDATE_SERVICE_HEALTH_WINDOW_MS", defaultValue = "60000")
+    private long windowMs;
+
+    @Inject
+    @ConfigProperty(name = "UPDATE_SERVICE_HEALTH_MAX_P99_MS", defaultValue = "10000")
+    private long maxP99Ms;
+
+    @Inject
+    @ConfigProperty(name = "UPDATE_SERVICE_HEALTH_MAX_ERROR_RATE", defaultValue = "0.5")
+    private double maxErrorRate;
+
+    @Inject
+    @ConfigProperty(name = "UPDATE_SERVICE_HEALTH_MIN_CALLS", defaultValue = "20")
+    private int minCalls;
+
+    @Inject
+    @ConfigProperty(name = "UPDATE_SERVICE_HEALTH_DOWN_WHEN_DEGRADED", defaultValue = "false")
+    private boolean downWhenDegraded;
+
+    private HealthCheck healthCheck;
+
+    @PostConstruct
+    public void initializeHealthCheck() {
+        if (!enabled) {
+            healthCheck = () -> HealthCheckResponse.named(UpdateServiceHealthCheck.NAME)
+                    .up()
+                    .withData("enabled", false)
+                    .build();
+            return;
+        }
+        LOGGER.info("Creating update service readiness check probing every {} ms", probeIntervalMs);
+        healthCheck = new UpdateServiceHealthCheck(updateServiceUpdateConnector.get(), probeGroupId)
+                .withProbeInterval(Duration.ofMillis(probeIntervalMs))
+                .withProbeTimeout(Duration.ofMillis(probeTimeoutMs))
+                .withStatisticsWindow(Duration.ofMillis(windowMs))
+                .withLatencyThreshold(Duration.ofMillis(maxP99Ms))
+                .withErrorRateThreshold(maxErrorRate)
+                .withMinimumCalls(minCalls)
+                .withDownWhenDegraded(downWhenDegraded);
+    }
+
+    @Produces
+    @Readiness
+    public HealthCheck getReadinessCheck() {
+        return healthCheck;
+    }
+}
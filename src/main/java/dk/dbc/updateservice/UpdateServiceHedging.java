@@ -0,0 +1,294 @@
+/*
+ * Copyright Dansk Bibliotekscenter a/s. Licensed under GPLv3
+ * See license text in LICENSE.txt or at https://opensource.dbc.dk/licenses/gpl-3.0/
+ */
+
+package dk.dbc.updateservice;
+
+import dk.dbc.invariant.InvariantUtil;
+import org.eclipse.microprofile.config.Config;
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.Tag;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Hedging of read-only calls
+ * <p>
+ * When a call has not completed within the hedging delay, an identical request
+ * is sent and whichever succeeds first is used. The other requests are cancelled
+ * and their responses, should they arrive anyway, are closed. A call fails only
+ * when all its requests have failed.
+ * </p>
+ * <p>
+ * Cancelling a request completes its future but does not abort the underlying
+ * HTTP request, which keeps its pooled connection until update service answers
+ * or the read timeout expires.
+ * </p>
+ * <p>
+ * The delay is either fixed or the given quantile of the recent latency of the
+ * connector, for example 0.95 to hedge the slowest 5% of the calls. The number
+ * of hedges per call and the number of hedges in flight across all calls are
+ * capped, so hedging cannot multiply the load on a struggling update service.
+ * </p>
+ */
+public class UpdateServiceHedging {
+    public static final String HEDGES = "updateservice_connector_hedges";
+    public static final String HEDGE_WINS = "updateservice_connector_hedge_wins";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(UpdateServiceHedging.class);
+    private static final Duration STATISTICS_WINDOW = Duration.ofMinutes(1);
+    private static final long DELAY_REFRESH_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final int MINIMUM_CALLS = 20;
+
+    private final String name;
+    private Duration delay = Duration.ofMillis(500);
+    private double delayQuantile;
+    private int maxHedges = 1;
+    private Semaphore hedgesInFlight = new Semaphore(10);
+    private Counter hedgesCounter;
+    private Counter hedgeWinsCounter;
+
+    private volatile Duration currentDelay;
+    private volatile long currentDelayExpires;
+
+    /**
+     * @param name name used in metrics, typically the name of the connector
+     */
+    public UpdateServiceHedging(String name) {
+        this.name = InvariantUtil.checkNotNullNotEmptyOrThrow(name, "name");
+    }
+
+    /**
+     * Creates hedging from the following settings, all optional except for the first
+     * <pre>
+     *     {prefix}HEDGING_ENABLED              true to enable hedging (default false)
+     *     {prefix}HEDGING_DELAY_MS             fixed delay, or delay used until enough calls are seen (default 500)
+     *     {prefix}HEDGING_DELAY_QUANTILE       latency quantile used as delay, 0 for the fixed delay (default 0)
+     *     {prefix}HEDGING_MAX_HEDGES           max number of hedges per call (default 1)
+     *     {prefix}HEDGING_MAX_IN_FLIGHT        max number of hedges in flight across all calls (default 10)
+     * </pre>
+     *
+     * @param config configuration to read
+     * @param prefix prefix of the settings, for example UPDATE_SERVICE_DOUBLE_RECORD_CHECK_
+     * @param name   name used in metrics
+     * @return the hedging if enabled
+     */
+    static Optional<UpdateServiceHedging> fromConfig(Config config, String prefix, String name) {
+        if (!config.getOptionalValue(prefix + "HEDGING_ENABLED", Boolean.class).orElse(false)) {
+            return Optional.empty();
+        }
+        final UpdateServiceHedging hedging = new UpdateServiceHedging(name);
+        config.getOptionalValue(prefix + "HEDGING_DELAY_MS", Long.class)
+                .ifPresent(ms -> hedging.withDelay(Duration.ofMillis(ms)));
+        config.getOptionalValue(prefix + "HEDGING_DELAY_QUANTILE", Double.class)
+                .ifPresent(hedging::withDelayQuantile);
+        config.getOptionalValue(prefix + "HEDGING_MAX_HEDGES", Integer.class)
+                .ifPresent(hedging::withMaxHedges);
+        config.getOptionalValue(prefix + "HEDGING_MAX_IN_FLIGHT", Integer.class)
+                .ifPresent(hedging::withMaxInFlight);
+        return Optional.of(hedging);
+    }
+
+    /**
+     * @param delay fixed delay before hedging, also used for a quantile delay
+     *              until enough calls have been seen (default 500 milliseconds)
+     * @return this hedging
+     */
+    public UpdateServiceHedging withDelay(Duration delay) {
+        this.delay = InvariantUtil.checkNotNullOrThrow(delay, "delay");
+        return this;
+    }
+
+    /**
+     * @param delayQuantile quantile of the recent latency used as delay, 0 to use the fixed delay (default 0)
+     * @return this hedging
+     */
+    public UpdateServiceHedging withDelayQuantile(double delayQuantile) {
+        if (delayQuantile < 0 || delayQuantile >= 1) {
+            throw new IllegalArgumentException("delayQuantile must be at least 0 and less than 1, was " + delayQuantile);
+        }
+        this.delayQuantile = delayQuantile;
+        return this;
+    }
+
+    /**
+     * @param maxHedges max number of hedges per call, sent one delay apart (default 1)
+     * @return this hedging
+     */
+    public UpdateServiceHedging withMaxHedges(int maxHedges) {
+        if (maxHedges < 1) {
+            throw new IllegalArgumentException("maxHedges must be positive, was " + maxHedges);
+        }
+        this.maxHedges = maxHedges;
+        return this;
+    }
+
+    /**
+     * @param maxInFlight max number of hedges in flight across all calls (default 10)
+     * @return this hedging
+     */
+    public UpdateServiceHedging withMaxInFlight(int maxInFlight) {
+        this.hedgesInFlight = new Semaphore(maxInFlight);
+        return this;
+    }
+
+    /**
+     * Registers {@value #HEDGES} and {@value #HEDGE_WINS} counters tagged with the name of the hedging
+     *
+     * @param metricRegistry registry to register the metrics in
+     * @return this hedging
+     */
+    public UpdateServiceHedging withMetrics(MetricRegistry metricRegistry) {
+        final Tag nameTag = new Tag("connector", name);
+        hedgesCounter = metricRegistry.counter(HEDGES, nameTag);
+        hedgeWinsCounter = metricRegistry.counter(HEDGE_WINS, nameTag);
+        return this;
+    }
+
+    /**
+     * Sends the first request immediately and hedges as long as no request has succeeded
+     *
+     * @param attempt    sends a request
+     * @param statistics recent calls of the connector, used for a quantile delay
+     * @param <T>        type of the result, closed if not used
+     * @return future completed with the first successful result, or with the
+     * last failure if all requests fail
+     */
+    <T extends AutoCloseable> CompletableFuture<T> hedge(Supplier<CompletableFuture<T>> attempt,
+                                                         UpdateServiceCallStatistics statistics) {
+        final HedgedCall<T> hedgedCall = new HedgedCall<>(attempt);
+        hedgedCall.send(false);
+        final long delayNanos = delay(statistics).toNanos();
+        for (int hedge = 1; hedge <= maxHedges; hedge++) {
+            final Executor delayedExecutor = CompletableFuture.delayedExecutor(delayNanos * hedge, TimeUnit.NANOSECONDS);
+            delayedExecutor.execute(hedgedCall::hedge);
+        }
+        return hedgedCall.result;
+    }
+
+    Duration delay(UpdateServiceCallStatistics statistics) {
+        if (delayQuantile == 0) {
+            return delay;
+        }
+        final long now = System.nanoTime();
+        if (currentDelay == null || now - currentDelayExpires >= 0) {
+            final UpdateServiceCallStatistics.Snapshot snapshot = statistics.snapshot(STATISTICS_WINDOW);
+            currentDelay = snapshot.getCount() < MINIMUM_CALLS ? delay : snapshot.getLatency(delayQuantile);
+            currentDelayExpires = now + DELAY_REFRESH_NANOS;
+        }
+        return currentDelay;
+    }
+
+    private class HedgedCall<T extends AutoCloseable> {
+        private final Supplier<CompletableFuture<T>> attempt;
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        // guarded by this
+        private final List<CompletableFuture<T>> requests = new ArrayList<>();
+        private int requestsInFlight;
+
+        HedgedCall(Supplier<CompletableFuture<T>> attempt) {
+            this.attempt = attempt;
+        }
+
+        void hedge() {
+            if (result.isDone()) {
+                return;
+            }
+            if (!hedgesInFlight.tryAcquire()) {
+                LOGGER.debug("Not hedging {} call, max number of hedges in flight reached", name);
+                return;
+            }
+            if (hedgesCounter != null) {
+                hedgesCounter.inc();
+            }
+            send(true);
+        }
+
+        void send(boolean isHedge) {
+            synchronized (this) {
+                if (result.isDone()) {
+                    if (isHedge) {
+                        hedgesInFlight.release();
+                    }
+                    return;
+                }
+                requestsInFlight++;
+            }
+            // sent outside the lock, the completion of the other requests needs it
+            final CompletableFuture<T> request;
+            try {
+                request = attempt.get();
+            } catch (RuntimeException e) {
+                if (isHedge) {
+                    hedgesInFlight.release();
+                }
+                synchronized (this) {
+                    if (--requestsInFlight == 0) {
+                        result.completeExceptionally(e);
+                    }
+                }
+                return;
+            }
+            synchronized (this) {
+                requests.add(request);
+            }
+            if (result.isDone()) {
+                // another request won while this one was being sent
+                request.cancel(true);
+            }
+            request.whenComplete((value, failure) -> {
+                if (isHedge) {
+                    hedgesInFlight.release();
+                }
+                if (failure == null) {
+                    if (result.complete(value)) {
+                        if (isHedge && hedgeWinsCounter != null) {
+                            hedgeWinsCounter.inc();
+                        }
+                        cancelOthers(request);
+                    } else {
+                        discard(value);
+                    }
+                    return;
+                }
+                synchronized (this) {
+                    if (--requestsInFlight == 0) {
+                        result.completeExceptionally(UpdateServiceFutures.unwrap(failure));
+                    }
+                }
+            });
+        }
+
+        private void cancelOthers(CompletableFuture<T> winner) {
+            final List<CompletableFuture<T>> others;
+            synchronized (this) {
+                others = new ArrayList<>(requests);
+            }
+            for (CompletableFuture<T> other : others) {
+                if (other != winner) {
+                    other.cancel(true);
+                }
+            }
+        }
+
+        private void discard(T value) {
+            try {
+                value.close();
+            } catch (Exception e) {
+                LOGGER.debug("Failed to close discarded {} response", name, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package dk.dbc.updateservice;
+
+import dk.dbc.httpclient.HttpClient;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.eclipse.microprofile.config.Config;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.glassfish.jersey.apache.connector.ApacheClientProperties;
+import org.glassfish.jersey.apache.connector.ApacheConnectorProvider;
+import org.glassfish.jersey.client.ClientConfig;
+import org.glassfish.jersey.client.ClientProperties;
+import org.glassfish.jersey.client.RequestEntityProcessing;
+import org.glassfish.jersey.jackson.JacksonFeature;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.inject.Instance;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.client.Client;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Owns the single web resources client and connection pool shared by the
+ * update, double record check and classification check connector factories
+ * <p>
+ * The pool is sized through the following optional settings:
+ * </p>
+ * <pre>
+ *     UPDATE_SERVICE_HTTP_MAX_CONNECTIONS            max number of pooled connections (default 200)
+ *     UPDATE_SERVICE_HTTP_MAX_CONNECTIONS_PER_ROUTE  max number of pooled connections per host (default 200)
+ *     UPDATE_SERVICE_HTTP_IDLE_TIMEOUT_MS            idle connections are closed after this time (default 60000)
+ *     UPDATE_SERVICE_HTTP_CONNECT_TIMEOUT_MS         connect timeout, 0 means no timeout (default 0)
+ *     UPDATE_SERVICE_HTTP_READ_TIMEOUT_MS            read timeout, 0 means no timeout (default 0)
+ *     UPDATE_SERVICE_HTTP_CHUNKED_REQUESTS           send request bodies using chunked transfer encoding (default false)
+ * </pre>
+ * <p>
+ * Setting UPDATE_SERVICE_HTTP_BULKHEAD_ENABLED enables a {@link UpdateServiceBulkhead}
+ * over the pool, shared by the connectors, with the max calls and reserved
+ * connections of each endpoint set by UPDATE_SERVICE_HTTP_BULKHEAD_{ENDPOINT}_MAX_CALLS
+ * and UPDATE_SERVICE_HTTP_BULKHEAD_{ENDPOINT}_RESERVED.
+ * </p>
+ * <p>
+ * Setting UPDATE_SERVICE_HTTP_BUFFER_POOL_ENABLED enables a {@link UpdateServiceBufferPool}
+ * shared by the connectors, see {@link UpdateServiceBufferPool#fromConfig} for its settings.
+ * The pool implies UPDATE_SERVICE_HTTP_CHUNKED_REQUESTS, as Jersey would otherwise
+ * copy every pooled body into a buffer of its own to compute its length.
+ * </p>
+ * <p>
+ * Connectors streaming their request bodies are given a second client sending
+ * them chunked over the same pool, see {@link #getClient(boolean)}.
+ * </p>
+ */
+@ApplicationScoped
+public class UpdateServiceHttpClientFactory {
+    private static final Logger LOGGER = LoggerFactory.getLogger(UpdateServiceHttpClientFactory.class);
+
+    /**
+     * Creates web resources client backed by a pooling connection manager
+     *
+     * @param connectionManager pool of connections to use
+     * @param connectTimeoutMs  connect timeout in milliseconds, 0 means no timeout
+     * @param readTimeoutMs     read timeout in milliseconds, 0 means no timeout
+     * @param chunkedRequests   true to send request bodies using chunked transfer encoding
+     * @return new client
+     */
+    public static Client create(PoolingHttpClientConnectionManager connectionManager, int connectTimeoutMs,
+                                int readTimeoutMs, boolean chunkedRequests) {
+        final ClientConfig clientConfig = new ClientConfig()
+                .register(new JacksonFeature())
+                .connectorProvider(new ApacheConnectorProvider())
+                .property(ApacheClientProperties.CONNECTION_MANAGER, connectionManager)
+                .property(ClientProperties.CONNECT_TIMEOUT, connectTimeoutMs)
+                .property(ClientProperties.READ_TIMEOUT, readTimeoutMs);
+        if (chunkedRequests) {
+            clientConfig.property(ClientProperties.REQUEST_ENTITY_PROCESSING, RequestEntityProcessing.CHUNKED);
+        } else {
+            clientConfig.property(ClientProperties.REQUEST_ENTITY_PROCESSING, RequestEntityProcessing.BUFFERED);
+        }
+        return HttpClient.newClient(clientConfig);
+    }
+
+    @Inject
+    @ConfigProperty(name = "UPDATE_SERVICE_HTTP_MAX_CONNECTIONS", defaultValue = "200")
+    private int maxConnections;
+
+    @Inject
+    @ConfigProperty(name = "UPDATE_SERVICE_HTTP_MAX_CONNECTIONS_PER_ROUTE", defaultValue = "200")
+    private int maxConnectionsPerRoute;
+
+    @Inject
+    @ConfigProperty(name = "UPDATE_SERVICE_HTTP_IDLE_TIMEOUT_MS", defaultValue = "60000")
+    private long idleTimeoutMs;
+
+    @Inject
+    @ConfigProperty(name = "UPDATE_SERVICE_HTTP_CONNECT_TIMEOUT_MS", defaultValue = "0")
+    private int connectTimeoutMs;
+
+    @Inject
+    @ConfigProperty(name = "UPDATE_SERVICE_HTTP_READ_TIMEOUT_MS", defaultValue = "0")
+    private int readTimeoutMs;
+
+    @Inject
+    @ConfigProperty(name = "UPDATE_SERVICE_HTTP_CHUNKED_REQUESTS", defaultValue = "false")
+    private boolean chunkedRequests;
+
+    @Inject
+    Config config;
+
+    @Inject
+    Instance<MetricRegistry> metricRegistry;
+
+    private PoolingHttpClientConnectionManager connectionManager;
+    private UpdateServiceBulkhead bulkhead;
+    private UpdateServiceBufferPool bufferPool;
+    private ScheduledExecutorService idleConnectionReaper;
+    private Client client;
+    private Client chunkedClient;
+
+    @PostConstruct
+    public void initializeClient() {
+        connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+        bufferPool = UpdateServiceBufferPool.fromConfig(config, "UPDATE_SERVICE_HTTP_").orElse(null);
+        if (bufferPool != null && !chunkedRequests) {
+            LOGGER.info("Sending request bodies chunked, so pooled buffers are not copied by Jersey");
+        }
+        chunkedRequests = chunkedRequests || bufferPool != null;
+        client = create(connectionManager, connectTimeoutMs, readTimeoutMs, chunkedRequests);
+
+        idleConnectionReaper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "updateservice-idle-connection-reaper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        final long reapIntervalMs = Math.max(1000, idleTimeoutMs / 2);
+        idleConnectionReaper.scheduleWithFixedDelay(() -> {
+            connectionManager.closeExpiredConnections();
+            connectionManager.closeIdleConnections(idleTimeoutMs, TimeUnit.MILLISECONDS);
+        }, reapIntervalMs, reapIntervalMs, TimeUnit.MILLISECONDS);
+
+        LOGGER.info("Created shared update service client with max {} connections ({} per route), " +
+                        "idle timeout {} ms, connect timeout {} ms, read timeout {} ms",
+                maxConnections, maxConnectionsPerRoute, idleTimeoutMs, connectTimeoutMs, readTimeoutMs);
+
+        // all endpoints share one route, so its limit is the capacity left to divide between them
+        bulkhead = UpdateServiceBulkhead.fromConfig(config, "UPDATE_SERVICE_HTTP_",
+                Math.min(maxConnections, maxConnectionsPerRoute)).orElse(null);
+        if (bulkhead != null) {
+            LOGGER.info("Enabling bulkhead over the shared update service connection pool");
+            if (metricRegistry.isResolvable()) {
+                bulkhead.withMetrics(metricRegistry.get());
+            }
+        }
+
+        if (bufferPool != null) {
+            LOGGER.info("Enabling buffer pool shared by the update service connectors");
+            if (metricRegistry.isResolvable()) {
+                bufferPool.withMetrics(metricRegistry.get());
+            }
+        }
+    }
+
+    /**
+     * @return the shared web resources client
+     */
+    public Client getClient() {
+        return client;
+    }
+
+    /**
+     * Returns a client over the shared connection pool sending request bodies
+     * chunked if chunkedRequests is true
+     * <p>
+     * Jersey buffers a request body sent by a client not configured for chunked
+     * transfer encoding, to compute its length, so a connector streaming its
+     * request bodies should be given a chunked client. If the shared client
+     * does not send chunked, a second one is created over the same pool.
+     * </p>
+     *
+     * @param chunkedRequests true if request bodies must be sent chunked
+     * @return the shared client, or the chunked client over the shared pool
+     */
+    public synchronized Client getClient(boolean chunkedRequests) {
+        if (!chunkedRequests || this.chunkedRequests) {
+            return client;
+        }
+        if (chunkedClient == null) {
+            LOGGER.info("Creating update service client sending request bodies chunked over the shared connection pool");
+            chunkedClient = create(connectionManager, connectTimeoutMs, readTimeoutMs, true);
+        }
+        return chunkedClient;
+    }
+
+    /**
+     * @return the bulkhead shared by the connectors using the shared client, if enabled
+     */
+    public Optional<UpdateServiceBulkhead> getBulkhead() {
+        return Optional.ofNullable(bulkhead);
+    }
+
+    /**
+     * @return the buffer pool shared by the connectors using the shared client, if enabled
+     */
+    public Optional<UpdateServiceBufferPool> getBufferPool() {
+        return Optional.ofNullable(bufferPool);
+    }
+
+    @PreDestroy
+    public void tearDownClient() {
+        idleConnectionReaper.shutdownNow();
+        synchronized (this) {
+            if (chunkedClient != null) {
+                chunkedClient.close();
+            }
+        }
+        client.close();
+    }
+}
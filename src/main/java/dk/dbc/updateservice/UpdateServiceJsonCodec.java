@@ -0,0 +1,290 @@
+/*
+ * Copyright Dansk Bibliotekscenter a/s. Licensed under GPLv3
+ * See license text in LICENSE.txt or at https://opensource.dbc.dk/licenses/gpl-3.0/
+ */
+
+package dk.dbc.updateservice;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import dk.dbc.commons.jsonb.JSONBException;
+import dk.dbc.updateservice.dto.BibliographicRecordDTO;
+import dk.dbc.updateservice.dto.RecordDataDTO;
+import dk.dbc.updateservice.dto.SchemasRequestDTO;
+import dk.dbc.updateservice.dto.SchemasResponseDTO;
+import dk.dbc.updateservice.dto.UpdateRecordResponseDTO;
+import dk.dbc.updateservice.dto.UpdateServiceRequestDTO;
+import jakarta.ws.rs.core.StreamingOutput;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * JSON encoding and decoding of update service requests and responses directly
+ * to and from the entity streams, avoiding intermediate String copies of the
+ * whole document
+ * <p>
+ * The codec is shared by all connectors. Readers and writers of the request
+ * and response DTOs are created once, with their serializers and deserializers
+ * resolved up front, instead of being looked up by type on every call. Jackson
+ * readers and writers are immutable, so they are safe to use from any number
+ * of threads at once.
+ * </p>
+ */
+final class UpdateServiceJsonCodec {
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper()
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+            .configure(JsonParser.Feature.AUTO_CLOSE_SOURCE, false)
+            .configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false)
+            .addMixIn(RecordDataDTO.class, UpdateServiceMarcXchangeCompactor.RecordDataMixIn.class);
+    private static final ObjectWriter WRITER = OBJECT_MAPPER.writer();
+    private static final ObjectWriter COMPACTING_WRITER = WRITER
+            .withAttribute(UpdateServiceMarcXchangeCompactor.ATTRIBUTE, Boolean.TRUE);
+
+    private static final List<Class<?>> DTO_TYPES = List.of(UpdateServiceRequestDTO.class, BibliographicRecordDTO.class,
+            SchemasRequestDTO.class, UpdateRecordResponseDTO.class, SchemasResponseDTO.class);
+    private static final Map<Class<?>, ObjectReader> READERS = new HashMap<>();
+    private static final Map<Class<?>, ObjectWriter> WRITERS = new HashMap<>();
+    private static final Map<Class<?>, ObjectWriter> COMPACTING_WRITERS = new HashMap<>();
+
+    // the maps are only read after this
+    static {
+        for (Class<?> type : DTO_TYPES) {
+            READERS.put(type, OBJECT_MAPPER.readerFor(type));
+            WRITERS.put(type, WRITER.forType(type));
+            COMPACTING_WRITERS.put(type, COMPACTING_WRITER.forType(type));
+        }
+    }
+
+    private UpdateServiceJsonCodec() {
+    }
+
+    /**
+     * Decodes a value of the given type from the stream and closes the stream
+     *
+     * @param inputStream stream positioned at the start of a JSON document
+     * @param type        type to decode
+     * @param <T>         type parameter
+     * @return decoded value
+     * @throws JSONBException if the stream could not be read or decoded
+     */
+    static <T> T decode(InputStream inputStream, Class<T> type) throws JSONBException {
+        try (InputStream in = inputStream) {
+            return reader(type).readValue(in);
+        } catch (IOException e) {
+            throw new JSONBException("Exception caught when trying to decode " + type.getName(), e);
+        }
+    }
+
+    /**
+     * Creates a request entity which serializes the value straight onto the
+     * entity output stream when the request is written
+     * <p>
+     * The value is serialized again on every write, so the entity can be
+     * resent on retry. It must therefore not be modified while the request
+     * is in flight.
+     * </p>
+     *
+     * @param value value to encode
+     * @return streaming entity
+     */
+    static StreamingOutput streamingEntity(Object value) {
+        return streamingEntity(value, false);
+    }
+
+    /**
+     * Creates a request entity as {@link #streamingEntity(Object)}, optionally
+     * compacting MARCXchange record content as it is written
+     *
+     * @param value              value to encode
+     * @param compactMarcXchange true to strip insignificant whitespace from
+     *                           record content, see {@link UpdateServiceMarcXchangeCompactor}
+     * @return streaming entity
+     */
+    static StreamingOutput streamingEntity(Object value, boolean compactMarcXchange) {
+        final ObjectWriter writer = writer(value, compactMarcXchange);
+        return outputStream -> writer.writeValue(outputStream, value);
+    }
+
+    /**
+     * Encodes the value as a String, for request bodies which are not streamed
+     *
+     * @param value              value to encode
+     * @param compactMarcXchange true to strip insignificant whitespace from
+     *                           record content, see {@link UpdateServiceMarcXchangeCompactor}
+     * @return JSON document
+     * @throws JSONBException if the value could not be encoded
+     */
+    static String encode(Object value, boolean compactMarcXchange) throws JSONBException {
+        try {
+            return writer(value, compactMarcXchange).writeValueAsString(value);
+        } catch (IOException e) {
+            throw new JSONBException("Exception caught when trying to encode " + value.getClass().getName(), e);
+        }
+    }
+
+    /**
+     * Encodes the value as UTF-8 into the given buffer, for request bodies
+     * which are not streamed
+     *
+     * @param value              value to encode
+     * @param compactMarcXchange true to strip insignificant whitespace from
+     *                           record content, see {@link UpdateServiceMarcXchangeCompactor}
+     * @param buffer             buffer to write the JSON document to
+     * @throws JSONBException if the value could not be encoded
+     */
+    static void encode(Object value, boolean compactMarcXchange, UpdateServiceBufferPool.Buffer buffer) throws JSONBException {
+        try {
+            writer(value, compactMarcXchange).writeValue(buffer, value);
+        } catch (IOException e) {
+            throw new JSONBException("Exception caught when trying to encode " + value.getClass().getName(), e);
+        }
+    }
+
+    /**
+     * Creates a request entity which writes the contents of the buffer, which
+     * must therefore not be released while the request is in flight
+     *
+     * @param buffer buffer holding the encoded value
+     * @return entity
+     */
+    static StreamingOutput bufferedEntity(UpdateServiceBufferPool.Buffer buffer) {
+        return buffer::writeTo;
+    }
+
+    /**
+     * Creates a request entity which writes the contents of the buffer
+     * compressed with gzip, see {@link #bufferedEntity(UpdateServiceBufferPool.Buffer)}
+     *
+     * @param buffer buffer holding the encoded value
+     * @return gzip entity
+     */
+    static GzipEntity gzipEntity(UpdateServiceBufferPool.Buffer buffer) {
+        return new GzipEntity(buffer::writeTo);
+    }
+
+    /**
+     * Creates a request entity which writes the given JSON document compressed
+     * with gzip, to be sent with Content-Encoding: gzip
+     *
+     * @param json encoded value
+     * @return gzip entity
+     */
+    static GzipEntity gzipEntity(String json) {
+        return new GzipEntity(outputStream -> outputStream.write(json.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Creates a request entity which serializes the value compressed with gzip
+     * straight onto the entity output stream, see {@link #streamingEntity(Object, boolean)}
+     *
+     * @param value              value to encode
+     * @param compactMarcXchange true to strip insignificant whitespace from record content
+     * @return gzip entity
+     */
+    static GzipEntity gzipStreamingEntity(Object value, boolean compactMarcXchange) {
+        return new GzipEntity(streamingEntity(value, compactMarcXchange));
+    }
+
+    /**
+     * @param inputStream     response entity stream
+     * @param contentEncoding value of the Content-Encoding header of the response, may be null
+     * @return stream decompressing the entity if it is gzip encoded, otherwise the given stream
+     * @throws IOException if the gzip header could not be read
+     */
+    static InputStream contentDecoded(InputStream inputStream, String contentEncoding) throws IOException {
+        if (contentEncoding != null && "gzip".equalsIgnoreCase(contentEncoding.trim())) {
+            return new GZIPInputStream(inputStream, 8192);
+        }
+        return inputStream;
+    }
+
+    /**
+     * Computes a stable key for a value from the SHA-256 digest of its JSON
+     * encoding, without keeping the encoding in memory
+     *
+     * @param value value to compute key for
+     * @return Base64 encoded digest
+     * @throws JSONBException if the value could not be encoded
+     */
+    static String hash(Object value) throws JSONBException {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        try (DigestOutputStream outputStream = new DigestOutputStream(OutputStream.nullOutputStream(), digest)) {
+            writer(value, false).writeValue(outputStream, value);
+        } catch (IOException e) {
+            throw new JSONBException("Exception caught when trying to encode " + value.getClass().getName(), e);
+        }
+        return Base64.getEncoder().encodeToString(digest.digest());
+    }
+
+    private static ObjectReader reader(Class<?> type) {
+        final ObjectReader reader = READERS.get(type);
+        return reader != null ? reader : OBJECT_MAPPER.readerFor(type);
+    }
+
+    private static ObjectWriter writer(Object value, boolean compactMarcXchange) {
+        final ObjectWriter writer = (compactMarcXchange ? COMPACTING_WRITERS : WRITERS).get(value.getClass());
+        if (writer != null) {
+            return writer;
+        }
+        return compactMarcXchange ? COMPACTING_WRITER : WRITER;
+    }
+
+    /**
+     * Request entity compressed with gzip as it is written
+     */
+    static final class GzipEntity implements StreamingOutput {
+        static final String CONTENT_ENCODING = "gzip";
+
+        private final StreamingOutput uncompressed;
+
+        private GzipEntity(StreamingOutput uncompressed) {
+            this.uncompressed = uncompressed;
+        }
+
+        @Override
+        public void write(OutputStream outputStream) throws IOException {
+            final GzipOutputStream gzipOutputStream = new GzipOutputStream(outputStream);
+            try {
+                uncompressed.write(gzipOutputStream);
+                gzipOutputStream.finish();
+            } finally {
+                gzipOutputStream.release();
+            }
+        }
+    }
+
+    /*
+     * Finishing rather than closing leaves the entity stream open for Jersey to close,
+     * so the native memory of the deflater is released explicitly
+     */
+    private static final class GzipOutputStream extends GZIPOutputStream {
+        GzipOutputStream(OutputStream outputStream) throws IOException {
+            super(outputStream, 8192);
+        }
+
+        void release() {
+            def.end();
+        }
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright Dansk Bibliotekscenter a/s. Licensed under GPLv3
+ * See license text in LICENSE.txt or at https://opensource.dbc.dk/licenses/gpl-3.0/
+ */
+
+package dk.dbc.updateservice;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import org.w3c.dom.Node;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Strips insignificant whitespace, such as indentation, between the elements
+ * of MARCXchange records
+ * <p>
+ * A run of whitespace is removed when it separates two tags inside an element
+ * holding other elements, or when it is outside the root element. Whitespace
+ * in the value of a leaf element, such as a subfield, is kept even when the
+ * value is nothing but whitespace, as is whitespace next to comments, CDATA
+ * sections and processing instructions. Tags, attribute values and all other
+ * text are copied as they are. MARCXchange has no mixed content, so the
+ * compacted record holds the same data as the original.
+ * </p>
+ * <p>
+ * Content not starting with markup is left alone, and malformed markup is
+ * copied as it is from where it is found. Records held as DOM nodes rather
+ * than strings are compacted in the XML text Jackson writes for them.
+ * </p>
+ */
+final class UpdateServiceMarcXchangeCompactor {
+    /**
+     * Serialization attribute enabling compaction of record content
+     */
+    static final String ATTRIBUTE = "dk.dbc.updateservice.compactMarcXchange";
+
+    // larger buffers are not kept between records
+    private static final int MAX_RETAINED_BUFFER = 1 << 20;
+    private static final ThreadLocal<char[]> BUFFER = ThreadLocal.withInitial(() -> new char[8192]);
+
+    private enum Markup {
+        NONE, START_TAG, END_TAG, EMPTY_TAG, OTHER
+    }
+
+    private UpdateServiceMarcXchangeCompactor() {
+    }
+
+    /**
+     * @param content record content
+     * @return true if the content starts with markup, ignoring leading whitespace
+     */
+    static boolean isXml(String content) {
+        for (int i = 0; i < content.length(); i++) {
+            final char c = content.charAt(i);
+            if (!isWhitespace(c)) {
+                return c == '<';
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param content record content
+     * @return compacted content, or the given content if it is not XML
+     */
+    static String compact(String content) {
+        if (!isXml(content)) {
+            return content;
+        }
+        final char[] buffer = new char[content.length()];
+        return new String(buffer, 0, compact(content, buffer));
+    }
+
+    /**
+     * Writes the compacted XML to the given buffer
+     *
+     * @param xml    record content
+     * @param buffer buffer of at least the length of the content
+     * @return number of chars written
+     */
+    static int compact(String xml, char[] buffer) {
+        final int length = xml.length();
+        int written = 0;
+        int depth = 0;
+        Markup previous = Markup.NONE;
+        int i = 0;
+        while (i < length) {
+            if (xml.charAt(i) != '<') {
+                final int textEnd = indexOf(xml, '<', i);
+                if (!isWhitespace(xml, i, textEnd) || !isInsignificant(xml, textEnd, depth, previous)) {
+                    xml.getChars(i, textEnd, buffer, written);
+                    written += textEnd - i;
+                    previous = Markup.NONE;
+                }
+                i = textEnd;
+                continue;
+            }
+            final int markupEnd = markupEnd(xml, i);
+            final Markup markup = markup(xml, i, markupEnd);
+            xml.getChars(i, markupEnd, buffer, written);
+            written += markupEnd - i;
+            if (markup == Markup.START_TAG) {
+                depth++;
+            } else if (markup == Markup.END_TAG) {
+                depth--;
+            }
+            previous = markup;
+            i = markupEnd;
+        }
+        return written;
+    }
+
+    /*
+     * Whitespace between the markup before it and the markup starting at next
+     */
+    private static boolean isInsignificant(String xml, int next, int depth, Markup previous) {
+        if (depth <= 0) {
+            return true;
+        }
+        if (next + 1 >= xml.length()) {
+            return false;
+        }
+        final char following = xml.charAt(next + 1);
+        if (following == '!' || following == '?') {
+            return false;
+        }
+        if (following == '/') {
+            // kept if it is the value of a leaf element
+            return previous == Markup.END_TAG || previous == Markup.EMPTY_TAG;
+        }
+        return previous == Markup.START_TAG || previous == Markup.END_TAG || previous == Markup.EMPTY_TAG;
+    }
+
+    private static Markup markup(String xml, int start, int end) {
+        if (start + 1 >= end || xml.charAt(end - 1) != '>') {
+            return Markup.OTHER;
+        }
+        final char c = xml.charAt(start + 1);
+        if (c == '/') {
+            return Markup.END_TAG;
+        }
+        if (c == '!' || c == '?') {
+            return Markup.OTHER;
+        }
+        return xml.charAt(end - 2) == '/' ? Markup.EMPTY_TAG : Markup.START_TAG;
+    }
+
+    /*
+     * Returns the index after the markup starting at start, or the length of the
+     * content if the markup is not terminated
+     */
+    private static int markupEnd(String xml, int start) {
+        if (xml.startsWith("<!--", start)) {
+            return endOf(xml, "-->", start + 4);
+        }
+        if (xml.startsWith("<![CDATA[", start)) {
+            return endOf(xml, "]]>", start + 9);
+        }
+        if (xml.startsWith("<?", start)) {
+            return endOf(xml, "?>", start + 2);
+        }
+        // tags and declarations, where '>' may occur in quoted values and internal subsets
+        char quote = 0;
+        int brackets = 0;
+        for (int i = start + 1; i < xml.length(); i++) {
+            final char c = xml.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+            } else if (c == '[') {
+                brackets++;
+            } else if (c == ']') {
+                brackets--;
+            } else if (c == '>' && brackets <= 0) {
+                return i + 1;
+            }
+        }
+        return xml.length();
+    }
+
+    private static int endOf(String xml, String terminator, int from) {
+        final int index = xml.indexOf(terminator, from);
+        return index < 0 ? xml.length() : index + terminator.length();
+    }
+
+    private static int indexOf(String xml, char c, int from) {
+        final int index = xml.indexOf(c, from);
+        return index < 0 ? xml.length() : index;
+    }
+
+    private static boolean isWhitespace(String xml, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (!isWhitespace(xml.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // whitespace as defined by XML
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\n' || c == '\t' || c == '\r';
+    }
+
+    /**
+     * Serializes the content of RecordDataDTO, compacting XML strings and DOM
+     * nodes when the {@link #ATTRIBUTE} is set, straight onto the generator
+     * through a buffer reused by the thread
+     */
+    static class ContentSerializer extends StdSerializer<Object> {
+        ContentSerializer() {
+            super(Object.class);
+        }
+
+        @Override
+        public void serialize(Object value, JsonGenerator generator, SerializerProvider provider) throws IOException {
+            final String xml = Boolean.TRUE.equals(provider.getAttribute(ATTRIBUTE)) ? xml(value, generator, provider) : null;
+            if (xml == null || !isXml(xml)) {
+                provider.defaultSerializeValue(value, generator);
+                return;
+            }
+            char[] buffer = BUFFER.get();
+            if (buffer.length < xml.length()) {
+                buffer = new char[Math.max(xml.length(), buffer.length * 2)];
+                if (buffer.length <= MAX_RETAINED_BUFFER) {
+                    BUFFER.set(buffer);
+                }
+            }
+            generator.writeString(buffer, 0, compact(xml, buffer));
+        }
+
+        /*
+         * Returns the XML text of string and DOM node content, or null for other content
+         */
+        private static String xml(Object value, JsonGenerator generator, SerializerProvider provider) throws IOException {
+            if (value instanceof String) {
+                return (String) value;
+            }
+            if (!(value instanceof Node)) {
+                return null;
+            }
+            // the text of the node as written when not compacting, so only the whitespace differs
+            final TokenBuffer serialized = new TokenBuffer(generator.getCodec(), false);
+            provider.defaultSerializeValue(value, serialized);
+            try (JsonParser parser = serialized.asParser()) {
+                return parser.nextToken() == JsonToken.VALUE_STRING ? parser.getText() : null;
+            }
+        }
+    }
+
+    /**
+     * Jackson mix-in for RecordDataDTO applying the {@link ContentSerializer}
+     * to the elements of its content
+     */
+    abstract static class RecordDataMixIn {
+        @JsonSerialize(contentUsing = ContentSerializer.class)
+        abstract List<Object> getContent();
+    }
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright Dansk Bibliotekscenter a/s. Licensed under GPLv3
+ * See license text in LICENSE.txt or at https://opensource.dbc.dk/licenses/gpl-3.0/
+ */
+
+package dk.dbc.updateservice;
+
+import jakarta.ws.rs.ProcessingException;
+
+/**
+ * Thrown instead of sending a call when the rate limit of its group is
+ * exceeded and the call could not wait for a permit
+ * <p>
+ * Extends {@link ProcessingException} so callers already handling transport
+ * failures also handle rejected calls.
+ * </p>
+ */
+public class UpdateServiceRateLimitExceededException extends ProcessingException {
+    private final String groupId;
+
+    public UpdateServiceRateLimitExceededException(String message, String groupId) {
+        super(message);
+        this.groupId = groupId;
+    }
+
+    /**
+     * @return group whose rate limit was exceeded
+     */
+    public String getGroupId() {
+        return groupId;
+    }
+}
@@ -0,0 +1,291 @@
+/*
+ * Copyright Dansk Bibliotekscenter a/s. Licensed under GPLv3
+ * See license text in LICENSE.txt or at https://opensource.dbc.dk/licenses/gpl-3.0/
+ */
+
+package dk.dbc.updateservice;
+
+import dk.dbc.invariant.InvariantUtil;
+import dk.dbc.updateservice.dto.UpdateServiceRequestDTO;
+import org.eclipse.microprofile.config.Config;
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.Tag;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the rate of updateRecord calls per group, so the bulk load of one
+ * agency cannot crowd out the calls of the others
+ * <p>
+ * Every group, identified by the groupId of the authentication of the
+ * request, has its own token bucket refilled at its permitted number of calls
+ * per second and holding at most its burst of permits. Groups without a limit
+ * of their own get the default limit. Calls without authentication share the
+ * bucket of the empty group id.
+ * </p>
+ * <p>
+ * A call finding the bucket of its group empty is rejected with
+ * {@link UpdateServiceRateLimitExceededException} in {@link Mode#FAIL_FAST}
+ * mode. In {@link Mode#BLOCK} mode it reserves the next permit and waits for
+ * it, unless that would take longer than the max wait. Asynchronous calls wait
+ * without blocking the calling thread.
+ * </p>
+ */
+public class UpdateServiceRateLimiter {
+    public static final String DELAYED = "updateservice_connector_rate_limit_delayed";
+    public static final String REJECTIONS = "updateservice_connector_rate_limit_rejections";
+
+    public enum Mode {
+        /**
+         * Calls wait for a permit for up to the max wait
+         */
+        BLOCK,
+        /**
+         * Calls are rejected when no permit is available
+         */
+        FAIL_FAST
+    }
+
+    private final Limit defaultLimit;
+    private final Map<String, Limit> groupLimits = new ConcurrentHashMap<>();
+    private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+    private Mode mode = Mode.BLOCK;
+    private Duration maxWait = Duration.ofSeconds(30);
+    private MetricRegistry metricRegistry;
+
+    /**
+     * @param permitsPerSecond default number of calls per second allowed per group
+     * @param burst            default number of calls per group allowed at once after a quiet period
+     */
+    public UpdateServiceRateLimiter(double permitsPerSecond, int burst) {
+        defaultLimit = new Limit(permitsPerSecond, burst);
+    }
+
+    /**
+     * Creates rate limiter from the following settings, all optional except for the first
+     * <pre>
+     *     {prefix}RATE_LIMIT_ENABLED                            true to enable the limiter (default false)
+     *     {prefix}RATE_LIMIT_PERMITS_PER_SECOND                 default calls per second per group (default 10)
+     *     {prefix}RATE_LIMIT_BURST                              default burst per group (default permits per second)
+     *     {prefix}RATE_LIMIT_MODE                               BLOCK or FAIL_FAST (default BLOCK)
+     *     {prefix}RATE_LIMIT_MAX_WAIT_MS                        max time a call waits in BLOCK mode (default 30000)
+     *     {prefix}RATE_LIMIT_GROUP_{GROUPID}_PERMITS_PER_SECOND calls per second of the group
+     *     {prefix}RATE_LIMIT_GROUP_{GROUPID}_BURST              burst of the group (default permits per second)
+     * </pre>
+     *
+     * @param config configuration to read
+     * @param prefix prefix of the settings, for example UPDATE_SERVICE_
+     * @return the rate limiter if enabled
+     */
+    static Optional<UpdateServiceRateLimiter> fromConfig(Config config, String prefix) {
+        if (!config.getOptionalValue(prefix + "RATE_LIMIT_ENABLED", Boolean.class).orElse(false)) {
+            return Optional.empty();
+        }
+        final double permitsPerSecond = config.getOptionalValue(prefix + "RATE_LIMIT_PERMITS_PER_SECOND", Double.class).orElse(10.0);
+        final UpdateServiceRateLimiter rateLimiter = new UpdateServiceRateLimiter(permitsPerSecond,
+                config.getOptionalValue(prefix + "RATE_LIMIT_BURST", Integer.class).orElse(defaultBurst(permitsPerSecond)));
+        config.getOptionalValue(prefix + "RATE_LIMIT_MODE", String.class)
+                .ifPresent(mode -> rateLimiter.withMode(Mode.valueOf(mode.trim().toUpperCase(Locale.ROOT))));
+        config.getOptionalValue(prefix + "RATE_LIMIT_MAX_WAIT_MS", Long.class)
+                .ifPresent(ms -> rateLimiter.withMaxWait(Duration.ofMillis(ms)));
+
+        final String groupPrefix = prefix + "RATE_LIMIT_GROUP_";
+        final String permitsSuffix = "_PERMITS_PER_SECOND";
+        final Map<String, Double> groupPermits = new HashMap<>();
+        for (String name : config.getPropertyNames()) {
+            if (name.startsWith(groupPrefix) && name.endsWith(permitsSuffix)
+                    && name.length() > groupPrefix.length() + permitsSuffix.length()) {
+                groupPermits.put(name.substring(groupPrefix.length(), name.length() - permitsSuffix.length()),
+                        config.getValue(name, Double.class));
+            }
+        }
+        groupPermits.forEach((groupId, groupPermitsPerSecond) -> rateLimiter.withGroupLimit(groupId, groupPermitsPerSecond,
+                config.getOptionalValue(groupPrefix + groupId + "_BURST", Integer.class)
+                        .orElse(defaultBurst(groupPermitsPerSecond))));
+        return Optional.of(rateLimiter);
+    }
+
+    /**
+     * @param groupId          group to set the limit of
+     * @param permitsPerSecond number of calls per second allowed for the group
+     * @param burst            number of calls allowed at once after a quiet period
+     * @return this rate limiter
+     */
+    public UpdateServiceRateLimiter withGroupLimit(String groupId, double permitsPerSecond, int burst) {
+        InvariantUtil.checkNotNullOrThrow(groupId, "groupId");
+        groupLimits.put(groupId, new Limit(permitsPerSecond, burst));
+        buckets.remove(groupId);
+        return this;
+    }
+
+    /**
+     * @param mode whether calls wait for a permit or are rejected at once (default BLOCK)
+     * @return this rate limiter
+     */
+    public UpdateServiceRateLimiter withMode(Mode mode) {
+        this.mode = InvariantUtil.checkNotNullOrThrow(mode, "mode");
+        return this;
+    }
+
+    /**
+     * @param maxWait max time a call waits for a permit in BLOCK mode before being rejected (default 30 seconds)
+     * @return this rate limiter
+     */
+    public UpdateServiceRateLimiter withMaxWait(Duration maxWait) {
+        this.maxWait = InvariantUtil.checkNotNullOrThrow(maxWait, "maxWait");
+        return this;
+    }
+
+    /**
+     * Registers a {@value #DELAYED} counter of calls which waited for a permit
+     * and a {@value #REJECTIONS} counter of calls rejected, for every group
+     * seen, tagged with the group id
+     *
+     * @param metricRegistry registry to register the metrics in
+     * @return this rate limiter
+     */
+    public synchronized UpdateServiceRateLimiter withMetrics(MetricRegistry metricRegistry) {
+        this.metricRegistry = metricRegistry;
+        buckets.forEach(this::registerMetrics);
+        return this;
+    }
+
+    /**
+     * Takes a permit for the call, waiting for it in BLOCK mode
+     *
+     * @param request request of the call
+     * @throws UpdateServiceRateLimitExceededException if the call is rejected,
+     *                                                 or interrupted while waiting
+     */
+    void acquire(UpdateServiceRequestDTO request) {
+        final long waitNanos = reserve(request);
+        if (waitNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new UpdateServiceRateLimitExceededException(String.format(
+                        "Interrupted while waiting for rate limit of group '%s'", groupId(request)), groupId(request));
+            }
+        }
+    }
+
+    /**
+     * Takes a permit for the call, reserving the next permit in BLOCK mode if
+     * none is available
+     *
+     * @param request request of the call
+     * @return nanoseconds the call must wait before being sent, 0 if it may be sent now
+     * @throws UpdateServiceRateLimitExceededException if the call is rejected
+     */
+    long reserve(UpdateServiceRequestDTO request) {
+        final String groupId = groupId(request);
+        final Bucket bucket = bucket(groupId);
+        final long waitNanos = bucket.reserve(mode == Mode.BLOCK ? maxWait.toNanos() : 0);
+        if (waitNanos < 0) {
+            if (bucket.rejections != null) {
+                bucket.rejections.inc();
+            }
+            throw new UpdateServiceRateLimitExceededException(String.format(
+                    "Rate limit of %s calls per second of group '%s' exceeded", bucket.limit.permitsPerSecond, groupId), groupId);
+        }
+        if (waitNanos > 0 && bucket.delayed != null) {
+            bucket.delayed.inc();
+        }
+        return waitNanos;
+    }
+
+    private static String groupId(UpdateServiceRequestDTO request) {
+        if (request == null || request.getAuthenticationDTO() == null || request.getAuthenticationDTO().getGroupId() == null) {
+            return "";
+        }
+        return request.getAuthenticationDTO().getGroupId();
+    }
+
+    private static int defaultBurst(double permitsPerSecond) {
+        return (int) Math.max(1, Math.ceil(permitsPerSecond));
+    }
+
+    private Bucket bucket(String groupId) {
+        final Bucket bucket = buckets.get(groupId);
+        if (bucket != null) {
+            return bucket;
+        }
+        synchronized (this) {
+            return buckets.computeIfAbsent(groupId, g -> {
+                final Bucket created = new Bucket(groupLimits.getOrDefault(g, defaultLimit));
+                if (metricRegistry != null) {
+                    registerMetrics(g, created);
+                }
+                return created;
+            });
+        }
+    }
+
+    private void registerMetrics(String groupId, Bucket bucket) {
+        final Tag groupTag = new Tag("group", groupId);
+        bucket.delayed = metricRegistry.counter(DELAYED, groupTag);
+        bucket.rejections = metricRegistry.counter(REJECTIONS, groupTag);
+    }
+
+    private static final class Limit {
+        private final double permitsPerSecond;
+        private final int burst;
+
+        Limit(double permitsPerSecond, int burst) {
+            if (!(permitsPerSecond > 0)) {
+                throw new IllegalArgumentException("permitsPerSecond must be positive, was " + permitsPerSecond);
+            }
+            if (burst < 1) {
+                throw new IllegalArgumentException("burst must be positive, was " + burst);
+            }
+            this.permitsPerSecond = permitsPerSecond;
+            this.burst = burst;
+        }
+    }
+
+    private static final class Bucket {
+        private final Limit limit;
+        private final double permitsPerNano;
+        private volatile Counter delayed;
+        private volatile Counter rejections;
+
+        // guarded by this
+        private double permits;
+        private long refilled = System.nanoTime();
+
+        Bucket(Limit limit) {
+            this.limit = limit;
+            permitsPerNano = limit.permitsPerSecond / TimeUnit.SECONDS.toNanos(1);
+            permits = limit.burst;
+        }
+
+        /*
+         * Returns the nanoseconds to wait for the permit taken, or -1 if no permit
+         * was taken because the wait would exceed the max wait
+         */
+        synchronized long reserve(long maxWaitNanos) {
+            final long now = System.nanoTime();
+            permits = Math.min(limit.burst, permits + (now - refilled) * permitsPerNano);
+            refilled = now;
+            if (permits >= 1) {
+                permits -= 1;
+                return 0;
+            }
+            final long waitNanos = (long) Math.ceil((1 - permits) / permitsPerNano);
+            if (waitNanos > maxWaitNanos) {
+                return -1;
+            }
+            // permits go negative, so later calls queue up behind this one
+            permits -= 1;
+            return waitNanos;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright Dansk Bibliotekscenter a/s. Licensed under GPLv3
+ * See license text in LICENSE.txt or at https://opensource.dbc.dk/licenses/gpl-3.0/
+ */
+
+package dk.dbc.updateservice;
+
+import dk.dbc.invariant.InvariantUtil;
+import org.eclipse.microprofile.config.Config;
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.Tag;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Size bounded cache of call results with a time to live
+ * <p>
+ * Entries are evicted in least recently used order when the cache is full, and
+ * are not returned after the time to live has passed since they were added.
+ * Cached results are shared by all callers getting a hit and must therefore
+ * not be modified.
+ * </p>
+ *
+ * @param <V> type of the cached results
+ */
+public class UpdateServiceResultCache<V> {
+    public static final String HITS = "updateservice_connector_cache_hits";
+    public static final String MISSES = "updateservice_connector_cache_misses";
+    public static final String EVICTIONS = "updateservice_connector_cache_evictions";
+
+    private final String name;
+    private final int maxEntries;
+    private final long timeToLiveNanos;
+    private Counter hits;
+    private Counter misses;
+    private Counter evictions;
+
+    // guarded by this
+    private final LinkedHashMap<String, Entry<V>> entries;
+
+    /**
+     * @param name       name of the cache used in metrics
+     * @param maxEntries max number of cached results
+     * @param timeToLive time a result is cached
+     */
+    public UpdateServiceResultCache(String name, int maxEntries, Duration timeToLive) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be positive, was " + maxEntries);
+        }
+        this.name = InvariantUtil.checkNotNullNotEmptyOrThrow(name, "name");
+        this.maxEntries = maxEntries;
+        this.timeToLiveNanos = InvariantUtil.checkNotNullOrThrow(timeToLive, "timeToLive").toNanos();
+        entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry<V>> eldest) {
+                if (size() > UpdateServiceResultCache.this.maxEntries) {
+                    if (evictions != null) {
+                        evictions.inc();
+                    }
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Creates cache from the following settings, the cache is disabled unless
+     * the first is set
+     * <pre>
+     *     {prefix}CACHE_MAX_ENTRIES   max number of cached results
+     *     {prefix}CACHE_TTL_MS        time a result is cached (default 300000)
+     * </pre>
+     *
+     * @param config configuration to read
+     * @param prefix prefix of the settings, for example UPDATE_SERVICE_DOUBLE_RECORD_CHECK_
+     * @param name   name of the cache used in metrics
+     * @param <V>    type of the cached results
+     * @return the cache if enabled
+     */
+    static <V> Optional<UpdateServiceResultCache<V>> fromConfig(Config config, String prefix, String name) {
+        return config.getOptionalValue(prefix + "CACHE_MAX_ENTRIES", Integer.class)
+                .filter(maxEntries -> maxEntries > 0)
+                .map(maxEntries -> new UpdateServiceResultCache<>(name, maxEntries, Duration.ofMillis(
+                        config.getOptionalValue(prefix + "CACHE_TTL_MS", Long.class).orElse(300000L))));
+    }
+
+    /**
+     * Registers {@value #HITS}, {@value #MISSES} and {@value #EVICTIONS} counters tagged with the name of the cache
+     *
+     * @param metricRegistry registry to register the metrics in
+     * @return this cache
+     */
+    public UpdateServiceResultCache<V> withMetrics(MetricRegistry metricRegistry) {
+        final Tag nameTag = new Tag("cache", name);
+        hits = metricRegistry.counter(HITS, nameTag);
+        misses = metricRegistry.counter(MISSES, nameTag);
+        evictions = metricRegistry.counter(EVICTIONS, nameTag);
+        return this;
+    }
+
+    /**
+     * @param key key of the result
+     * @return the cached result or null if there is none or it has expired
+     */
+    public V get(String key) {
+        final V value;
+        synchronized (this) {
+            final Entry<V> entry = entries.get(key);
+            if (entry != null && System.nanoTime() - entry.expires >= 0) {
+                entries.remove(key);
+                value = null;
+            } else {
+                value = entry != null ? entry.value : null;
+            }
+        }
+        final Counter counter = value != null ? hits : misses;
+        if (counter != null) {
+            counter.inc();
+        }
+        return value;
+    }
+
+    /**
+     * @param key   key of the result
+     * @param value result to cache
+     */
+    public synchronized void put(String key, V value) {
+        entries.put(key, new Entry<>(value, System.nanoTime() + timeToLiveNanos));
+    }
+
+    public synchronized void invalidateAll() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private static class Entry<V> {
+        private final V value;
+        private final long expires;
+
+        Entry(V value, long expires) {
+            this.value = value;
+            this.expires = expires;
+        }
+    }
+}
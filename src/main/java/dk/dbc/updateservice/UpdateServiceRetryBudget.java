@@ -0,0 +1,153 @@
+/*
+ * Copyright Dansk Bibliotekscenter a/s. Licensed under GPLv3
+ * See license text in LICENSE.txt or at https://opensource.dbc.dk/licenses/gpl-3.0/
+ */
+
+package dk.dbc.updateservice;
+
+import dk.dbc.invariant.InvariantUtil;
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.Tag;
+
+import java.time.Duration;
+
+/**
+ * Limits retries to a fraction of the calls made within a sliding time window
+ * <p>
+ * With a ratio of 0.1, retries may add at most 10% on top of the calls made,
+ * plus a small allowance of retries per second so that a quiet connector can
+ * still retry. When the budget is used up, failed attempts are not retried but
+ * returned to the caller as if all retries had been made.
+ * </p>
+ * <p>
+ * The budget records calls as an interceptor of the connectors, see
+ * {@link UpdateServiceUpdateConnector#withRetryBudget(UpdateServiceRetryBudget)},
+ * and retries through the retry policy, see
+ * {@link UpdateServiceRetrySettings#withRetryBudget(UpdateServiceRetryBudget)}.
+ * A single budget may be shared by several connectors.
+ * </p>
+ */
+public class UpdateServiceRetryBudget implements UpdateServiceCallInterceptor {
+    public static final String RETRIES = "updateservice_connector_retries";
+    public static final String RETRIES_SUPPRESSED = "updateservice_connector_retries_suppressed";
+
+    private static final int BUCKETS = 10;
+
+    private final String name;
+    private final double ratio;
+    private Duration window = Duration.ofSeconds(10);
+    private double minRetriesPerSecond = 1;
+    private Counter retriesCounter;
+    private Counter suppressedCounter;
+
+    // guarded by this
+    private long bucketNanos = window.toNanos() / BUCKETS;
+    private final long[] bucketEpochs = new long[BUCKETS];
+    private final long[] calls = new long[BUCKETS];
+    private final long[] retries = new long[BUCKETS];
+
+    /**
+     * @param name  name of the budget used in metrics
+     * @param ratio max number of retries as a fraction of the calls made
+     */
+    public UpdateServiceRetryBudget(String name, double ratio) {
+        if (ratio < 0) {
+            throw new IllegalArgumentException("ratio must not be negative, was " + ratio);
+        }
+        this.name = InvariantUtil.checkNotNullNotEmptyOrThrow(name, "name");
+        this.ratio = ratio;
+    }
+
+    /**
+     * @param window calls and retries within this duration count against the budget (default 10 seconds)
+     * @return this budget
+     */
+    public synchronized UpdateServiceRetryBudget withWindow(Duration window) {
+        this.window = InvariantUtil.checkNotNullOrThrow(window, "window");
+        bucketNanos = Math.max(1, window.toNanos() / BUCKETS);
+        return this;
+    }
+
+    /**
+     * @param minRetriesPerSecond retries per second allowed regardless of the ratio (default 1)
+     * @return this budget
+     */
+    public synchronized UpdateServiceRetryBudget withMinRetriesPerSecond(double minRetriesPerSecond) {
+        this.minRetriesPerSecond = minRetriesPerSecond;
+        return this;
+    }
+
+    /**
+     * Registers {@value #RETRIES} and {@value #RETRIES_SUPPRESSED} counters tagged with the name of the budget
+     *
+     * @param metricRegistry registry to register the metrics in
+     * @return this budget
+     */
+    public UpdateServiceRetryBudget withMetrics(MetricRegistry metricRegistry) {
+        final Tag nameTag = new Tag("connector", name);
+        retriesCounter = metricRegistry.counter(RETRIES, nameTag);
+        suppressedCounter = metricRegistry.counter(RETRIES_SUPPRESSED, nameTag);
+        return this;
+    }
+
+    @Override
+    public int order() {
+        return ORDER_RETRY_BUDGET;
+    }
+
+    @Override
+    public Call begin(String path) {
+        record(calls);
+        return failure -> {
+        };
+    }
+
+    /**
+     * Takes a retry from the budget, checking that the budget allows it and
+     * recording it in one step, so concurrent calls cannot overdraw the budget
+     *
+     * @return true if the retry was taken, false if the budget is used up
+     */
+    public boolean tryAcquireRetry() {
+        if (!takeRetry()) {
+            if (suppressedCounter != null) {
+                suppressedCounter.inc();
+            }
+            return false;
+        }
+        if (retriesCounter != null) {
+            retriesCounter.inc();
+        }
+        return true;
+    }
+
+    private synchronized boolean takeRetry() {
+        final long epoch = System.nanoTime() / bucketNanos;
+        long callsInWindow = 0;
+        long retriesInWindow = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            if (epoch - bucketEpochs[i] < BUCKETS) {
+                callsInWindow += calls[i];
+                retriesInWindow += retries[i];
+            }
+        }
+        final double allowance = minRetriesPerSecond * window.toMillis() / 1000.0;
+        if (retriesInWindow >= ratio * callsInWindow + allowance) {
+            return false;
+        }
+        record(retries);
+        return true;
+    }
+
+    private synchronized void record(long[] counts) {
+        final long epoch = System.nanoTime() / bucketNanos;
+        final int bucket = (int) Math.floorMod(epoch, (long) BUCKETS);
+        if (bucketEpochs[bucket] != epoch) {
+            bucketEpochs[bucket] = epoch;
+            calls[bucket] = 0;
+            retries[bucket] = 0;
+        }
+        counts[bucket]++;
+    }
+}
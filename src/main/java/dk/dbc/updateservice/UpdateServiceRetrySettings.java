@@ -0,0 +1,269 @@
+/*
+ * Copyright Dansk Bibliotekscenter a/s. Licensed under GPLv3
+ * See license text in LICENSE.txt or at https://opensource.dbc.dk/licenses/gpl-3.0/
+ */
+
+package dk.dbc.updateservice;
+
+import dk.dbc.invariant.InvariantUtil;
+import jakarta.ws.rs.ProcessingException;
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.Response;
+import net.jodah.failsafe.RetryPolicy;
+import org.eclipse.microprofile.config.Config;
+
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Settings of the retry policy used by a connector
+ * <p>
+ * Failed calls are retried when the request could not be sent or no response
+ * was received ({@link ProcessingException}), or when the response has one of
+ * the retryable status codes. The delay before retry n is the base delay
+ * times 2^(n-1), capped at the max delay, with a random jitter of up to the
+ * given fraction of the delay added or subtracted. When a retryable response
+ * carries a Retry-After header its delay is used instead, still capped at the
+ * max delay. Calls failing with {@link UpdateServiceDeadlineExceededException}
+ * are never retried.
+ * </p>
+ * <p>
+ * The defaults reproduce the fixed policy used before the settings were
+ * introduced, one retry after 10 seconds on 404. When update service is
+ * redeployed, 502, 503 and 504 are the status codes worth retrying.
+ * </p>
+ */
+public class UpdateServiceRetrySettings {
+    private int maxRetries = 1;
+    private Duration baseDelay = Duration.ofSeconds(10);
+    private Duration maxDelay = Duration.ofSeconds(10);
+    private double jitter = 0;
+    private Set<Integer> retryableStatusCodes = Collections.singleton(404);
+    private UpdateServiceRetryBudget retryBudget;
+
+    /**
+     * Reads the following optional settings
+     * <pre>
+     *     {prefix}RETRY_MAX_RETRIES             max number of retries of a call (default 1)
+     *     {prefix}RETRY_BASE_DELAY_MS           delay before the first retry (default 10000)
+     *     {prefix}RETRY_MAX_DELAY_MS            max delay before any retry (default 10000)
+     *     {prefix}RETRY_JITTER                  random fraction of the delay added or subtracted, 0 to 1 (default 0)
+     *     {prefix}RETRY_STATUS_CODES            comma separated list of retryable status codes (default 404)
+     *     {prefix}RETRY_BUDGET_RATIO            enables a retry budget allowing retries of this fraction of the calls
+     *     {prefix}RETRY_BUDGET_WINDOW_MS        sliding window of the retry budget (default 10000)
+     *     {prefix}RETRY_BUDGET_MIN_PER_SECOND   retries per second allowed regardless of the ratio (default 1)
+     * </pre>
+     *
+     * @param config configuration to read
+     * @param prefix prefix of the settings, for example UPDATE_SERVICE_
+     * @param name   name of the retry budget, if enabled
+     * @return settings
+     */
+    static UpdateServiceRetrySettings fromConfig(Config config, String prefix, String name) {
+        final UpdateServiceRetrySettings settings = new UpdateServiceRetrySettings();
+        config.getOptionalValue(prefix + "RETRY_MAX_RETRIES", Integer.class)
+                .ifPresent(settings::withMaxRetries);
+        config.getOptionalValue(prefix + "RETRY_BASE_DELAY_MS", Long.class)
+                .ifPresent(ms -> settings.withBaseDelay(Duration.ofMillis(ms)));
+        config.getOptionalValue(prefix + "RETRY_MAX_DELAY_MS", Long.class)
+                .ifPresent(ms -> settings.withMaxDelay(Duration.ofMillis(ms)));
+        config.getOptionalValue(prefix + "RETRY_JITTER", Double.class)
+                .ifPresent(settings::withJitter);
+        config.getOptionalValue(prefix + "RETRY_STATUS_CODES", String.class)
+                .ifPresent(statusCodes -> settings.withRetryableStatusCodes(Arrays.stream(statusCodes.split(","))
+                        .map(String::trim)
+                        .filter(statusCode -> !statusCode.isEmpty())
+                        .map(Integer::valueOf)
+                        .collect(Collectors.toSet())));
+        config.getOptionalValue(prefix + "RETRY_BUDGET_RATIO", Double.class).ifPresent(ratio -> {
+            final UpdateServiceRetryBudget retryBudget = new UpdateServiceRetryBudget(name, ratio);
+            config.getOptionalValue(prefix + "RETRY_BUDGET_WINDOW_MS", Long.class)
+                    .ifPresent(ms -> retryBudget.withWindow(Duration.ofMillis(ms)));
+            config.getOptionalValue(prefix + "RETRY_BUDGET_MIN_PER_SECOND", Double.class)
+                    .ifPresent(retryBudget::withMinRetriesPerSecond);
+            settings.withRetryBudget(retryBudget);
+        });
+        return settings;
+    }
+
+    /**
+     * @param maxRetries max number of retries of a call, 0 disables retries (default 1)
+     * @return these settings
+     */
+    public UpdateServiceRetrySettings withMaxRetries(int maxRetries) {
+        if (maxRetries < 0) {
+            throw new IllegalArgumentException("maxRetries must not be negative, was " + maxRetries);
+        }
+        this.maxRetries = maxRetries;
+        return this;
+    }
+
+    /**
+     * @param baseDelay delay before the first retry (default 10 seconds)
+     * @return these settings
+     */
+    public UpdateServiceRetrySettings withBaseDelay(Duration baseDelay) {
+        this.baseDelay = InvariantUtil.checkNotNullOrThrow(baseDelay, "baseDelay");
+        return this;
+    }
+
+    /**
+     * @param maxDelay max delay before any retry, also capping Retry-After (default 10 seconds)
+     * @return these settings
+     */
+    public UpdateServiceRetrySettings withMaxDelay(Duration maxDelay) {
+        this.maxDelay = InvariantUtil.checkNotNullOrThrow(maxDelay, "maxDelay");
+        return this;
+    }
+
+    /**
+     * @param jitter random fraction of the delay added or subtracted, between 0 and 1 (default 0)
+     * @return these settings
+     */
+    public UpdateServiceRetrySettings withJitter(double jitter) {
+        if (jitter < 0 || jitter > 1) {
+            throw new IllegalArgumentException("jitter must be between 0 and 1, was " + jitter);
+        }
+        this.jitter = jitter;
+        return this;
+    }
+
+    /**
+     * @param retryableStatusCodes status codes of responses to retry (default 404)
+     * @return these settings
+     */
+    public UpdateServiceRetrySettings withRetryableStatusCodes(Set<Integer> retryableStatusCodes) {
+        this.retryableStatusCodes = Collections.unmodifiableSet(new HashSet<>(
+                InvariantUtil.checkNotNullOrThrow(retryableStatusCodes, "retryableStatusCodes")));
+        return this;
+    }
+
+    /**
+     * Suppresses retries when the budget is used up
+     * <p>
+     * The connectors using the resulting retry policy must record their calls
+     * in the same budget through their withRetryBudget method.
+     * </p>
+     *
+     * @param retryBudget budget limiting the retries, null for no limit (default)
+     * @return these settings
+     */
+    public UpdateServiceRetrySettings withRetryBudget(UpdateServiceRetryBudget retryBudget) {
+        this.retryBudget = retryBudget;
+        return this;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    public Duration getBaseDelay() {
+        return baseDelay;
+    }
+
+    public Duration getMaxDelay() {
+        return maxDelay;
+    }
+
+    public double getJitter() {
+        return jitter;
+    }
+
+    public Set<Integer> getRetryableStatusCodes() {
+        return retryableStatusCodes;
+    }
+
+    public UpdateServiceRetryBudget getRetryBudget() {
+        return retryBudget;
+    }
+
+    /**
+     * @return new retry policy with these settings
+     */
+    public RetryPolicy<Response> toRetryPolicy() {
+        final int retries = maxRetries;
+        final Set<Integer> statusCodes = retryableStatusCodes;
+        final UpdateServiceRetryBudget budget = retryBudget;
+        // set by the delay function when the budget denies the retry, for the abort check of the same attempt
+        final ThreadLocal<Boolean> retryDenied = new ThreadLocal<>();
+        final RetryPolicy<Response> retryPolicy = new RetryPolicy<Response>()
+                .handle(ProcessingException.class)
+                .handleResultIf(response -> statusCodes.contains(response.getStatus()))
+                .abortOn(UpdateServiceDeadlineExceededException.class)
+                .withMaxRetries(retries)
+                .withDelay((response, failure, context) -> {
+                    // the delay function is the only hook given the attempt count, and it is called for every
+                    // failed attempt before the abort check, so the budget is only drawn on when a retry remains
+                    if (budget != null && context.getAttemptCount() <= retries
+                            && isRetryable(response, failure, statusCodes) && !budget.tryAcquireRetry()) {
+                        retryDenied.set(Boolean.TRUE);
+                    }
+                    return retryAfter(response);
+                })
+                .onRetry(event -> {
+                    // the response being retried is discarded, so release its connection
+                    if (event.getLastResult() != null) {
+                        event.getLastResult().close();
+                    }
+                });
+        if (!baseDelay.isZero() && maxDelay.compareTo(baseDelay) > 0) {
+            retryPolicy.withBackoff(baseDelay.toMillis(), maxDelay.toMillis(), ChronoUnit.MILLIS);
+        } else {
+            retryPolicy.withDelay(baseDelay);
+        }
+        if (jitter > 0) {
+            retryPolicy.withJitter(jitter);
+        }
+        if (budget != null) {
+            retryPolicy.abortIf((response, failure) -> {
+                final boolean denied = retryDenied.get() != null;
+                retryDenied.remove();
+                return denied;
+            });
+        }
+        return retryPolicy;
+    }
+
+    private static boolean isRetryable(Response response, Throwable failure, Set<Integer> statusCodes) {
+        return failure instanceof ProcessingException
+                && !(failure instanceof UpdateServiceDeadlineExceededException)
+                || failure == null && response != null && statusCodes.contains(response.getStatus());
+    }
+
+    /*
+     * Returns the delay requested by the Retry-After header of the response, if any,
+     * or null to fall back to the backoff delay
+     */
+    Duration retryAfter(Response response) {
+        if (response == null) {
+            return null;
+        }
+        final String retryAfter = response.getHeaderString(HttpHeaders.RETRY_AFTER);
+        if (retryAfter == null || retryAfter.isBlank()) {
+            return null;
+        }
+        Duration delay;
+        try {
+            delay = Duration.ofSeconds(Long.parseLong(retryAfter.trim()));
+        } catch (NumberFormatException e) {
+            try {
+                delay = Duration.between(ZonedDateTime.now(),
+                        ZonedDateTime.parse(retryAfter.trim(), DateTimeFormatter.RFC_1123_DATE_TIME));
+            } catch (DateTimeParseException dateTimeParseException) {
+                return null;
+            }
+        }
+        if (delay.isNegative()) {
+            return Duration.ZERO;
+        }
+        return delay.compareTo(maxDelay) > 0 ? maxDelay : delay;
+    }
+}
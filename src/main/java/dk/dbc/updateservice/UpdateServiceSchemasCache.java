@@ -0,0 +1,286 @@
+/*
+ * Copyright Dansk Bibliotekscenter a/s. Licensed under GPLv3
+ * See license text in LICENSE.txt or at https://opensource.dbc.dk/licenses/gpl-3.0/
+ */
+
+package dk.dbc.updateservice;
+
+import dk.dbc.commons.jsonb.JSONBException;
+import dk.dbc.invariant.InvariantUtil;
+import dk.dbc.updateservice.dto.SchemasRequestDTO;
+import dk.dbc.updateservice.dto.SchemasResponseDTO;
+import org.eclipse.microprofile.config.Config;
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.Tag;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Refresh-ahead cache of getSchemas responses, keyed by a hash of the
+ * authentication of the request
+ * <p>
+ * The schemas returned depend on the group and user authenticated only, so
+ * requests differing in their tracking id share a cached response. At most
+ * the max entries responses are kept, evicting the least recently used.
+ * </p>
+ * <p>
+ * A cached response is returned as is until it is older than the refresh
+ * interval. From then on it is still returned, while a single asynchronous
+ * refresh is started in the background. Only when the response is older than
+ * the time to live do callers wait for it to be loaded again. Should loading
+ * fail, a response no older than the time to live plus the stale-if-error
+ * period is returned instead of the failure.
+ * </p>
+ * <p>
+ * Cached responses are shared by all callers and must not be modified.
+ * </p>
+ */
+public class UpdateServiceSchemasCache {
+    public static final String STALE_HITS = "updateservice_connector_cache_stale_hits";
+    public static final String REFRESHES = "updateservice_connector_cache_refreshes";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(UpdateServiceSchemasCache.class);
+    private static final String NAME = "getschemas";
+    // delay before retrying a failed background refresh
+    private static final long REFRESH_RETRY_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private Duration refreshAfter = Duration.ofMinutes(4);
+    private Duration timeToLive = Duration.ofMinutes(5);
+    private Duration staleIfError = Duration.ofHours(1);
+    private int maxEntries = 1000;
+    private Counter hits;
+    private Counter misses;
+    private Counter staleHits;
+    private Counter refreshes;
+
+    // access ordered, so the least recently used response is evicted first; guarded by itself
+    private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, UpdateServiceSchemasCache.Entry> eldest) {
+            return size() > maxEntries;
+        }
+    };
+
+    /**
+     * Creates cache from the following settings, the cache is disabled unless
+     * the first is set
+     * <pre>
+     *     {prefix}SCHEMAS_CACHE_ENABLED              true to enable the cache (default false)
+     *     {prefix}SCHEMAS_CACHE_REFRESH_AFTER_MS     age of a response when it is refreshed in the background (default 240000)
+     *     {prefix}SCHEMAS_CACHE_TTL_MS               age of a response when callers wait for it to be loaded again (default 300000)
+     *     {prefix}SCHEMAS_CACHE_STALE_IF_ERROR_MS    time beyond the time to live a response is used if loading fails (default 3600000)
+     *     {prefix}SCHEMAS_CACHE_MAX_ENTRIES          max number of cached responses (default 1000)
+     * </pre>
+     *
+     * @param config configuration to read
+     * @param prefix prefix of the settings, for example UPDATE_SERVICE_
+     * @return the cache if enabled
+     */
+    static Optional<UpdateServiceSchemasCache> fromConfig(Config config, String prefix) {
+        if (!config.getOptionalValue(prefix + "SCHEMAS_CACHE_ENABLED", Boolean.class).orElse(false)) {
+            return Optional.empty();
+        }
+        final UpdateServiceSchemasCache cache = new UpdateServiceSchemasCache();
+        config.getOptionalValue(prefix + "SCHEMAS_CACHE_REFRESH_AFTER_MS", Long.class)
+                .ifPresent(ms -> cache.withRefreshAfter(Duration.ofMillis(ms)));
+        config.getOptionalValue(prefix + "SCHEMAS_CACHE_TTL_MS", Long.class)
+                .ifPresent(ms -> cache.withTimeToLive(Duration.ofMillis(ms)));
+        config.getOptionalValue(prefix + "SCHEMAS_CACHE_STALE_IF_ERROR_MS", Long.class)
+                .ifPresent(ms -> cache.withStaleIfError(Duration.ofMillis(ms)));
+        config.getOptionalValue(prefix + "SCHEMAS_CACHE_MAX_ENTRIES", Integer.class)
+                .ifPresent(cache::withMaxEntries);
+        return Optional.of(cache);
+    }
+
+    /**
+     * @param refreshAfter age of a response when it is refreshed in the background (default 4 minutes)
+     * @return this cache
+     */
+    public UpdateServiceSchemasCache withRefreshAfter(Duration refreshAfter) {
+        this.refreshAfter = InvariantUtil.checkNotNullOrThrow(refreshAfter, "refreshAfter");
+        return this;
+    }
+
+    /**
+     * @param timeToLive age of a response when callers wait for it to be loaded again (default 5 minutes)
+     * @return this cache
+     */
+    public UpdateServiceSchemasCache withTimeToLive(Duration timeToLive) {
+        this.timeToLive = InvariantUtil.checkNotNullOrThrow(timeToLive, "timeToLive");
+        return this;
+    }
+
+    /**
+     * @param staleIfError time beyond the time to live a response is returned if loading fails (default 1 hour)
+     * @return this cache
+     */
+    public UpdateServiceSchemasCache withStaleIfError(Duration staleIfError) {
+        this.staleIfError = InvariantUtil.checkNotNullOrThrow(staleIfError, "staleIfError");
+        return this;
+    }
+
+    /**
+     * @param maxEntries max number of cached responses, the least recently used are evicted beyond (default 1000)
+     * @return this cache
+     */
+    public UpdateServiceSchemasCache withMaxEntries(int maxEntries) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be positive, was " + maxEntries);
+        }
+        this.maxEntries = maxEntries;
+        return this;
+    }
+
+    /**
+     * Registers {@value UpdateServiceResultCache#HITS}, {@value UpdateServiceResultCache#MISSES},
+     * {@value #STALE_HITS} and {@value #REFRESHES} counters tagged with cache=getschemas
+     *
+     * @param metricRegistry registry to register the metrics in
+     * @return this cache
+     */
+    public UpdateServiceSchemasCache withMetrics(MetricRegistry metricRegistry) {
+        final Tag nameTag = new Tag("cache", NAME);
+        hits = metricRegistry.counter(UpdateServiceResultCache.HITS, nameTag);
+        misses = metricRegistry.counter(UpdateServiceResultCache.MISSES, nameTag);
+        staleHits = metricRegistry.counter(STALE_HITS, nameTag);
+        refreshes = metricRegistry.counter(REFRESHES, nameTag);
+        return this;
+    }
+
+    public void invalidateAll() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    /**
+     * @param request request to get the response of
+     * @param loader  loads the response of a request
+     * @return future completed with the cached or loaded response
+     */
+    CompletableFuture<SchemasResponseDTO> get(SchemasRequestDTO request,
+                                              Function<SchemasRequestDTO, CompletableFuture<SchemasResponseDTO>> loader) {
+        final String key;
+        try {
+            key = UpdateServiceJsonCodec.hash(InvariantUtil.checkNotNullOrThrow(request, "schemasRequestDTO")
+                    .getAuthenticationDTO());
+        } catch (JSONBException | RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        final Entry entry;
+        synchronized (entries) {
+            entry = entries.computeIfAbsent(key, k -> new Entry());
+        }
+
+        final SchemasResponseDTO cached;
+        final CompletableFuture<SchemasResponseDTO> loading;
+        boolean startLoading = false;
+        synchronized (entry) {
+            final long now = System.nanoTime();
+            if (entry.value != null && now - entry.loadedAt < timeToLive.toNanos()) {
+                cached = entry.value;
+                if (entry.loading == null && now - entry.refreshAt >= 0) {
+                    entry.loading = new CompletableFuture<>();
+                    startLoading = true;
+                }
+            } else {
+                cached = null;
+                if (entry.loading == null) {
+                    entry.loading = new CompletableFuture<>();
+                    startLoading = true;
+                }
+            }
+            loading = entry.loading;
+        }
+        if (cached != null) {
+            increment(hits);
+            if (startLoading) {
+                increment(refreshes);
+                load(entry, request, loader, loading);
+            }
+            return CompletableFuture.completedFuture(cached);
+        }
+        increment(misses);
+        if (startLoading) {
+            load(entry, request, loader, loading);
+        }
+        return loading.handle((value, failure) -> {
+            if (failure == null) {
+                return value;
+            }
+            final SchemasResponseDTO stale = entry.stale(timeToLive.plus(staleIfError));
+            if (stale == null) {
+                throw new CompletionException(UpdateServiceFutures.unwrap(failure));
+            }
+            increment(staleHits);
+            return stale;
+        });
+    }
+
+    /*
+     * The loader is called with no lock held, since it may complete its future on
+     * the calling thread, and the entry is updated before the waiting callers are
+     * completed so that they find the outcome in place.
+     */
+    private void load(Entry entry, SchemasRequestDTO request,
+                      Function<SchemasRequestDTO, CompletableFuture<SchemasResponseDTO>> loader,
+                      CompletableFuture<SchemasResponseDTO> loading) {
+        CompletableFuture<SchemasResponseDTO> future;
+        try {
+            future = loader.apply(request);
+        } catch (RuntimeException e) {
+            future = CompletableFuture.failedFuture(e);
+        }
+        future.whenComplete((value, failure) -> {
+            synchronized (entry) {
+                final long now = System.nanoTime();
+                entry.loading = null;
+                if (failure == null) {
+                    entry.value = value;
+                    entry.loadedAt = now;
+                    entry.refreshAt = now + refreshAfter.toNanos();
+                } else {
+                    entry.refreshAt = now + REFRESH_RETRY_NANOS;
+                    LOGGER.warn("Failed to load getSchemas response for caching: {}",
+                            UpdateServiceFutures.unwrap(failure).toString());
+                }
+            }
+            if (failure == null) {
+                loading.complete(value);
+            } else {
+                loading.completeExceptionally(UpdateServiceFutures.unwrap(failure));
+            }
+        });
+    }
+
+    private static void increment(Counter counter) {
+        if (counter != null) {
+            counter.inc();
+        }
+    }
+
+    private static class Entry {
+        // guarded by this
+        private SchemasResponseDTO value;
+        private long loadedAt;
+        private long refreshAt;
+        private CompletableFuture<SchemasResponseDTO> loading;
+
+        synchronized SchemasResponseDTO stale(Duration maxAge) {
+            if (value != null && System.nanoTime() - loadedAt < maxAge.toNanos()) {
+                return value;
+            }
+            return null;
+        }
+    }
+}
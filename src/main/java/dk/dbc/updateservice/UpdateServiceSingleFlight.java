@@ -0,0 +1,115 @@
+/*
+ * Copyright Dansk Bibliotekscenter a/s. Licensed under GPLv3
+ * See license text in LICENSE.txt or at https://opensource.dbc.dk/licenses/gpl-3.0/
+ */
+
+package dk.dbc.updateservice;
+
+import dk.dbc.invariant.InvariantUtil;
+import org.eclipse.microprofile.config.Config;
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.Tag;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces identical concurrent calls
+ * <p>
+ * While a call with a given key is in flight, later calls with the same key
+ * are attached to it instead of sending a duplicate request. The key is made
+ * from the endpoint and a hash of the request body, so only byte-identical
+ * requests are coalesced. All callers get the same response object, which
+ * must therefore not be modified.
+ * </p>
+ * <p>
+ * Every caller gets its own future, so a caller cancelling or timing out its
+ * future does not affect the others or the call in flight.
+ * </p>
+ */
+public class UpdateServiceSingleFlight {
+    public static final String COLLAPSED = "updateservice_connector_collapsed_calls";
+
+    private final String name;
+    private final ConcurrentHashMap<String, CompletableFuture<?>> inFlight = new ConcurrentHashMap<>();
+    private Counter collapsedCounter;
+
+    /**
+     * @param name name used in metrics, typically the name of the connector
+     */
+    public UpdateServiceSingleFlight(String name) {
+        this.name = InvariantUtil.checkNotNullNotEmptyOrThrow(name, "name");
+    }
+
+    /**
+     * Creates single flight coalescing if {prefix}SINGLE_FLIGHT_ENABLED is true
+     *
+     * @param config configuration to read
+     * @param prefix prefix of the settings, for example UPDATE_SERVICE_DOUBLE_RECORD_CHECK_
+     * @param name   name used in metrics
+     * @return the single flight coalescing if enabled
+     */
+    static Optional<UpdateServiceSingleFlight> fromConfig(Config config, String prefix, String name) {
+        if (!config.getOptionalValue(prefix + "SINGLE_FLIGHT_ENABLED", Boolean.class).orElse(false)) {
+            return Optional.empty();
+        }
+        return Optional.of(new UpdateServiceSingleFlight(name));
+    }
+
+    /**
+     * Registers {@value #COLLAPSED} counter tagged with the name of the single flight coalescing
+     *
+     * @param metricRegistry registry to register the metrics in
+     * @return this single flight coalescing
+     */
+    public UpdateServiceSingleFlight withMetrics(MetricRegistry metricRegistry) {
+        collapsedCounter = metricRegistry.counter(COLLAPSED, new Tag("connector", name));
+        return this;
+    }
+
+    /**
+     * @return number of distinct calls in flight
+     */
+    public int getInFlight() {
+        return inFlight.size();
+    }
+
+    /**
+     * Makes the call unless an identical call is in flight
+     *
+     * @param key  identifies identical calls
+     * @param call makes the call
+     * @param <T>  type of the result
+     * @return future completed with the result of the call in flight
+     */
+    @SuppressWarnings("unchecked")
+    <T> CompletableFuture<T> execute(String key, Supplier<CompletableFuture<T>> call) {
+        final CompletableFuture<T> shared = new CompletableFuture<>();
+        final CompletableFuture<?> existing = inFlight.putIfAbsent(key, shared);
+        if (existing != null) {
+            if (collapsedCounter != null) {
+                collapsedCounter.inc();
+            }
+            return ((CompletableFuture<T>) existing).copy();
+        }
+        CompletableFuture<T> result;
+        try {
+            result = call.get();
+        } catch (RuntimeException e) {
+            result = CompletableFuture.failedFuture(e);
+        }
+        result.whenComplete((value, failure) -> {
+            // removed before completion so callers arriving from now on start a new call
+            inFlight.remove(key, shared);
+            if (failure == null) {
+                shared.complete(value);
+            } else {
+                shared.completeExceptionally(UpdateServiceFutures.unwrap(failure));
+            }
+        });
+        return shared.copy();
+    }
+}
@@ -1,6 +1,5 @@
 package dk.dbc.updateservice;
 
-import dk.dbc.commons.jsonb.JSONBContext;
 import dk.dbc.commons.jsonb.JSONBException;
 import dk.dbc.httpclient.FailSafeHttpClient;
 import dk.dbc.httpclient.HttpPost;
@@ -11,22 +10,43 @@ import dk.dbc.updateservice.dto.SchemasResponseDTO;
 import dk.dbc.updateservice.dto.UpdateRecordResponseDTO;
 import dk.dbc.updateservice.dto.UpdateServiceRequestDTO;
 import dk.dbc.util.Stopwatch;
-import dk.dbc.dataio.commons.utils.lang.StringUtil;
 
+import java.io.IOException;
 import java.io.InputStream;
-import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 import jakarta.ws.rs.ProcessingException;
 import jakarta.ws.rs.client.Client;
+import jakarta.ws.rs.client.Entity;
+import jakarta.ws.rs.client.Invocation;
 import jakarta.ws.rs.core.Response;
 
+import net.jodah.failsafe.Failsafe;
 import net.jodah.failsafe.RetryPolicy;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.glassfish.jersey.client.ClientProperties;
+import org.glassfish.jersey.client.RequestEntityProcessing;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class UpdateServiceUpdateConnector {
-    JSONBContext jsonbContext = new JSONBContext();
-
+public class UpdateServiceUpdateConnector implements UpdateServiceConnectorWiring.Connector<UpdateServiceUpdateConnector> {
     public enum TimingLogLevel {
         TRACE, DEBUG, INFO, WARN, ERROR
     }
@@ -35,15 +55,24 @@ public class UpdateServiceUpdateConnector {
     private static final String PATH_UPDATESERVICE = "/api/v1/updateservice";
     private static final String PATH_GETSCHEMAS = "/api/v1/updateservice/getschemas";
 
-    private static final RetryPolicy<Response> RETRY_POLICY = new RetryPolicy<Response>()
-            .handle(ProcessingException.class)
-            .handleResultIf(response -> response.getStatus() == 404)
-            .withDelay(Duration.ofSeconds(10))
-            .withMaxRetries(1);
+    private static final RetryPolicy<Response> RETRY_POLICY = new UpdateServiceRetrySettings().toRetryPolicy();
 
     private final FailSafeHttpClient failSafeHttpClient;
     private final String baseUrl;
     private final UpdateServiceUpdateConnector.LogLevelMethod logger;
+    private final UpdateServiceCallInterceptors interceptors = new UpdateServiceCallInterceptors();
+    private final UpdateServiceCallStatistics callStatistics = new UpdateServiceCallStatistics();
+    private boolean streamingRequests;
+    private int gzipRequestsMinSize = -1;
+    private boolean gzipResponses;
+    private boolean compactMarcXchange;
+    private UpdateServiceBufferPool bufferPool;
+    private boolean sharedClient;
+    private RetryPolicy<Response> asyncRetryPolicy;
+    private UpdateServiceSchemasCache schemasCache;
+    private UpdateServiceRateLimiter rateLimiter;
+    // guarded by this
+    private ExecutorService bulkExecutor;
 
     /**
      * Returns new instance with default retry policy
@@ -53,6 +82,7 @@ public class UpdateServiceUpdateConnector {
      */
     public UpdateServiceUpdateConnector(Client httpClient, String baseUrl) {
         this(FailSafeHttpClient.create(httpClient, RETRY_POLICY), baseUrl, UpdateServiceUpdateConnector.TimingLogLevel.INFO);
+        this.asyncRetryPolicy = RETRY_POLICY;
     }
 
     /**
@@ -64,6 +94,7 @@ public class UpdateServiceUpdateConnector {
      */
     public UpdateServiceUpdateConnector(Client httpClient, String baseUrl, UpdateServiceUpdateConnector.TimingLogLevel level) {
         this(FailSafeHttpClient.create(httpClient, RETRY_POLICY), baseUrl, level);
+        this.asyncRetryPolicy = RETRY_POLICY;
     }
 
     /**
@@ -88,6 +119,7 @@ public class UpdateServiceUpdateConnector {
                 failSafeHttpClient, "failSafeHttpClient");
         this.baseUrl = InvariantUtil.checkNotNullNotEmptyOrThrow(
                 baseUrl, "baseUrl");
+        interceptors.add(callStatistics);
         switch (level) {
             case TRACE:
                 logger = LOGGER::trace;
@@ -110,48 +142,789 @@ public class UpdateServiceUpdateConnector {
         }
     }
 
+    /**
+     * Enables or disables streaming of request bodies
+     * <p>
+     * When enabled the request DTO is serialized directly onto the connection
+     * instead of being built as a String first. To avoid Jersey buffering the
+     * entity to compute a Content-Length, the client given to this connector
+     * should be configured with {@link ClientProperties#REQUEST_ENTITY_PROCESSING}
+     * set to {@link RequestEntityProcessing#CHUNKED}. Asynchronous requests set
+     * this property themselves.
+     * </p>
+     *
+     * @param streamingRequests true to stream request bodies
+     * @return this connector
+     */
+    public UpdateServiceUpdateConnector withStreamingRequests(boolean streamingRequests) {
+        this.streamingRequests = streamingRequests;
+        return this;
+    }
+
+    /**
+     * Compresses request bodies of at least the given size with gzip, sending
+     * them with Content-Encoding: gzip
+     * <p>
+     * Streamed request bodies are compressed regardless of their size, as the
+     * size is not known before the body is written.
+     * </p>
+     *
+     * @param minSize min size in bytes of request bodies to compress, 0 to compress all, negative to compress none
+     * @return this connector
+     */
+    public UpdateServiceUpdateConnector withGzipRequests(int minSize) {
+        this.gzipRequestsMinSize = minSize;
+        return this;
+    }
+
+    /**
+     * Asks for responses compressed with gzip by sending Accept-Encoding: gzip
+     * <p>
+     * Responses with Content-Encoding: gzip are decompressed whether asked for
+     * or not. Clients using the Apache connector negotiate and decompress
+     * compressed responses on their own.
+     * </p>
+     *
+     * @param gzipResponses true to ask for compressed responses
+     * @return this connector
+     */
+    public UpdateServiceUpdateConnector withGzipResponses(boolean gzipResponses) {
+        this.gzipResponses = gzipResponses;
+        return this;
+    }
+
+    /**
+     * Enables or disables compaction of MARCXchange records before they are sent
+     * <p>
+     * When enabled, whitespace between the elements of XML record content, such
+     * as indentation, is stripped while the request is encoded, whether the
+     * content is a string or a DOM node. Subfield values are never changed, see {@link UpdateServiceMarcXchangeCompactor}.
+     * </p>
+     *
+     * @param compactMarcXchange true to compact records
+     * @return this connector
+     */
+    public UpdateServiceUpdateConnector withMarcXchangeCompaction(boolean compactMarcXchange) {
+        this.compactMarcXchange = compactMarcXchange;
+        return this;
+    }
+
+    /**
+     * Encodes request bodies which are not streamed into buffers borrowed
+     * from the given pool instead of allocating new ones for every call.
+     * Responses are always decoded straight from the response stream.
+     * <p>
+     * Asynchronous requests send pooled bodies with chunked transfer encoding.
+     * Synchronous requests do so only if the client given to this connector is
+     * configured with {@link ClientProperties#REQUEST_ENTITY_PROCESSING} set to
+     * {@link RequestEntityProcessing#CHUNKED}, otherwise Jersey copies the
+     * pooled body into a buffer of its own and the pool saves nothing.
+     * </p>
+     *
+     * @param bufferPool pool shared by the connectors, null to allocate buffers per call
+     * @return this connector
+     */
+    public UpdateServiceUpdateConnector withBufferPool(UpdateServiceBufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+        return this;
+    }
+
+    /**
+     * Marks the web resources client as shared with other connectors, so
+     * {@link #close()} leaves it open for its owner to close
+     *
+     * @param sharedClient true if the client is owned elsewhere
+     * @return this connector
+     */
+    public UpdateServiceUpdateConnector withSharedClient(boolean sharedClient) {
+        this.sharedClient = sharedClient;
+        return this;
+    }
+
+    /**
+     * Sets the retry policy of the asynchronous methods, which is
+     * {@link UpdateServiceRetrySettings default} for connectors created from a
+     * {@link Client}, and no retries for connectors created from a {@link FailSafeHttpClient}
+     * unless set here
+     *
+     * @param asyncRetryPolicy retry policy, null to disable retries
+     * @return this connector
+     */
+    public UpdateServiceUpdateConnector withAsyncRetryPolicy(RetryPolicy<Response> asyncRetryPolicy) {
+        this.asyncRetryPolicy = asyncRetryPolicy;
+        return this;
+    }
+
+    /**
+     * Registers timers, counters and gauges for the calls made by this connector,
+     * see {@link UpdateServiceConnectorMetrics}
+     *
+     * @param metricRegistry registry to register the metrics in
+     * @return this connector
+     */
+    public UpdateServiceUpdateConnector withMetrics(MetricRegistry metricRegistry) {
+        interceptors.add(new UpdateServiceConnectorMetrics(
+                InvariantUtil.checkNotNullOrThrow(metricRegistry, "metricRegistry")));
+        return this;
+    }
+
+    /**
+     * Fails calls fast with {@link UpdateServiceCircuitBreakerOpenException} while
+     * the given breaker is open
+     *
+     * @param circuitBreaker breaker guarding the calls made by this connector
+     * @return this connector
+     */
+    public UpdateServiceUpdateConnector withCircuitBreaker(UpdateServiceCircuitBreaker circuitBreaker) {
+        interceptors.add(InvariantUtil.checkNotNullOrThrow(circuitBreaker, "circuitBreaker"));
+        return this;
+    }
+
+    /**
+     * Limits the calls made by this connector to their endpoint's compartment of
+     * the given bulkhead, rejecting calls with {@link UpdateServiceBulkheadFullException}
+     * when it is full
+     *
+     * @param bulkhead bulkhead shared by the connectors using the same connection pool
+     * @return this connector
+     */
+    public UpdateServiceUpdateConnector withBulkhead(UpdateServiceBulkhead bulkhead) {
+        interceptors.add(InvariantUtil.checkNotNullOrThrow(bulkhead, "bulkhead"));
+        return this;
+    }
+
+    /**
+     * Caps the number of calls in flight at the adaptive limit of the given limiter,
+     * rejecting calls over the limit with {@link UpdateServiceConcurrencyLimitExceededException}
+     * unless they can be queued
+     *
+     * @param concurrencyLimiter limiter guarding the calls made by this connector
+     * @return this connector
+     */
+    public UpdateServiceUpdateConnector withConcurrencyLimiter(UpdateServiceConcurrencyLimiter concurrencyLimiter) {
+        interceptors.add(InvariantUtil.checkNotNullOrThrow(concurrencyLimiter, "concurrencyLimiter"));
+        return this;
+    }
+
+    /**
+     * Records the calls made by this connector in the given retry budget, which
+     * must also be set on the retry policies through
+     * {@link UpdateServiceRetrySettings#withRetryBudget(UpdateServiceRetryBudget)}
+     *
+     * @param retryBudget budget limiting the retries of this connector
+     * @return this connector
+     */
+    public UpdateServiceUpdateConnector withRetryBudget(UpdateServiceRetryBudget retryBudget) {
+        interceptors.add(InvariantUtil.checkNotNullOrThrow(retryBudget, "retryBudget"));
+        return this;
+    }
+
+    /**
+     * Caches getSchemas responses per request, refreshing them in the background
+     * before they expire and falling back to stale responses while update service
+     * is unavailable, see {@link UpdateServiceSchemasCache}
+     * <p>
+     * With the cache enabled the blocking {@link #getSchemas(SchemasRequestDTO)}
+     * waits for the asynchronous variant when a response has to be loaded.
+     * </p>
+     *
+     * @param schemasCache cache of getSchemas responses, null to disable caching
+     * @return this connector
+     */
+    public UpdateServiceUpdateConnector withSchemasCache(UpdateServiceSchemasCache schemasCache) {
+        this.schemasCache = schemasCache;
+        return this;
+    }
+
+    /**
+     * Limits the rate of updateRecord calls per group, see {@link UpdateServiceRateLimiter}
+     * <p>
+     * Throttled calls wait for or are rejected with {@link UpdateServiceRateLimitExceededException}
+     * before they are sent, so they are not counted by the call metrics.
+     * </p>
+     *
+     * @param rateLimiter rate limiter of updateRecord calls, null to disable rate limiting
+     * @return this connector
+     */
+    public UpdateServiceUpdateConnector withRateLimiter(UpdateServiceRateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+        return this;
+    }
+
+    /**
+     * @return latency and outcome of the most recent calls made by this connector
+     */
+    public UpdateServiceCallStatistics getCallStatistics() {
+        return callStatistics;
+    }
+
     public UpdateRecordResponseDTO updateRecord(UpdateServiceRequestDTO updateServiceRequestDTO) throws UpdateServiceUpdateConnectorException, JSONBException {
         return updateRecord(updateServiceRequestDTO, null);
     }
 
     public UpdateRecordResponseDTO updateRecord(UpdateServiceRequestDTO updateServiceRequestDTO, String xForwardedFor) throws UpdateServiceUpdateConnectorException, JSONBException {
+        return sendUpdateRecord(updateServiceRequestDTO, xForwardedFor, null);
+    }
+
+    /*
+     * Sends the request through the FailSafeHttpClient and thereby its retry policy. The
+     * timeouts of its attempts cannot be lowered, so the deadline, if any, is checked
+     * before the request is sent and when it has failed.
+     */
+    private UpdateRecordResponseDTO sendUpdateRecord(UpdateServiceRequestDTO updateServiceRequestDTO, String xForwardedFor,
+                                                     UpdateServiceCallOptions.Deadline deadline)
+            throws UpdateServiceUpdateConnectorException, JSONBException {
+        if (rateLimiter != null) {
+            rateLimiter.acquire(updateServiceRequestDTO);
+        }
+        if (deadline != null && deadline.remainingMillis() <= 0) {
+            throw deadline.exceeded();
+        }
         final Stopwatch stopwatch = new Stopwatch();
+        final UpdateServiceCallInterceptor.Call call = interceptors.begin(PATH_UPDATESERVICE);
+        Throwable failure = null;
         try {
-            final InputStream responseStream = sendPostRequest(PATH_UPDATESERVICE, updateServiceRequestDTO, xForwardedFor, InputStream.class);
-            return jsonbContext.unmarshall(StringUtil.asString(responseStream), UpdateRecordResponseDTO.class);
+            final InputStream responseStream = sendPostRequest(PATH_UPDATESERVICE, updateServiceRequestDTO, xForwardedFor, InputStream.class, call);
+            return UpdateServiceJsonCodec.decode(responseStream, UpdateRecordResponseDTO.class);
+        } catch (ProcessingException e) {
+            failure = deadline != null && deadline.remainingMillis() <= 0 ? deadline.exceeded() : e;
+            throw (ProcessingException) failure;
+        } catch (UpdateServiceUpdateConnectorException | JSONBException | RuntimeException e) {
+            failure = e;
+            throw e;
         } finally {
+            call.end(failure);
             logger.log("updateRecord took {} milliseconds",
                     stopwatch.getElapsedTime(TimeUnit.MILLISECONDS));
         }
     }
 
+    /**
+     * Variant of {@link #updateRecord(UpdateServiceRequestDTO, String)} with call options
+     * <p>
+     * When this connector has an asynchronous retry policy, which it has unless created from a
+     * {@link FailSafeHttpClient} without {@link #withAsyncRetryPolicy(RetryPolicy)}, the call waits for
+     * {@link #updateRecordAsync(UpdateServiceRequestDTO, String, UpdateServiceCallOptions)}, which lowers
+     * the timeouts of every attempt to the time left. Otherwise the call is sent through the
+     * {@link FailSafeHttpClient} and its retry policy, and the deadline is only checked before the
+     * request is sent and when it has failed.
+     * </p>
+     *
+     * @param updateServiceRequestDTO the request
+     * @param xForwardedFor           value of the X-Forwarded-For header, may be null
+     * @param options                 options of the call, for instance its deadline
+     * @return the response
+     * @throws UpdateServiceUpdateConnectorException on unexpected response
+     * @throws JSONBException                        on request or response encoding errors
+     * @throws UpdateServiceDeadlineExceededException if the deadline of the call passed
+     */
+    public UpdateRecordResponseDTO updateRecord(UpdateServiceRequestDTO updateServiceRequestDTO, String xForwardedFor,
+                                                UpdateServiceCallOptions options) throws UpdateServiceUpdateConnectorException, JSONBException {
+        if (asyncRetryPolicy != null) {
+            return await(updateRecordAsync(updateServiceRequestDTO, xForwardedFor, options));
+        }
+        return sendUpdateRecord(updateServiceRequestDTO, xForwardedFor, options != null ? options.startCall() : null);
+    }
+
+    /**
+     * Sends all requests through {@link #updateRecord(UpdateServiceRequestDTO)} with
+     * at most maxConcurrency calls in flight at any time
+     *
+     * @param requests       requests to send
+     * @param maxConcurrency max number of concurrent calls
+     * @return a result for each request in input order, failures included
+     * @throws InterruptedException if interrupted while waiting for a free slot
+     */
+    public List<UpdateServiceBulkUpdateResult> updateRecords(Collection<UpdateServiceRequestDTO> requests, int maxConcurrency)
+            throws InterruptedException {
+        InvariantUtil.checkNotNullOrThrow(requests, "requests");
+        return updateRecords(requests.iterator(), maxConcurrency);
+    }
+
+    /**
+     * Sends all requests through {@link #updateRecord(UpdateServiceRequestDTO)} with
+     * at most maxConcurrency calls in flight at any time
+     * <p>
+     * The results of all requests are kept until the last call has completed.
+     * Use {@link #updateRecords(Iterator, int, Consumer)} for more requests than
+     * fit in memory at once.
+     * </p>
+     *
+     * @param requests       requests to send
+     * @param maxConcurrency max number of concurrent calls
+     * @return a result for each request in input order, failures included
+     * @throws InterruptedException if interrupted while waiting for a free slot
+     */
+    public List<UpdateServiceBulkUpdateResult> updateRecords(Iterator<UpdateServiceRequestDTO> requests, int maxConcurrency)
+            throws InterruptedException {
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException("maxConcurrency must be positive, was " + maxConcurrency);
+        }
+        return updateRecords(requests, maxConcurrency, bulkExecutor());
+    }
+
+    /**
+     * Sends all requests through {@link #updateRecord(UpdateServiceRequestDTO)} on the
+     * given executor with at most maxConcurrency calls in flight at any time
+     * <p>
+     * Use this variant to supply a cheaper executor than the thread pool of the
+     * connector used by {@link #updateRecords(Iterator, int)}, for example one
+     * backed by virtual threads on runtimes which have them.
+     * </p>
+     *
+     * @param requests       requests to send
+     * @param maxConcurrency max number of concurrent calls
+     * @param executor       executor running the calls
+     * @return a result for each request in input order, failures included
+     * @throws InterruptedException if interrupted while waiting for a free slot
+     */
+    public List<UpdateServiceBulkUpdateResult> updateRecords(Iterator<UpdateServiceRequestDTO> requests, int maxConcurrency,
+                                                             Executor executor) throws InterruptedException {
+        InvariantUtil.checkNotNullOrThrow(requests, "requests");
+        InvariantUtil.checkNotNullOrThrow(executor, "executor");
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException("maxConcurrency must be positive, was " + maxConcurrency);
+        }
+        final Semaphore slots = new Semaphore(maxConcurrency);
+        final List<CompletableFuture<UpdateServiceBulkUpdateResult>> pending = new ArrayList<>();
+        while (requests.hasNext()) {
+            final UpdateServiceRequestDTO request = requests.next();
+            final CompletableFuture<UpdateServiceBulkUpdateResult> result = new CompletableFuture<>();
+            pending.add(result);
+            slots.acquire();
+            try {
+                executor.execute(() -> {
+                    try {
+                        completeResult(result, request);
+                    } finally {
+                        slots.release();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                slots.release();
+                result.complete(UpdateServiceBulkUpdateResult.failure(request, e));
+            }
+        }
+
+        final List<UpdateServiceBulkUpdateResult> results = new ArrayList<>(pending.size());
+        for (CompletableFuture<UpdateServiceBulkUpdateResult> result : pending) {
+            results.add(bulkResult(result));
+        }
+        return results;
+    }
+
+    /**
+     * Sends all requests through {@link #updateRecord(UpdateServiceRequestDTO)} with
+     * at most maxConcurrency calls in flight at any time, handing each result
+     * to the consumer as soon as its call has completed
+     * <p>
+     * The iterator is only advanced when a slot is free and no result is
+     * kept once consumed, so it can be used to stream requests which do not
+     * fit in memory at once. Results are consumed in completion order on the
+     * calling thread.
+     * </p>
+     *
+     * @param requests       requests to send
+     * @param maxConcurrency max number of concurrent calls
+     * @param resultConsumer consumer of the result of each request, failures included
+     * @throws InterruptedException if interrupted while waiting for a call to complete
+     */
+    public void updateRecords(Iterator<UpdateServiceRequestDTO> requests, int maxConcurrency,
+                              Consumer<UpdateServiceBulkUpdateResult> resultConsumer) throws InterruptedException {
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException("maxConcurrency must be positive, was " + maxConcurrency);
+        }
+        updateRecords(requests, maxConcurrency, bulkExecutor(), resultConsumer);
+    }
+
+    /**
+     * Variant of {@link #updateRecords(Iterator, int, Consumer)} running the
+     * calls on the given executor
+     *
+     * @param requests       requests to send
+     * @param maxConcurrency max number of concurrent calls
+     * @param executor       executor running the calls
+     * @param resultConsumer consumer of the result of each request, failures included
+     * @throws InterruptedException if interrupted while waiting for a call to complete
+     */
+    public void updateRecords(Iterator<UpdateServiceRequestDTO> requests, int maxConcurrency, Executor executor,
+                              Consumer<UpdateServiceBulkUpdateResult> resultConsumer) throws InterruptedException {
+        InvariantUtil.checkNotNullOrThrow(requests, "requests");
+        InvariantUtil.checkNotNullOrThrow(executor, "executor");
+        InvariantUtil.checkNotNullOrThrow(resultConsumer, "resultConsumer");
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException("maxConcurrency must be positive, was " + maxConcurrency);
+        }
+        final BlockingQueue<CompletableFuture<UpdateServiceBulkUpdateResult>> completed = new LinkedBlockingQueue<>();
+        int inFlight = 0;
+        while (requests.hasNext()) {
+            if (inFlight == maxConcurrency) {
+                resultConsumer.accept(bulkResult(completed.take()));
+                inFlight--;
+            }
+            final UpdateServiceRequestDTO request = requests.next();
+            try {
+                executor.execute(() -> {
+                    final CompletableFuture<UpdateServiceBulkUpdateResult> result = new CompletableFuture<>();
+                    try {
+                        completeResult(result, request);
+                    } finally {
+                        completed.add(result);
+                    }
+                });
+                inFlight++;
+            } catch (RejectedExecutionException e) {
+                resultConsumer.accept(UpdateServiceBulkUpdateResult.failure(request, e));
+            }
+        }
+        for (; inFlight > 0; inFlight--) {
+            resultConsumer.accept(bulkResult(completed.take()));
+        }
+    }
+
+    /*
+     * Completes the result of a bulk call, also when the call fails with an Error,
+     * so the caller of updateRecords is never left waiting for it
+     */
+    private void completeResult(CompletableFuture<UpdateServiceBulkUpdateResult> result, UpdateServiceRequestDTO request) {
+        try {
+            result.complete(UpdateServiceBulkUpdateResult.success(request, updateRecord(request)));
+        } catch (UpdateServiceUpdateConnectorException | JSONBException | RuntimeException e) {
+            result.complete(UpdateServiceBulkUpdateResult.failure(request, e));
+        } catch (Throwable t) {
+            result.completeExceptionally(t);
+        }
+    }
+
+    /*
+     * Errors are not results, they are thrown to the caller of updateRecords
+     */
+    private static UpdateServiceBulkUpdateResult bulkResult(CompletableFuture<UpdateServiceBulkUpdateResult> result) {
+        try {
+            return result.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /*
+     * Thread pool of the bulk calls made without an executor, created on first use and
+     * shared by all of them. Concurrency is limited per bulk call, not by the pool.
+     */
+    private synchronized ExecutorService bulkExecutor() {
+        if (bulkExecutor == null) {
+            bulkExecutor = Executors.newCachedThreadPool(new BulkThreadFactory());
+        }
+        return bulkExecutor;
+    }
+
     public SchemasResponseDTO getSchemas(SchemasRequestDTO schemasRequestDTO) throws UpdateServiceUpdateConnectorException, JSONBException {
+        if (schemasCache != null) {
+            return await(schemasCache.get(schemasRequestDTO, this::loadSchemasAsync));
+        }
         final Stopwatch stopwatch = new Stopwatch();
+        final UpdateServiceCallInterceptor.Call call = interceptors.begin(PATH_GETSCHEMAS);
+        Throwable failure = null;
         try {
-            final InputStream responseStream = sendPostRequest(PATH_GETSCHEMAS, schemasRequestDTO, null, InputStream.class);
-            return jsonbContext.unmarshall(StringUtil.asString(responseStream), SchemasResponseDTO.class);
+            final InputStream responseStream = sendPostRequest(PATH_GETSCHEMAS, schemasRequestDTO, null, InputStream.class, call);
+            return UpdateServiceJsonCodec.decode(responseStream, SchemasResponseDTO.class);
+        } catch (UpdateServiceUpdateConnectorException | JSONBException | RuntimeException e) {
+            failure = e;
+            throw e;
         } finally {
+            call.end(failure);
             logger.log("getSchemas took {} milliseconds", stopwatch.getElapsedTime(TimeUnit.MILLISECONDS));
         }
     }
 
-    private <T> T sendPostRequest(String basePath, Object request, String xForwardedFor, Class<T> type)
-            throws UpdateServiceUpdateConnectorException, JSONBException {
+    /**
+     * Non-blocking variant of {@link #updateRecord(UpdateServiceRequestDTO)}
+     *
+     * @param updateServiceRequestDTO the request
+     * @return future completed with the response, or exceptionally with
+     * {@link UpdateServiceUpdateConnectorException}, {@link JSONBException} or
+     * {@link ProcessingException} where the blocking variant would have thrown
+     */
+    public CompletableFuture<UpdateRecordResponseDTO> updateRecordAsync(UpdateServiceRequestDTO updateServiceRequestDTO) {
+        return updateRecordAsync(updateServiceRequestDTO, null);
+    }
+
+    /**
+     * Non-blocking variant of {@link #updateRecord(UpdateServiceRequestDTO, String)}
+     *
+     * @param updateServiceRequestDTO the request
+     * @param xForwardedFor           value of the X-Forwarded-For header, may be null
+     * @return future completed with the response, or exceptionally with
+     * {@link UpdateServiceUpdateConnectorException}, {@link JSONBException} or
+     * {@link ProcessingException} where the blocking variant would have thrown
+     */
+    public CompletableFuture<UpdateRecordResponseDTO> updateRecordAsync(UpdateServiceRequestDTO updateServiceRequestDTO, String xForwardedFor) {
+        return updateRecordAsync(updateServiceRequestDTO, xForwardedFor, null);
+    }
+
+    /**
+     * Variant of {@link #updateRecordAsync(UpdateServiceRequestDTO, String)} with call options
+     *
+     * @param updateServiceRequestDTO the request
+     * @param xForwardedFor           value of the X-Forwarded-For header, may be null
+     * @param options                 options of the call, for instance its deadline, may be null
+     * @return future completed with the response, or exceptionally as
+     * {@link #updateRecordAsync(UpdateServiceRequestDTO, String)} or with
+     * {@link UpdateServiceDeadlineExceededException} if the deadline of the call passed
+     */
+    public CompletableFuture<UpdateRecordResponseDTO> updateRecordAsync(UpdateServiceRequestDTO updateServiceRequestDTO, String xForwardedFor,
+                                                                        UpdateServiceCallOptions options) {
+        final UpdateServiceCallOptions.Deadline deadline = options != null ? options.startCall() : null;
+        final long rateLimitWaitNanos;
+        try {
+            rateLimitWaitNanos = rateLimiter != null ? rateLimiter.reserve(updateServiceRequestDTO) : 0;
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        final CompletableFuture<UpdateRecordResponseDTO> response;
+        if (rateLimitWaitNanos > 0) {
+            // waits for the reserved permit without blocking the calling thread
+            final Executor delayed = CompletableFuture.delayedExecutor(rateLimitWaitNanos, TimeUnit.NANOSECONDS);
+            response = CompletableFuture.supplyAsync(() -> null, delayed)
+                    .thenCompose(ignored -> sendUpdateRecordAsync(updateServiceRequestDTO, xForwardedFor, deadline));
+        } else {
+            response = sendUpdateRecordAsync(updateServiceRequestDTO, xForwardedFor, deadline);
+        }
+        return deadline != null ? deadline.bound(response) : response;
+    }
+
+    private CompletableFuture<UpdateRecordResponseDTO> sendUpdateRecordAsync(UpdateServiceRequestDTO updateServiceRequestDTO, String xForwardedFor,
+                                                                             UpdateServiceCallOptions.Deadline deadline) {
+        final Stopwatch stopwatch = new Stopwatch();
+        final UpdateServiceCallInterceptor.Call call;
+        try {
+            call = interceptors.beginNonBlocking(PATH_UPDATESERVICE);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return sendPostRequestAsync(PATH_UPDATESERVICE, updateServiceRequestDTO, xForwardedFor, InputStream.class, call, deadline)
+                .thenApply(responseStream -> decode(responseStream, UpdateRecordResponseDTO.class))
+                .whenComplete((result, failure) -> {
+                    call.end(UpdateServiceFutures.unwrap(failure));
+                    logger.log("updateRecordAsync took {} milliseconds",
+                            stopwatch.getElapsedTime(TimeUnit.MILLISECONDS));
+                });
+    }
+
+    /**
+     * Non-blocking variant of {@link #getSchemas(SchemasRequestDTO)}
+     *
+     * @param schemasRequestDTO the request
+     * @return future completed with the response, or exceptionally with
+     * {@link UpdateServiceUpdateConnectorException}, {@link JSONBException} or
+     * {@link ProcessingException} where the blocking variant would have thrown
+     */
+    public CompletableFuture<SchemasResponseDTO> getSchemasAsync(SchemasRequestDTO schemasRequestDTO) {
+        if (schemasCache != null) {
+            return schemasCache.get(schemasRequestDTO, this::loadSchemasAsync);
+        }
+        return loadSchemasAsync(schemasRequestDTO);
+    }
+
+    /*
+     * Always calls update service, also when the schemas cache is enabled
+     */
+    CompletableFuture<SchemasResponseDTO> loadSchemasAsync(SchemasRequestDTO schemasRequestDTO) {
+        final Stopwatch stopwatch = new Stopwatch();
+        final UpdateServiceCallInterceptor.Call call;
+        try {
+            call = interceptors.beginNonBlocking(PATH_GETSCHEMAS);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return sendPostRequestAsync(PATH_GETSCHEMAS, schemasRequestDTO, null, InputStream.class, call, null)
+                .thenApply(responseStream -> decode(responseStream, SchemasResponseDTO.class))
+                .whenComplete((response, failure) -> {
+                    call.end(UpdateServiceFutures.unwrap(failure));
+                    logger.log("getSchemasAsync took {} milliseconds",
+                            stopwatch.getElapsedTime(TimeUnit.MILLISECONDS));
+                });
+    }
+
+    private static <T> T await(CompletableFuture<T> future) throws UpdateServiceUpdateConnectorException, JSONBException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            final Throwable cause = UpdateServiceFutures.unwrap(e);
+            if (cause instanceof UpdateServiceUpdateConnectorException) {
+                throw (UpdateServiceUpdateConnectorException) cause;
+            }
+            if (cause instanceof JSONBException) {
+                throw (JSONBException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw e;
+        }
+    }
+
+    private <T> T decode(InputStream responseStream, Class<T> type) {
+        try {
+            return UpdateServiceJsonCodec.decode(responseStream, type);
+        } catch (JSONBException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    private <T> T sendPostRequest(String basePath, Object request, String xForwardedFor, Class<T> type,
+                                  UpdateServiceCallInterceptor.Call call) throws UpdateServiceUpdateConnectorException, JSONBException {
         InvariantUtil.checkNotNullOrThrow(request, "request");
         final PathBuilder path = new PathBuilder(basePath);
-        final HttpPost post = new HttpPost(failSafeHttpClient)
-                .withBaseUrl(baseUrl)
-                .withData(jsonbContext.marshall(request), "application/json")
-                .withHeader("Accept", "application/json")
-                .withPathElements(path.build());
+        final UpdateServiceBufferPool.Buffer buffer = requestBuffer();
+        try {
+            final Object entity = requestEntity(request, buffer);
+            final HttpPost post = new HttpPost(failSafeHttpClient)
+                    .withBaseUrl(baseUrl)
+                    .withData(entity, "application/json")
+                    .withHeader("Accept", "application/json")
+                    .withPathElements(path.build());
 
-        if (xForwardedFor != null) {
-            post.withHeader("X-Forwarded-For", xForwardedFor);
+            if (xForwardedFor != null) {
+                post.withHeader("X-Forwarded-For", xForwardedFor);
+            }
+            if (entity instanceof UpdateServiceJsonCodec.GzipEntity) {
+                post.withHeader("Content-Encoding", UpdateServiceJsonCodec.GzipEntity.CONTENT_ENCODING);
+            }
+            if (gzipResponses) {
+                post.withHeader("Accept-Encoding", "gzip");
+            }
+
+            final Response response = post.execute();
+            call.responseStatus(response.getStatus());
+            assertResponseStatus(response, Response.Status.OK);
+            return readResponseEntity(response, type);
+        } finally {
+            UpdateServiceBufferPool.release(buffer);
         }
+    }
+
+    /*
+     * The asynchronous requests are sent through the Jersey rx invoker directly and
+     * retried according to the asyncRetryPolicy, if any. Failsafe schedules the retry
+     * delays on its own scheduler, so no thread is blocked while waiting to retry.
+     */
+    private <T> CompletableFuture<T> sendPostRequestAsync(String basePath, Object request, String xForwardedFor, Class<T> type,
+                                                          UpdateServiceCallInterceptor.Call call,
+                                                          UpdateServiceCallOptions.Deadline deadline) {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        final UpdateServiceBufferPool.Buffer buffer = requestBuffer();
+        try {
+            InvariantUtil.checkNotNullOrThrow(request, "request");
+            final Invocation.Builder invocation = failSafeHttpClient.getClient()
+                    .target(baseUrl)
+                    .path(basePath)
+                    .request()
+                    .header("Accept", "application/json");
 
-        final Response response = post.execute();
-        assertResponseStatus(response, Response.Status.OK);
-        return readResponseEntity(response, type);
+            if (xForwardedFor != null) {
+                invocation.header("X-Forwarded-For", xForwardedFor);
+            }
+            if (streamingRequests || buffer != null) {
+                // streamed and pooled bodies are written as they are, not copied into a buffer of Jersey's
+                invocation.property(ClientProperties.REQUEST_ENTITY_PROCESSING, RequestEntityProcessing.CHUNKED);
+            }
+
+            final Object requestEntity = requestEntity(request, buffer);
+            if (requestEntity instanceof UpdateServiceJsonCodec.GzipEntity) {
+                invocation.header("Content-Encoding", UpdateServiceJsonCodec.GzipEntity.CONTENT_ENCODING);
+            }
+            if (gzipResponses) {
+                invocation.header("Accept-Encoding", "gzip");
+            }
+            final Entity<Object> entity = Entity.entity(requestEntity, "application/json");
+            withAsyncRetries(() -> {
+                if (deadline != null) {
+                    final long remainingMs = deadline.remainingMillis();
+                    if (remainingMs <= 0) {
+                        return CompletableFuture.failedFuture(deadline.exceeded());
+                    }
+                    invocation.property(ClientProperties.CONNECT_TIMEOUT, timeout(ClientProperties.CONNECT_TIMEOUT, remainingMs));
+                    invocation.property(ClientProperties.READ_TIMEOUT, timeout(ClientProperties.READ_TIMEOUT, remainingMs));
+                }
+                return invocation.rx().post(entity);
+            })
+                    .whenComplete((response, failure) -> {
+                        UpdateServiceBufferPool.release(buffer);
+                        if (failure != null) {
+                            final Throwable cause = UpdateServiceFutures.unwrap(failure);
+                            if (deadline != null && cause instanceof ProcessingException && deadline.remainingMillis() <= 0) {
+                                // timed out on the timeouts lowered to the deadline, not on those of the client
+                                future.completeExceptionally(deadline.exceeded());
+                            } else {
+                                future.completeExceptionally(cause);
+                            }
+                            return;
+                        }
+                        try {
+                            call.responseStatus(response.getStatus());
+                            assertResponseStatus(response, Response.Status.OK);
+                            future.complete(readResponseEntity(response, type));
+                        } catch (UpdateServiceUpdateConnectorException | RuntimeException e) {
+                            future.completeExceptionally(e);
+                        }
+                    });
+        } catch (JSONBException | RuntimeException e) {
+            UpdateServiceBufferPool.release(buffer);
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /*
+     * Returns the timeout of the client, lowered to the time left before the deadline
+     */
+    private int timeout(String property, long remainingMs) {
+        final Object configured = failSafeHttpClient.getClient().getConfiguration().getProperty(property);
+        final long configuredMs = configured instanceof Number ? ((Number) configured).longValue() : 0;
+        if (configuredMs > 0 && configuredMs < remainingMs) {
+            return (int) configuredMs;
+        }
+        return (int) Math.min(remainingMs, Integer.MAX_VALUE);
+    }
+
+    private CompletionStage<Response> withAsyncRetries(Supplier<CompletionStage<Response>> attempt) {
+        if (asyncRetryPolicy == null) {
+            return attempt.get();
+        }
+        return Failsafe.with(asyncRetryPolicy)
+                .getStageAsync(() -> UpdateServiceFutures.unwrapped(attempt.get()));
+    }
+
+    /*
+     * Buffer to encode a request body into, or null when bodies are streamed or no pool is set
+     */
+    private UpdateServiceBufferPool.Buffer requestBuffer() {
+        return bufferPool != null && !streamingRequests ? bufferPool.acquire() : null;
+    }
+
+    private Object requestEntity(Object request, UpdateServiceBufferPool.Buffer buffer) throws JSONBException {
+        if (streamingRequests) {
+            return gzipRequestsMinSize >= 0
+                    ? UpdateServiceJsonCodec.gzipStreamingEntity(request, compactMarcXchange)
+                    : UpdateServiceJsonCodec.streamingEntity(request, compactMarcXchange);
+        }
+        if (buffer != null) {
+            UpdateServiceJsonCodec.encode(request, compactMarcXchange, buffer);
+            if (gzipRequestsMinSize >= 0 && buffer.size() >= gzipRequestsMinSize) {
+                return UpdateServiceJsonCodec.gzipEntity(buffer);
+            }
+            return UpdateServiceJsonCodec.bufferedEntity(buffer);
+        }
+        final String json = UpdateServiceJsonCodec.encode(request, compactMarcXchange);
+        // the number of chars is a lower bound of the number of bytes
+        if (gzipRequestsMinSize >= 0 && json.length() >= gzipRequestsMinSize) {
+            return UpdateServiceJsonCodec.gzipEntity(json);
+        }
+        return json;
     }
 
     private <T> T readResponseEntity(Response response, Class<T> type)
@@ -162,6 +935,15 @@ public class UpdateServiceUpdateConnector {
                     String.format("Update returned with null-valued %s entity",
                             type.getName()));
         }
+        if (entity instanceof InputStream) {
+            try {
+                return type.cast(UpdateServiceJsonCodec.contentDecoded((InputStream) entity,
+                        response.getHeaderString("Content-Encoding")));
+            } catch (IOException e) {
+                response.close();
+                throw new UpdateServiceUpdateConnectorException("Update returned with invalid gzip encoded entity", e);
+            }
+        }
         return entity;
     }
 
@@ -170,6 +952,8 @@ public class UpdateServiceUpdateConnector {
         final Response.Status actualStatus =
                 Response.Status.fromStatusCode(response.getStatus());
         if (actualStatus != expectedStatus) {
+            // the entity is never read, so release the connection
+            response.close();
             throw new UpdateServiceUpdateConnectorException(
                     String.format("Update returned with '%s' status code: %s",
                             actualStatus,
@@ -177,8 +961,32 @@ public class UpdateServiceUpdateConnector {
         }
     }
 
+    /**
+     * Closes the web resources client, unless it is shared with other connectors,
+     * and stops the thread pool of the bulk calls made without an executor
+     */
     public void close() {
-        failSafeHttpClient.getClient().close();
+        synchronized (this) {
+            if (bulkExecutor != null) {
+                bulkExecutor.shutdownNow();
+            }
+        }
+        if (!sharedClient) {
+            failSafeHttpClient.getClient().close();
+        }
+    }
+
+    private static class BulkThreadFactory implements ThreadFactory {
+        private static final AtomicInteger POOL_NUMBER = new AtomicInteger();
+        private final AtomicInteger threadNumber = new AtomicInteger();
+        private final String prefix = "updateservice-bulk-" + POOL_NUMBER.incrementAndGet() + "-";
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            final Thread thread = new Thread(runnable, prefix + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
     }
 
     @FunctionalInterface
@@ -10,4 +10,8 @@ public class UpdateServiceUpdateConnectorException extends Exception {
     public UpdateServiceUpdateConnectorException(String msg) {
         super(msg);
     }
+
+    public UpdateServiceUpdateConnectorException(String msg, Throwable cause) {
+        super(msg, cause);
+    }
 }
@@ -1,15 +1,19 @@
 package dk.dbc.updateservice;
 
 import dk.dbc.httpclient.HttpClient;
+import org.eclipse.microprofile.config.Config;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.metrics.MetricRegistry;
 import org.glassfish.jersey.client.ClientConfig;
+import org.glassfish.jersey.client.ClientProperties;
+import org.glassfish.jersey.client.RequestEntityProcessing;
 import org.glassfish.jersey.jackson.JacksonFeature;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import jakarta.annotation.PostConstruct;
-import jakarta.annotation.PreDestroy;
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.inject.Instance;
 import jakarta.enterprise.inject.Produces;
 import jakarta.inject.Inject;
 import jakarta.ws.rs.client.Client;
@@ -32,6 +36,36 @@ public class UpdateServiceUpdateConnectorFactory {
         return new UpdateServiceUpdateConnector(client, updateServiceBaseUrl, level);
     }
 
+    /**
+     * Creates connector which streams request bodies onto the connection, using
+     * chunked transfer encoding if streamingRequests is true
+     *
+     * @param updateServiceBaseUrl base URL for update service endpoint
+     * @param level                timings log level
+     * @param streamingRequests    true to stream request bodies
+     * @return new connector
+     */
+    public static UpdateServiceUpdateConnector create(String updateServiceBaseUrl, UpdateServiceUpdateConnector.TimingLogLevel level, boolean streamingRequests) {
+        final ClientConfig clientConfig = new ClientConfig()
+                .register(new JacksonFeature());
+        if (streamingRequests) {
+            clientConfig.property(ClientProperties.REQUEST_ENTITY_PROCESSING, RequestEntityProcessing.CHUNKED);
+        }
+        final Client client = HttpClient.newClient(clientConfig);
+        LOGGER.info("Creating UpdateServiceUpdateConnector for: {} (streaming requests: {})", updateServiceBaseUrl, streamingRequests);
+        return new UpdateServiceUpdateConnector(client, updateServiceBaseUrl, level)
+                .withStreamingRequests(streamingRequests);
+    }
+
+    @Inject
+    UpdateServiceHttpClientFactory httpClientFactory;
+
+    @Inject
+    Instance<MetricRegistry> metricRegistry;
+
+    @Inject
+    Config config;
+
     @Inject
     @ConfigProperty(name = "UPDATE_SERVICE_URL")
     private String updateServiceUrl;
@@ -44,16 +78,18 @@ public class UpdateServiceUpdateConnectorFactory {
 
     @PostConstruct
     public void initializeConnector() {
-        updateServiceUpdateConnector = UpdateServiceUpdateConnectorFactory.create(updateServiceUrl, level);
+        final UpdateServiceConnectorWiring wiring = new UpdateServiceConnectorWiring(config, "UPDATE_SERVICE_", "updateservice",
+                "UpdateServiceUpdateConnector", httpClientFactory, metricRegistry);
+        updateServiceUpdateConnector = wiring.create(updateServiceUrl,
+                httpClient -> new UpdateServiceUpdateConnector(httpClient, updateServiceUrl, level));
+        wiring.enable(UpdateServiceSchemasCache.fromConfig(config, wiring.getPrefix()), "getSchemas cache",
+                UpdateServiceSchemasCache::withMetrics, updateServiceUpdateConnector::withSchemasCache);
+        wiring.enable(UpdateServiceRateLimiter.fromConfig(config, wiring.getPrefix()), "per group rate limit",
+                UpdateServiceRateLimiter::withMetrics, updateServiceUpdateConnector::withRateLimiter);
     }
 
     @Produces
     public UpdateServiceUpdateConnector getInstance() {
         return updateServiceUpdateConnector;
     }
-
-    @PreDestroy
-    public void tearDownConnector() {
-        updateServiceUpdateConnector.close();
-    }
 }
@@ -0,0 +1,77 @@
+package dk.dbc.updateservice;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsSame.sameInstance;
+
+class UpdateServiceBufferPoolTest {
+    @Test
+    void releasedBuffersAreReused() {
+        final UpdateServiceBufferPool pool = new UpdateServiceBufferPool(1 << 20, 1 << 16);
+
+        final UpdateServiceBufferPool.Buffer buffer = pool.acquire();
+        final byte[] bytes = buffer.array();
+        buffer.release();
+        assertThat("retained bytes", pool.getRetainedBytes(), is((long) bytes.length));
+
+        final UpdateServiceBufferPool.Buffer reused = pool.acquire();
+        assertThat("same array", reused.array(), sameInstance(bytes));
+        assertThat("reused buffer is empty", reused.size(), is(0));
+        assertThat("retained bytes while in use", pool.getRetainedBytes(), is(0L));
+    }
+
+    @Test
+    void releaseIsIdempotent() {
+        final UpdateServiceBufferPool pool = new UpdateServiceBufferPool(1 << 20, 1 << 16);
+
+        final UpdateServiceBufferPool.Buffer buffer = pool.acquire();
+        buffer.release();
+        buffer.release();
+
+        assertThat("retained bytes", pool.getRetainedBytes(), is((long) UpdateServiceBufferPool.INITIAL_BUFFER_SIZE));
+    }
+
+    @Test
+    void buffersOverMaxSizeAreDropped() {
+        final UpdateServiceBufferPool pool = new UpdateServiceBufferPool(1 << 20, 1 << 16);
+
+        final UpdateServiceBufferPool.Buffer buffer = pool.acquire();
+        buffer.write(new byte[1 << 17], 0, 1 << 17);
+        buffer.release();
+
+        assertThat("retained bytes", pool.getRetainedBytes(), is(0L));
+    }
+
+    @Test
+    void retainedBytesAreCapped() {
+        final UpdateServiceBufferPool pool = new UpdateServiceBufferPool(UpdateServiceBufferPool.INITIAL_BUFFER_SIZE, 1 << 16);
+
+        final UpdateServiceBufferPool.Buffer first = pool.acquire();
+        final UpdateServiceBufferPool.Buffer second = pool.acquire();
+        first.release();
+        second.release();
+
+        assertThat("retained bytes", pool.getRetainedBytes(), is((long) UpdateServiceBufferPool.INITIAL_BUFFER_SIZE));
+    }
+
+    @Test
+    void bufferGrowsToHoldContent() throws IOException {
+        final UpdateServiceBufferPool pool = new UpdateServiceBufferPool(1 << 20, 1 << 16);
+        final byte[] content = new byte[3 * UpdateServiceBufferPool.INITIAL_BUFFER_SIZE + 17];
+        Arrays.fill(content, (byte) 'x');
+
+        final UpdateServiceBufferPool.Buffer buffer = pool.acquire();
+        buffer.write(content);
+        final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        buffer.writeTo(written);
+
+        assertThat("size", buffer.size(), is(content.length));
+        assertThat("content", written.toByteArray(), is(content));
+    }
+}
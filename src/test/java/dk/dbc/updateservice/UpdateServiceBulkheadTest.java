@@ -0,0 +1,63 @@
+package dk.dbc.updateservice;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class UpdateServiceBulkheadTest {
+    private static final String UPDATE = "/api/v1/updateservice";
+    private static final String DOUBLE_RECORD_CHECK = "/api/v2/doublerecordcheck";
+
+    @Test
+    void limitsCallsPerEndpoint() {
+        final UpdateServiceBulkhead bulkhead = new UpdateServiceBulkhead(10)
+                .withMaxCalls("updateservice", 1);
+
+        final UpdateServiceCallInterceptor.Call call = bulkhead.begin(UPDATE);
+        final UpdateServiceBulkheadFullException e = assertThrows(UpdateServiceBulkheadFullException.class,
+                () -> bulkhead.begin(UPDATE));
+        assertThat("rejected endpoint", e.getEndpoint(), is("updateservice"));
+        bulkhead.begin(DOUBLE_RECORD_CHECK);
+
+        call.end(null);
+        bulkhead.begin(UPDATE);
+    }
+
+    @Test
+    void reservedConnectionsAreKeptForTheirEndpoint() {
+        final UpdateServiceBulkhead bulkhead = new UpdateServiceBulkhead(4)
+                .withReserved("doublerecordcheck", 2);
+
+        bulkhead.begin(UPDATE);
+        bulkhead.begin(UPDATE);
+        assertThrows(UpdateServiceBulkheadFullException.class, () -> bulkhead.begin(UPDATE));
+
+        bulkhead.begin(DOUBLE_RECORD_CHECK);
+        bulkhead.begin(DOUBLE_RECORD_CHECK);
+        assertThat("update calls in flight", bulkhead.getInUse("updateservice"), is(2));
+        assertThat("double record check calls in flight", bulkhead.getInUse("doublerecordcheck"), is(2));
+    }
+
+    @Test
+    void reservationsCannotExceedCapacity() {
+        final UpdateServiceBulkhead bulkhead = new UpdateServiceBulkhead(4)
+                .withReserved("doublerecordcheck", 2);
+
+        assertThrows(IllegalArgumentException.class, () -> bulkhead.withReserved("classificationcheck", 3));
+    }
+
+    @Test
+    void nonBlockingCallIsRejectedInsteadOfWaiting() {
+        final UpdateServiceBulkhead bulkhead = new UpdateServiceBulkhead(10)
+                .withMaxCalls("updateservice", 1)
+                .withMaxWait(Duration.ofSeconds(10));
+
+        bulkhead.begin(UPDATE);
+        assertThrows(UpdateServiceBulkheadFullException.class, () -> bulkhead.beginNonBlocking(UPDATE));
+        assertThat("calls in flight", bulkhead.getInUse("updateservice"), is(1));
+    }
+}
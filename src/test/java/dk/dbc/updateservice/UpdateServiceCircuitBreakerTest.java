@@ -0,0 +1,145 @@
+package dk.dbc.updateservice;
+
+import dk.dbc.commons.jsonb.JSONBException;
+import jakarta.ws.rs.ProcessingException;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class UpdateServiceCircuitBreakerTest {
+    private static final String PATH = "/api/v1/updateservice";
+
+    @Test
+    void opensWhenFailureRateIsReached() {
+        final UpdateServiceCircuitBreaker circuitBreaker = new UpdateServiceCircuitBreaker("test")
+                .withWindowSize(10)
+                .withMinimumCalls(4)
+                .withFailureRateThreshold(0.5);
+
+        circuitBreaker.begin(PATH).end(null);
+        circuitBreaker.begin(PATH).end(null);
+        circuitBreaker.begin(PATH).end(new ProcessingException("connection refused"));
+        assertThat("state below minimum calls", circuitBreaker.getState(), is(UpdateServiceCircuitBreaker.State.CLOSED));
+        circuitBreaker.begin(PATH).end(new ProcessingException("connection refused"));
+        assertThat("state at failure rate", circuitBreaker.getState(), is(UpdateServiceCircuitBreaker.State.OPEN));
+
+        final UpdateServiceCircuitBreakerOpenException e = assertThrows(UpdateServiceCircuitBreakerOpenException.class,
+                () -> circuitBreaker.begin(PATH));
+        assertThat("rejected in state", e.getState(), is(UpdateServiceCircuitBreaker.State.OPEN));
+    }
+
+    @Test
+    void opensWhenSlowCallRateIsReached() throws InterruptedException {
+        final UpdateServiceCircuitBreaker circuitBreaker = new UpdateServiceCircuitBreaker("test")
+                .withMinimumCalls(1)
+                .withSlowCallDuration(Duration.ofMillis(1))
+                .withSlowCallRateThreshold(1.0);
+
+        final UpdateServiceCallInterceptor.Call call = circuitBreaker.begin(PATH);
+        Thread.sleep(5);
+        call.end(null);
+
+        assertThat("state", circuitBreaker.getState(), is(UpdateServiceCircuitBreaker.State.OPEN));
+    }
+
+    @Test
+    void closesWhenHalfOpenProbesSucceed() {
+        final UpdateServiceCircuitBreaker circuitBreaker = openedBreaker();
+
+        final UpdateServiceCallInterceptor.Call first = circuitBreaker.begin(PATH);
+        final UpdateServiceCallInterceptor.Call second = circuitBreaker.begin(PATH);
+        assertThrows(UpdateServiceCircuitBreakerOpenException.class, () -> circuitBreaker.begin(PATH));
+
+        first.end(null);
+        assertThat("state after first probe", circuitBreaker.getState(), is(UpdateServiceCircuitBreaker.State.HALF_OPEN));
+        second.end(null);
+        assertThat("state after second probe", circuitBreaker.getState(), is(UpdateServiceCircuitBreaker.State.CLOSED));
+    }
+
+    @Test
+    void reopensWhenHalfOpenProbeFails() {
+        final UpdateServiceCircuitBreaker circuitBreaker = openedBreaker()
+                .withOpenDuration(Duration.ofMinutes(1));
+
+        circuitBreaker.begin(PATH).end(new ProcessingException("read timed out"));
+
+        assertThat("state", circuitBreaker.getState(), is(UpdateServiceCircuitBreaker.State.OPEN));
+    }
+
+    @Test
+    void doesNotOpenOnClientErrors() {
+        final UpdateServiceCircuitBreaker circuitBreaker = new UpdateServiceCircuitBreaker("test")
+                .withMinimumCalls(1);
+
+        final UpdateServiceCallInterceptor.Call badRequest = circuitBreaker.begin(PATH);
+        badRequest.responseStatus(400);
+        badRequest.end(new UpdateServiceDoubleRecordCheckConnectorUnexpectedStatusCodeException("bad request", 400));
+        circuitBreaker.begin(PATH).end(new JSONBException("request could not be encoded"));
+
+        assertThat("state", circuitBreaker.getState(), is(UpdateServiceCircuitBreaker.State.CLOSED));
+    }
+
+    @Test
+    void doesNotOpenOnExceededDeadlines() {
+        final UpdateServiceCircuitBreaker circuitBreaker = new UpdateServiceCircuitBreaker("test")
+                .withMinimumCalls(1);
+
+        circuitBreaker.begin(PATH).end(new UpdateServiceDeadlineExceededException(Duration.ofMillis(10), Duration.ofMillis(11)));
+
+        assertThat("state", circuitBreaker.getState(), is(UpdateServiceCircuitBreaker.State.CLOSED));
+    }
+
+    @Test
+    void opensOnServerErrors() {
+        final UpdateServiceCircuitBreaker circuitBreaker = new UpdateServiceCircuitBreaker("test")
+                .withMinimumCalls(1);
+
+        final UpdateServiceCallInterceptor.Call serviceUnavailable = circuitBreaker.begin(PATH);
+        serviceUnavailable.responseStatus(503);
+        serviceUnavailable.end(new UpdateServiceDoubleRecordCheckConnectorUnexpectedStatusCodeException("service unavailable", 503));
+
+        assertThat("state", circuitBreaker.getState(), is(UpdateServiceCircuitBreaker.State.OPEN));
+    }
+
+    @Test
+    void ignoredHalfOpenProbeReturnsItsPermit() {
+        final UpdateServiceCircuitBreaker circuitBreaker = openedBreaker()
+                .withHalfOpenCalls(1);
+
+        circuitBreaker.begin(PATH).end(new JSONBException("request could not be encoded"));
+        circuitBreaker.begin(PATH).end(null);
+
+        assertThat("state", circuitBreaker.getState(), is(UpdateServiceCircuitBreaker.State.CLOSED));
+    }
+
+    @Test
+    void reopensWhenHalfOpenProbeHangs() throws InterruptedException {
+        final UpdateServiceCircuitBreaker circuitBreaker = openedBreaker()
+                .withHalfOpenCalls(1)
+                .withSlowCallDuration(Duration.ofMillis(20));
+
+        final UpdateServiceCallInterceptor.Call hung = circuitBreaker.begin(PATH);
+        assertThrows(UpdateServiceCircuitBreakerOpenException.class, () -> circuitBreaker.begin(PATH));
+        Thread.sleep(50);
+        circuitBreaker.withOpenDuration(Duration.ofMinutes(1));
+
+        final UpdateServiceCircuitBreakerOpenException e = assertThrows(UpdateServiceCircuitBreakerOpenException.class,
+                () -> circuitBreaker.begin(PATH));
+        assertThat("rejected in state", e.getState(), is(UpdateServiceCircuitBreaker.State.OPEN));
+        hung.end(null);
+        assertThat("state after hung probe ends", circuitBreaker.getState(), is(UpdateServiceCircuitBreaker.State.OPEN));
+    }
+
+    private static UpdateServiceCircuitBreaker openedBreaker() {
+        final UpdateServiceCircuitBreaker circuitBreaker = new UpdateServiceCircuitBreaker("test")
+                .withMinimumCalls(1)
+                .withOpenDuration(Duration.ZERO)
+                .withHalfOpenCalls(2);
+        circuitBreaker.begin(PATH).end(new ProcessingException("connection refused"));
+        return circuitBreaker;
+    }
+}
@@ -0,0 +1,97 @@
+package dk.dbc.updateservice;
+
+import jakarta.ws.rs.ProcessingException;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class UpdateServiceConcurrencyLimiterTest {
+    private static final String PATH = "/api/v1/updateservice";
+
+    @Test
+    void rejectsCallsOverTheLimit() {
+        final UpdateServiceConcurrencyLimiter limiter = new UpdateServiceConcurrencyLimiter("test")
+                .withInitialLimit(2);
+
+        final UpdateServiceCallInterceptor.Call first = limiter.begin(PATH);
+        limiter.begin(PATH);
+        final UpdateServiceConcurrencyLimitExceededException e = assertThrows(
+                UpdateServiceConcurrencyLimitExceededException.class, () -> limiter.begin(PATH));
+        assertThat("rejected at limit", e.getLimit(), is(2));
+
+        first.end(null);
+        assertThat("in flight", limiter.getInFlight(), is(1));
+        limiter.begin(PATH);
+    }
+
+    @Test
+    void backsOffOnTimeoutsAndOverloadResponses() {
+        final UpdateServiceConcurrencyLimiter limiter = new UpdateServiceConcurrencyLimiter("test")
+                .withInitialLimit(20)
+                .withBackoffRatio(0.5);
+
+        limiter.begin(PATH).end(new ProcessingException("read timed out"));
+        assertThat("limit after timeout", limiter.getLimit(), is(10));
+
+        final UpdateServiceCallInterceptor.Call call = limiter.begin(PATH);
+        call.responseStatus(503);
+        call.end(null);
+        assertThat("limit after 503", limiter.getLimit(), is(5));
+    }
+
+    @Test
+    void ignoresCallsRejectedByCircuitBreaker() {
+        final UpdateServiceConcurrencyLimiter limiter = new UpdateServiceConcurrencyLimiter("test")
+                .withInitialLimit(20);
+
+        limiter.begin(PATH).end(new UpdateServiceCircuitBreakerOpenException("open",
+                UpdateServiceCircuitBreaker.State.OPEN));
+
+        assertThat("limit", limiter.getLimit(), is(20));
+    }
+
+    @Test
+    void ignoresCallsExceedingTheirDeadline() {
+        final UpdateServiceConcurrencyLimiter limiter = new UpdateServiceConcurrencyLimiter("test")
+                .withInitialLimit(20);
+
+        limiter.begin(PATH).end(new UpdateServiceDeadlineExceededException(Duration.ofMillis(10), Duration.ofMillis(11)));
+
+        assertThat("limit", limiter.getLimit(), is(20));
+    }
+
+    @Test
+    void queuedCallProceedsWhenCallCompletes() throws Exception {
+        final UpdateServiceConcurrencyLimiter limiter = new UpdateServiceConcurrencyLimiter("test")
+                .withInitialLimit(1)
+                .withQueueTimeout(Duration.ofSeconds(10));
+        final UpdateServiceCallInterceptor.Call first = limiter.begin(PATH);
+
+        final CompletableFuture<UpdateServiceCallInterceptor.Call> queued = CompletableFuture.supplyAsync(() -> limiter.begin(PATH));
+        Thread.sleep(50);
+        assertThat("queued call waits", queued.isDone(), is(false));
+        first.end(null);
+
+        queued.get(5, TimeUnit.SECONDS).end(null);
+        assertThat("in flight", limiter.getInFlight(), is(0));
+    }
+
+    @Test
+    void nonBlockingCallIsRejectedInsteadOfQueued() {
+        final UpdateServiceConcurrencyLimiter limiter = new UpdateServiceConcurrencyLimiter("test")
+                .withInitialLimit(1)
+                .withQueueTimeout(Duration.ofSeconds(10));
+        limiter.begin(PATH);
+
+        final long start = System.nanoTime();
+        assertThrows(UpdateServiceConcurrencyLimitExceededException.class, () -> limiter.beginNonBlocking(PATH));
+        assertThat("rejected without waiting",
+                TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 5, is(true));
+    }
+}
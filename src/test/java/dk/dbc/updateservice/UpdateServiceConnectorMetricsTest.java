@@ -0,0 +1,56 @@
+package dk.dbc.updateservice;
+
+import jakarta.ws.rs.ProcessingException;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.RETURNS_MOCKS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+class UpdateServiceConnectorMetricsTest {
+    private static final String PATH = "/api/v1/updateservice";
+
+    @Test
+    void countersAreResolvedOncePerStatusAndFailureType() {
+        final MetricRegistry metricRegistry = mock(MetricRegistry.class, RETURNS_MOCKS);
+        final UpdateServiceConnectorMetrics metrics = new UpdateServiceConnectorMetrics(metricRegistry);
+
+        for (int i = 0; i < 3; i++) {
+            final UpdateServiceCallInterceptor.Call call = metrics.begin(PATH);
+            call.responseStatus(500);
+            call.end(new ProcessingException("read timed out"));
+        }
+
+        verify(metricRegistry, times(1)).counter(eq(UpdateServiceConnectorMetrics.RESPONSES), any(Tag.class), any(Tag.class));
+        verify(metricRegistry, times(1)).counter(eq(UpdateServiceConnectorMetrics.FAILURES), any(Tag.class), any(Tag.class));
+    }
+
+    @Test
+    void inFlightGaugeIsRegisteredOncePerRegistry() {
+        final MetricRegistry metricRegistry = mock(MetricRegistry.class, RETURNS_MOCKS);
+
+        new UpdateServiceConnectorMetrics(metricRegistry).begin(PATH).end(null);
+        new UpdateServiceConnectorMetrics(metricRegistry).begin(PATH).end(null);
+
+        verify(metricRegistry, times(1)).gauge(eq(UpdateServiceConnectorMetrics.IN_FLIGHT), any(AtomicInteger.class), any(), any(Tag.class));
+    }
+
+    @Test
+    void cancelledCallsAreNotCountedAsFailures() {
+        final MetricRegistry metricRegistry = mock(MetricRegistry.class, RETURNS_MOCKS);
+        final UpdateServiceConnectorMetrics metrics = new UpdateServiceConnectorMetrics(metricRegistry);
+
+        metrics.begin(PATH).end(new CancellationException());
+
+        verify(metricRegistry, never()).counter(eq(UpdateServiceConnectorMetrics.FAILURES), any(Tag.class), any(Tag.class));
+    }
+}
@@ -1,6 +1,7 @@
 package dk.dbc.updateservice;
 
 import com.github.tomakehurst.wiremock.WireMockServer;
+import com.github.tomakehurst.wiremock.stubbing.Scenario;
 import dk.dbc.commons.jsonb.JSONBContext;
 import dk.dbc.httpclient.HttpClient;
 import dk.dbc.marc.binding.MarcRecord;
@@ -27,11 +28,19 @@ import javax.xml.parsers.ParserConfigurationException;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import static com.github.tomakehurst.wiremock.client.WireMock.configureFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.equalTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.matchingJsonPath;
+import static com.github.tomakehurst.wiremock.client.WireMock.okJson;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.postRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
 import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
@@ -110,6 +119,107 @@ class UpdateServiceDoubleRecordCheckConnectorTest {
         assertThat("Double record check returns OK if there is no match", actual, is(expected));
     }
 
+    @Test
+    void checkDoubleRecordAsyncTest_Ok() throws Exception {
+        BibliographicRecordDTO bibliographicRecordDTO = new BibliographicRecordDTO();
+        bibliographicRecordDTO.setRecordSchema("info:lc/xmlns/marcxchange-v1</recordSchema");
+        bibliographicRecordDTO.setRecordPacking("xml");
+
+        String recordString = "        <record xmlns=\"info:lc/xmlns/marcxchange-v1\">" +
+                "            <datafield ind1=\"0\" ind2=\"0\" tag=\"001\">" +
+                "                <subfield code=\"a\">52958858</subfield>" +
+                "                <subfield code=\"b\">870970</subfield>" +
+                "                <subfield code=\"c\">20170616143600</subfield>" +
+                "                <subfield code=\"d\">20180628</subfield>" +
+                "                <subfield code=\"f\">a</subfield>" +
+                "            </datafield>" +
+                "        </record>";
+
+        List<Object> content = Collections.singletonList(byteArrayToDocument(recordString.getBytes()));
+
+        RecordDataDTO recordDataDTO = new RecordDataDTO();
+        recordDataDTO.setContent(content);
+        bibliographicRecordDTO.setRecordDataDTO(recordDataDTO);
+
+        UpdateRecordResponseDTO actual = connector.doubleRecordCheckAsync(bibliographicRecordDTO).get();
+        UpdateRecordResponseDTO expected = new UpdateRecordResponseDTO();
+        expected.setUpdateStatusEnumDTO(UpdateStatusEnumDTO.OK);
+
+        assertThat("Async double record check returns OK if there is no match", actual, is(expected));
+    }
+
+    @Test
+    void checkDoubleRecordAsyncTest_HedgesSlowCall() throws Exception {
+        wireMockServer.stubFor(post(urlEqualTo("/api/v2/doublerecordcheck"))
+                .withRequestBody(matchingJsonPath("$.recordSchema", equalTo("hedging")))
+                .inScenario("hedging")
+                .whenScenarioStateIs(Scenario.STARTED)
+                .willReturn(okJson("{\"updateStatusEnumDTO\": \"OK\"}").withFixedDelay(10000))
+                .willSetStateTo("hedged"));
+        wireMockServer.stubFor(post(urlEqualTo("/api/v2/doublerecordcheck"))
+                .withRequestBody(matchingJsonPath("$.recordSchema", equalTo("hedging")))
+                .inScenario("hedging")
+                .whenScenarioStateIs("hedged")
+                .willReturn(okJson("{\"updateStatusEnumDTO\": \"OK\"}")));
+        final UpdateServiceDoubleRecordCheckConnector hedgingConnector = new UpdateServiceDoubleRecordCheckConnector(CLIENT, wireMockHost)
+                .withHedging(new UpdateServiceHedging("test").withDelay(Duration.ofMillis(100)));
+        final BibliographicRecordDTO bibliographicRecordDTO = new BibliographicRecordDTO();
+        bibliographicRecordDTO.setRecordSchema("hedging");
+        bibliographicRecordDTO.setRecordPacking("xml");
+
+        final UpdateRecordResponseDTO actual = hedgingConnector.doubleRecordCheckAsync(bibliographicRecordDTO)
+                .get(5, TimeUnit.SECONDS);
+        final UpdateRecordResponseDTO expected = new UpdateRecordResponseDTO();
+        expected.setUpdateStatusEnumDTO(UpdateStatusEnumDTO.OK);
+
+        assertThat("Hedged double record check returns the fast response", actual, is(expected));
+    }
+
+    @Test
+    void checkDoubleRecordAsyncTest_HedgesGoThroughBulkhead() throws Exception {
+        wireMockServer.stubFor(post(urlEqualTo("/api/v2/doublerecordcheck"))
+                .withRequestBody(matchingJsonPath("$.recordSchema", equalTo("hedging-bulkhead")))
+                .willReturn(okJson("{\"updateStatusEnumDTO\": \"OK\"}").withFixedDelay(1000)));
+        final UpdateServiceBulkhead bulkhead = new UpdateServiceBulkhead(10)
+                .withMaxCalls("doublerecordcheck", 1);
+        final UpdateServiceDoubleRecordCheckConnector hedgingConnector = new UpdateServiceDoubleRecordCheckConnector(CLIENT, wireMockHost)
+                .withHedging(new UpdateServiceHedging("test").withDelay(Duration.ofMillis(100)))
+                .withBulkhead(bulkhead);
+        final BibliographicRecordDTO bibliographicRecordDTO = new BibliographicRecordDTO();
+        bibliographicRecordDTO.setRecordSchema("hedging-bulkhead");
+        bibliographicRecordDTO.setRecordPacking("xml");
+
+        final UpdateRecordResponseDTO actual = hedgingConnector.doubleRecordCheckAsync(bibliographicRecordDTO)
+                .get(5, TimeUnit.SECONDS);
+
+        assertThat("Double record check returns OK", actual.getUpdateStatusEnumDTO(), is(UpdateStatusEnumDTO.OK));
+        wireMockServer.verify(1, postRequestedFor(urlEqualTo("/api/v2/doublerecordcheck"))
+                .withRequestBody(matchingJsonPath("$.recordSchema", equalTo("hedging-bulkhead"))));
+        assertThat("Calls in flight", bulkhead.getInUse("doublerecordcheck"), is(0));
+    }
+
+    @Test
+    void checkDoubleRecordTest_CachesResponse() throws Exception {
+        wireMockServer.stubFor(post(urlEqualTo("/api/v2/doublerecordcheck"))
+                .withRequestBody(matchingJsonPath("$.recordSchema", equalTo("caching")))
+                .willReturn(okJson("{\"updateStatusEnumDTO\": \"OK\"}")));
+        final UpdateServiceDoubleRecordCheckConnector cachingConnector = new UpdateServiceDoubleRecordCheckConnector(CLIENT, wireMockHost)
+                .withResultCache(new UpdateServiceResultCache<>("test", 10, Duration.ofMinutes(1)));
+        final BibliographicRecordDTO bibliographicRecordDTO = new BibliographicRecordDTO();
+        bibliographicRecordDTO.setRecordSchema("caching");
+        bibliographicRecordDTO.setRecordPacking("xml");
+        final BibliographicRecordDTO identicalRecordDTO = new BibliographicRecordDTO();
+        identicalRecordDTO.setRecordSchema("caching");
+        identicalRecordDTO.setRecordPacking("xml");
+
+        final UpdateRecordResponseDTO first = cachingConnector.doubleRecordCheck(bibliographicRecordDTO);
+        final UpdateRecordResponseDTO second = cachingConnector.doubleRecordCheckAsync(identicalRecordDTO).get();
+
+        assertThat("Identical record gets the cached response", second, is(first));
+        wireMockServer.verify(1, postRequestedFor(urlEqualTo("/api/v2/doublerecordcheck"))
+                .withRequestBody(matchingJsonPath("$.recordSchema", equalTo("caching"))));
+    }
+
     @Test
     void checkDoubleRecordTest_DoubleRecord() throws Exception {
         BibliographicRecordDTO bibliographicRecordDTO = new BibliographicRecordDTO();
@@ -0,0 +1,83 @@
+package dk.dbc.updateservice;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import dk.dbc.httpclient.HttpClient;
+import jakarta.ws.rs.client.Client;
+import org.eclipse.microprofile.health.HealthCheckResponse;
+import org.glassfish.jersey.client.ClientConfig;
+import org.glassfish.jersey.jackson.JacksonFeature;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.equalTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.matchingJsonPath;
+import static com.github.tomakehurst.wiremock.client.WireMock.okJson;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+class UpdateServiceHealthCheckTest {
+    private static WireMockServer wireMockServer;
+    private static String wireMockHost;
+
+    final static Client CLIENT = HttpClient.newClient(new ClientConfig()
+            .register(new JacksonFeature()));
+
+    @BeforeAll
+    static void startWireMockServer() {
+        wireMockServer = new WireMockServer(options().dynamicPort()
+                .dynamicHttpsPort());
+        wireMockServer.start();
+        wireMockHost = "http://localhost:" + wireMockServer.port();
+        wireMockServer.stubFor(post(urlEqualTo("/api/v1/updateservice/getschemas"))
+                .withRequestBody(matchingJsonPath("$.trackingId", equalTo("updateservice-health")))
+                .willReturn(okJson("{\"schemaDTOList\": []}")));
+    }
+
+    @AfterAll
+    static void stopWiremockServer() { wireMockServer.stop(); }
+
+    @Test
+    void upWhenBackendIsReachable() {
+        final UpdateServiceUpdateConnector connector = new UpdateServiceUpdateConnector(CLIENT, wireMockHost);
+        final HealthCheckResponse response = new UpdateServiceHealthCheck(connector, "010100").call();
+
+        assertThat("status", response.getStatus(), is(HealthCheckResponse.Status.UP));
+        assertThat("reachable", response.getData().get().get("reachable"), is(true));
+        assertThat("degraded", response.getData().get().get("degraded"), is(false));
+    }
+
+    @Test
+    void downWhenBackendIsUnreachable() {
+        final UpdateServiceUpdateConnector connector = new UpdateServiceUpdateConnector(CLIENT, "http://localhost:1")
+                .withAsyncRetryPolicy(null);
+        final HealthCheckResponse response = new UpdateServiceHealthCheck(connector, "010100").call();
+
+        assertThat("status", response.getStatus(), is(HealthCheckResponse.Status.DOWN));
+        assertThat("reachable", response.getData().get().get("reachable"), is(false));
+    }
+
+    @Test
+    void degradedWhenRecentCallsAreSlow() {
+        final UpdateServiceUpdateConnector connector = new UpdateServiceUpdateConnector(CLIENT, wireMockHost);
+        final long now = System.nanoTime();
+        for (int i = 0; i < 20; i++) {
+            connector.getCallStatistics().record(now, TimeUnit.SECONDS.toNanos(2), false);
+        }
+        final UpdateServiceHealthCheck healthCheck = new UpdateServiceHealthCheck(connector, "010100")
+                .withLatencyThreshold(Duration.ofSeconds(1));
+
+        HealthCheckResponse response = healthCheck.call();
+        assertThat("status", response.getStatus(), is(HealthCheckResponse.Status.UP));
+        assertThat("degraded", response.getData().get().get("degraded"), is(true));
+
+        response = healthCheck.withDownWhenDegraded(true).call();
+        assertThat("status when down when degraded", response.getStatus(), is(HealthCheckResponse.Status.DOWN));
+    }
+}
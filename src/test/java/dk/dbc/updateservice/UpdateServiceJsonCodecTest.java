@@ -0,0 +1,165 @@
+package dk.dbc.updateservice;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dk.dbc.commons.jsonb.JSONBContext;
+import dk.dbc.updateservice.dto.AuthenticationDTO;
+import dk.dbc.updateservice.dto.BibliographicRecordDTO;
+import dk.dbc.updateservice.dto.MessageEntryDTO;
+import dk.dbc.updateservice.dto.RecordDataDTO;
+import dk.dbc.updateservice.dto.SchemasRequestDTO;
+import dk.dbc.updateservice.dto.SchemasResponseDTO;
+import dk.dbc.updateservice.dto.TypeEnumDTO;
+import dk.dbc.updateservice.dto.UpdateRecordResponseDTO;
+import dk.dbc.updateservice.dto.UpdateServiceRequestDTO;
+import dk.dbc.updateservice.dto.UpdateStatusEnumDTO;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+class UpdateServiceJsonCodecTest {
+    private final JSONBContext jsonbContext = new JSONBContext();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void requestsAreEncodedAsByJSONBContext() throws Exception {
+        final UpdateServiceRequestDTO updateServiceRequestDTO = new UpdateServiceRequestDTO();
+        updateServiceRequestDTO.setAuthenticationDTO(authentication());
+        updateServiceRequestDTO.setSchemaName("dbcautoritet");
+        updateServiceRequestDTO.setTrackingId("codec");
+        updateServiceRequestDTO.setBibliographicRecordDTO(bibliographicRecord());
+        final SchemasRequestDTO schemasRequestDTO = new SchemasRequestDTO();
+        schemasRequestDTO.setAuthenticationDTO(authentication());
+        schemasRequestDTO.setTrackingId("codec");
+
+        for (Object request : List.of(updateServiceRequestDTO, bibliographicRecord(), schemasRequestDTO)) {
+            assertThat(request.getClass().getSimpleName(),
+                    objectMapper.readTree(UpdateServiceJsonCodec.encode(request, false)),
+                    is(objectMapper.readTree(jsonbContext.marshall(request))));
+        }
+    }
+
+    @Test
+    void recordedRequestsAndResponsesRoundTripAsWithJSONBContext() throws Exception {
+        final Path resources = Path.of("src", "test", "resources");
+        int recordings = 0;
+        try (DirectoryStream<Path> mappings = Files.newDirectoryStream(resources.resolve("mappings"), "*.json")) {
+            for (Path mapping : mappings) {
+                final JsonNode stub = objectMapper.readTree(mapping.toFile());
+                final String url = stub.at("/request/url").asText();
+                final JsonNode requestBody = stub.at("/request/bodyPatterns/0/equalToJson");
+                assertRoundTrip(mapping.getFileName() + " request",
+                        requestBody.isTextual() ? requestBody.asText() : requestBody.toString(), requestType(url));
+                assertRoundTrip(mapping.getFileName() + " response", Files.readString(
+                        resources.resolve("__files").resolve(stub.at("/response/bodyFileName").asText())), responseType(url));
+                recordings++;
+            }
+        }
+        assertThat("recordings", recordings > 0, is(true));
+    }
+
+    @Test
+    void responsesAreDecodedConcurrently() throws Exception {
+        final List<UpdateRecordResponseDTO> responses = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            final MessageEntryDTO messageEntryDTO = new MessageEntryDTO();
+            messageEntryDTO.setMessage("message " + i);
+            messageEntryDTO.setType(TypeEnumDTO.FATAL);
+            final UpdateRecordResponseDTO response = new UpdateRecordResponseDTO();
+            response.setUpdateStatusEnumDTO(UpdateStatusEnumDTO.FAILED);
+            response.addMessageEntryDtos(List.of(messageEntryDTO));
+            responses.add(response);
+        }
+        final List<byte[]> bodies = new ArrayList<>();
+        for (UpdateRecordResponseDTO response : responses) {
+            bodies.add(jsonbContext.marshall(response).getBytes(StandardCharsets.UTF_8));
+        }
+        final List<Callable<Boolean>> decoders = new ArrayList<>();
+        for (int i = 0; i < 64; i++) {
+            final int index = i % bodies.size();
+            decoders.add(() -> {
+                for (int j = 0; j < 100; j++) {
+                    final UpdateRecordResponseDTO decoded = UpdateServiceJsonCodec.decode(
+                            new ByteArrayInputStream(bodies.get(index)), UpdateRecordResponseDTO.class);
+                    if (!decoded.equals(responses.get(index))) {
+                        return false;
+                    }
+                }
+                return true;
+            });
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(16);
+        try {
+            for (Future<Boolean> result : executor.invokeAll(decoders)) {
+                assertThat("decoded as encoded", result.get(), is(true));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /*
+     * Decodes the JSON with the codec and with JSONBContext, and encodes the
+     * decoded value with both, expecting the same JSON every time
+     */
+    private void assertRoundTrip(String reason, String json, Class<?> type) throws Exception {
+        final Object decoded = UpdateServiceJsonCodec.decode(
+                new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), type);
+        final Object expected = jsonbContext.unmarshall(json, type);
+
+        assertThat(reason + " decoded", objectMapper.readTree(jsonbContext.marshall(decoded)),
+                is(objectMapper.readTree(jsonbContext.marshall(expected))));
+        assertThat(reason + " encoded", objectMapper.readTree(UpdateServiceJsonCodec.encode(decoded, false)),
+                is(objectMapper.readTree(jsonbContext.marshall(decoded))));
+    }
+
+    private static Class<?> requestType(String url) {
+        if (url.endsWith("/getschemas")) {
+            return SchemasRequestDTO.class;
+        }
+        if (url.endsWith("/updateservice")) {
+            return UpdateServiceRequestDTO.class;
+        }
+        return BibliographicRecordDTO.class;
+    }
+
+    private static Class<?> responseType(String url) {
+        return url.endsWith("/getschemas") ? SchemasResponseDTO.class : UpdateRecordResponseDTO.class;
+    }
+
+    private static AuthenticationDTO authentication() {
+        final AuthenticationDTO authenticationDTO = new AuthenticationDTO();
+        authenticationDTO.setGroupId("010100");
+        authenticationDTO.setPassword("");
+        authenticationDTO.setUserId("");
+        return authenticationDTO;
+    }
+
+    private static BibliographicRecordDTO bibliographicRecord() {
+        final BibliographicRecordDTO bibliographicRecordDTO = new BibliographicRecordDTO();
+        bibliographicRecordDTO.setRecordSchema("info:lc/xmlns/marcxchange-v1");
+        bibliographicRecordDTO.setRecordPacking("xml");
+        final RecordDataDTO recordDataDTO = new RecordDataDTO();
+        recordDataDTO.setContent(List.of("<record xmlns=\"info:lc/xmlns/marcxchange-v1\">\n" +
+                "    <datafield ind1=\"0\" ind2=\"0\" tag=\"001\">\n" +
+                "        <subfield code=\"a\">68693268</subfield>\n" +
+                "    </datafield>\n" +
+                "</record>"));
+        bibliographicRecordDTO.setRecordDataDTO(recordDataDTO);
+        return bibliographicRecordDTO;
+    }
+}
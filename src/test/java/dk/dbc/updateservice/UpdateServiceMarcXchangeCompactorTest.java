@@ -0,0 +1,161 @@
+package dk.dbc.updateservice;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dk.dbc.commons.jsonb.JSONBContext;
+import dk.dbc.updateservice.dto.BibliographicRecordDTO;
+import dk.dbc.updateservice.dto.RecordDataDTO;
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.xml.sax.InputSource;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+class UpdateServiceMarcXchangeCompactorTest {
+    private static final String RECORD = "<?xml version='1.0' encoding='UTF-8'?>\n" +
+            "<record xmlns=\"info:lc/xmlns/marcxchange-v1\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\">\n" +
+            "    <leader>00000n    2200000   4500</leader>\n" +
+            "    <controlfield tag=\"001\">  68693268 </controlfield>\n" +
+            "    <datafield ind1=\"0\" ind2=\"0\" tag=\"100\">\n" +
+            "        <subfield code=\"a\">Hansen,  Hans </subfield>\n" +
+            "        <subfield code=\"b\">   </subfield>\n" +
+            "        <subfield code=\"c\"/>\n" +
+            "        <subfield code=\"d\">a &lt; b &amp;\n c</subfield>\n" +
+            "    </datafield>\n" +
+            "</record>\n";
+
+    @Test
+    void indentationBetweenElementsIsRemoved() {
+        assertThat(UpdateServiceMarcXchangeCompactor.compact("<record>\n  <datafield tag=\"245\">\n" +
+                        "    <subfield code=\"a\">Title</subfield>\n  </datafield>\n</record>"),
+                is("<record><datafield tag=\"245\"><subfield code=\"a\">Title</subfield></datafield></record>"));
+    }
+
+    @Test
+    void subfieldValuesAreKept() {
+        final String compacted = UpdateServiceMarcXchangeCompactor.compact(RECORD);
+
+        assertThat(compacted, is("<?xml version='1.0' encoding='UTF-8'?>" +
+                "<record xmlns=\"info:lc/xmlns/marcxchange-v1\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\">" +
+                "<leader>00000n    2200000   4500</leader>" +
+                "<controlfield tag=\"001\">  68693268 </controlfield>" +
+                "<datafield ind1=\"0\" ind2=\"0\" tag=\"100\">" +
+                "<subfield code=\"a\">Hansen,  Hans </subfield>" +
+                "<subfield code=\"b\">   </subfield>" +
+                "<subfield code=\"c\"/>" +
+                "<subfield code=\"d\">a &lt; b &amp;\n c</subfield>" +
+                "</datafield>" +
+                "</record>"));
+    }
+
+    @Test
+    void compactedRecordHoldsSameData() throws Exception {
+        assertThat(leaves(UpdateServiceMarcXchangeCompactor.compact(RECORD)), is(leaves(RECORD)));
+    }
+
+    @Test
+    void quotedGreaterThanInAttributeIsNotEndOfTag() {
+        assertThat(UpdateServiceMarcXchangeCompactor.compact("<record note=\"a > b\">\n  <leader>x</leader>\n</record>"),
+                is("<record note=\"a > b\"><leader>x</leader></record>"));
+    }
+
+    @Test
+    void whitespaceNextToCommentsAndCdataIsKept() {
+        assertThat(UpdateServiceMarcXchangeCompactor.compact("<record>\n  <!-- comment -->\n" +
+                        "  <subfield code=\"a\"> <![CDATA[ <x> ]]> </subfield>\n</record>"),
+                is("<record>\n  <!-- comment -->\n" +
+                        "  <subfield code=\"a\"> <![CDATA[ <x> ]]> </subfield></record>"));
+    }
+
+    @Test
+    void contentNotStartingWithMarkupIsUnchanged() {
+        final String content = "001 00 *a68693268 \n245 00 *aTitle";
+
+        assertThat(UpdateServiceMarcXchangeCompactor.compact(content), is(content));
+    }
+
+    @Test
+    void unterminatedMarkupIsCopied() {
+        assertThat(UpdateServiceMarcXchangeCompactor.compact("<record>\n  <leader>x</leader>\n  <datafield tag=\"245"),
+                is("<record><leader>x</leader><datafield tag=\"245"));
+    }
+
+    @Test
+    void encodingCompactsRecordContent() throws Exception {
+        final BibliographicRecordDTO bibliographicRecordDTO = new BibliographicRecordDTO();
+        bibliographicRecordDTO.setRecordSchema("info:lc/xmlns/marcxchange-v1");
+        bibliographicRecordDTO.setRecordPacking("xml");
+        final RecordDataDTO recordDataDTO = new RecordDataDTO();
+        final List<Object> content = List.of(RECORD);
+        recordDataDTO.setContent(content);
+        bibliographicRecordDTO.setRecordDataDTO(recordDataDTO);
+
+        final BibliographicRecordDTO compacted = new JSONBContext().unmarshall(
+                UpdateServiceJsonCodec.encode(bibliographicRecordDTO, true), BibliographicRecordDTO.class);
+        final ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+        UpdateServiceJsonCodec.streamingEntity(bibliographicRecordDTO).write(streamed);
+
+        assertThat("compacted content", compacted.getRecordDataDTO().getContent(),
+                is(List.<Object>of(UpdateServiceMarcXchangeCompactor.compact(RECORD))));
+        assertThat("schema", compacted.getRecordSchema(), is(bibliographicRecordDTO.getRecordSchema()));
+        assertThat("content is not compacted unless asked to",
+                new ObjectMapper().readTree(streamed.toString(StandardCharsets.UTF_8)),
+                is(new ObjectMapper().readTree(new JSONBContext().marshall(bibliographicRecordDTO))));
+    }
+
+    @Test
+    void encodingCompactsDomNodeContent() throws Exception {
+        final Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                .parse(new InputSource(new StringReader(RECORD)));
+        final RecordDataDTO recordDataDTO = new RecordDataDTO();
+        recordDataDTO.setContent(List.of(document.getDocumentElement()));
+
+        final RecordDataDTO compacted = new JSONBContext().unmarshall(
+                UpdateServiceJsonCodec.encode(recordDataDTO, true), RecordDataDTO.class);
+        final String xml = (String) compacted.getContent().get(0);
+
+        assertThat("compacted", xml.contains(">\n"), is(false));
+        assertThat("same data", leaves(xml), is(leaves(RECORD)));
+    }
+
+    /*
+     * Names and attributes of all elements, and the text of leaf elements, in document order
+     */
+    private static List<String> leaves(String xml) throws Exception {
+        final Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                .parse(new InputSource(new StringReader(xml)));
+        final List<String> leaves = new ArrayList<>();
+        addLeaves(document.getDocumentElement(), leaves);
+        return leaves;
+    }
+
+    private static void addLeaves(Element element, List<String> leaves) {
+        final StringBuilder leaf = new StringBuilder(element.getTagName());
+        final NamedNodeMap attributes = element.getAttributes();
+        for (int i = 0; i < attributes.getLength(); i++) {
+            leaf.append(' ').append(attributes.item(i));
+        }
+        final int index = leaves.size();
+        leaves.add(leaf.toString());
+        boolean hasElements = false;
+        for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child instanceof Element) {
+                hasElements = true;
+                addLeaves((Element) child, leaves);
+            }
+        }
+        if (!hasElements) {
+            leaves.set(index, leaf.append('=').append(element.getTextContent()).toString());
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package dk.dbc.updateservice;
+
+import dk.dbc.updateservice.dto.AuthenticationDTO;
+import dk.dbc.updateservice.dto.UpdateServiceRequestDTO;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class UpdateServiceRateLimiterTest {
+    @Test
+    void failFastRejectsCallsOverTheBurstOfTheGroup() {
+        final UpdateServiceRateLimiter rateLimiter = new UpdateServiceRateLimiter(0.001, 2)
+                .withMode(UpdateServiceRateLimiter.Mode.FAIL_FAST);
+
+        rateLimiter.acquire(request("010100"));
+        rateLimiter.acquire(request("010100"));
+        final UpdateServiceRateLimitExceededException e = assertThrows(UpdateServiceRateLimitExceededException.class,
+                () -> rateLimiter.acquire(request("010100")));
+        assertThat("throttled group", e.getGroupId(), is("010100"));
+
+        rateLimiter.acquire(request("723000"));
+    }
+
+    @Test
+    void groupLimitOverridesDefault() {
+        final UpdateServiceRateLimiter rateLimiter = new UpdateServiceRateLimiter(0.001, 1)
+                .withGroupLimit("010100", 0.001, 3)
+                .withMode(UpdateServiceRateLimiter.Mode.FAIL_FAST);
+
+        for (int i = 0; i < 3; i++) {
+            rateLimiter.acquire(request("010100"));
+        }
+        assertThrows(UpdateServiceRateLimitExceededException.class, () -> rateLimiter.acquire(request("010100")));
+        rateLimiter.acquire(request("723000"));
+        assertThrows(UpdateServiceRateLimitExceededException.class, () -> rateLimiter.acquire(request("723000")));
+    }
+
+    @Test
+    void blockReservesTheNextPermit() {
+        final UpdateServiceRateLimiter rateLimiter = new UpdateServiceRateLimiter(10, 1);
+
+        assertThat("first call is not delayed", rateLimiter.reserve(request("010100")), is(0L));
+        final long waitNanos = rateLimiter.reserve(request("010100"));
+        assertThat("second call waits for the next permit", waitNanos > 0
+                && waitNanos <= TimeUnit.MILLISECONDS.toNanos(100), is(true));
+        assertThat("third call queues behind the second", rateLimiter.reserve(request("010100")) > waitNanos, is(true));
+    }
+
+    @Test
+    void blockRejectsCallsWaitingLongerThanMaxWait() {
+        final UpdateServiceRateLimiter rateLimiter = new UpdateServiceRateLimiter(1, 1)
+                .withMaxWait(Duration.ofMillis(100));
+
+        rateLimiter.acquire(request("010100"));
+        assertThrows(UpdateServiceRateLimitExceededException.class, () -> rateLimiter.acquire(request("010100")));
+    }
+
+    @Test
+    void callsWithoutAuthenticationShareTheDefaultLimit() {
+        final UpdateServiceRateLimiter rateLimiter = new UpdateServiceRateLimiter(0.001, 1)
+                .withMode(UpdateServiceRateLimiter.Mode.FAIL_FAST);
+
+        rateLimiter.acquire(new UpdateServiceRequestDTO());
+        final UpdateServiceRateLimitExceededException e = assertThrows(UpdateServiceRateLimitExceededException.class,
+                () -> rateLimiter.acquire(new UpdateServiceRequestDTO()));
+        assertThat("throttled group", e.getGroupId(), is(""));
+    }
+
+    private static UpdateServiceRequestDTO request(String groupId) {
+        final AuthenticationDTO authenticationDTO = new AuthenticationDTO();
+        authenticationDTO.setGroupId(groupId);
+        final UpdateServiceRequestDTO request = new UpdateServiceRequestDTO();
+        request.setAuthenticationDTO(authenticationDTO);
+        return request;
+    }
+}
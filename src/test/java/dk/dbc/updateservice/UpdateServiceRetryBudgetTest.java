@@ -0,0 +1,32 @@
+package dk.dbc.updateservice;
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+class UpdateServiceRetryBudgetTest {
+    private static final String PATH = "/api/v1/updateservice";
+
+    @Test
+    void retriesAreLimitedToRatioOfCalls() {
+        final UpdateServiceRetryBudget retryBudget = new UpdateServiceRetryBudget("test", 0.1)
+                .withMinRetriesPerSecond(0);
+        for (int i = 0; i < 20; i++) {
+            retryBudget.begin(PATH).end(null);
+        }
+
+        assertThat("first retry", retryBudget.tryAcquireRetry(), is(true));
+        assertThat("second retry", retryBudget.tryAcquireRetry(), is(true));
+        assertThat("third retry", retryBudget.tryAcquireRetry(), is(false));
+    }
+
+    @Test
+    void minRetriesPerSecondAllowsRetriesWithoutCalls() {
+        final UpdateServiceRetryBudget retryBudget = new UpdateServiceRetryBudget("test", 0.1)
+                .withMinRetriesPerSecond(0.1);
+
+        assertThat("first retry", retryBudget.tryAcquireRetry(), is(true));
+        assertThat("second retry", retryBudget.tryAcquireRetry(), is(false));
+    }
+}
@@ -0,0 +1,85 @@
+package dk.dbc.updateservice;
+
+import jakarta.ws.rs.ProcessingException;
+import jakarta.ws.rs.core.Response;
+import net.jodah.failsafe.Failsafe;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.core.Is.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class UpdateServiceRetrySettingsTest {
+    private final UpdateServiceRetrySettings retrySettings = new UpdateServiceRetrySettings()
+            .withMaxDelay(Duration.ofSeconds(30));
+
+    @Test
+    void retryAfterInSeconds() {
+        final Response response = Response.status(503).header("Retry-After", "5").build();
+
+        assertThat(retrySettings.retryAfter(response), is(Duration.ofSeconds(5)));
+    }
+
+    @Test
+    void retryAfterIsCappedAtMaxDelay() {
+        final Response response = Response.status(503).header("Retry-After", "3600").build();
+
+        assertThat(retrySettings.retryAfter(response), is(Duration.ofSeconds(30)));
+    }
+
+    @Test
+    void retryAfterInThePast() {
+        final String date = DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC).minusMinutes(1));
+        final Response response = Response.status(503).header("Retry-After", date).build();
+
+        assertThat(retrySettings.retryAfter(response), is(Duration.ZERO));
+    }
+
+    @Test
+    void noRetryAfter() {
+        assertThat("no header", retrySettings.retryAfter(Response.status(503).build()), is(nullValue()));
+        assertThat("invalid header", retrySettings.retryAfter(
+                Response.status(503).header("Retry-After", "soon").build()), is(nullValue()));
+        assertThat("no response", retrySettings.retryAfter(null), is(nullValue()));
+    }
+
+    @Test
+    void retriesAreLimitedByBudget() {
+        final UpdateServiceRetryBudget retryBudget = new UpdateServiceRetryBudget("test", 0)
+                .withMinRetriesPerSecond(0.1);
+        final UpdateServiceRetrySettings retrySettings = new UpdateServiceRetrySettings()
+                .withMaxRetries(3)
+                .withBaseDelay(Duration.ZERO)
+                .withRetryBudget(retryBudget);
+        final AtomicInteger attempts = new AtomicInteger();
+
+        assertThrows(ProcessingException.class, () -> Failsafe.with(retrySettings.toRetryPolicy()).run(() -> {
+            attempts.incrementAndGet();
+            throw new ProcessingException("connection refused");
+        }));
+
+        assertThat("attempts", attempts.get(), is(2));
+    }
+
+    @Test
+    void finalAttemptDoesNotDrawOnBudget() {
+        final UpdateServiceRetryBudget retryBudget = new UpdateServiceRetryBudget("test", 0)
+                .withMinRetriesPerSecond(0.1);
+        final UpdateServiceRetrySettings retrySettings = new UpdateServiceRetrySettings()
+                .withMaxRetries(0)
+                .withRetryBudget(retryBudget);
+
+        assertThrows(ProcessingException.class, () -> Failsafe.with(retrySettings.toRetryPolicy()).run(() -> {
+            throw new ProcessingException("connection refused");
+        }));
+
+        assertThat("retry left", retryBudget.tryAcquireRetry(), is(true));
+    }
+}
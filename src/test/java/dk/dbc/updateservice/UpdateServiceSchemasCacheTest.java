@@ -0,0 +1,57 @@
+package dk.dbc.updateservice;
+
+import dk.dbc.updateservice.dto.AuthenticationDTO;
+import dk.dbc.updateservice.dto.SchemasRequestDTO;
+import dk.dbc.updateservice.dto.SchemasResponseDTO;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsSame.sameInstance;
+
+class UpdateServiceSchemasCacheTest {
+    private final AtomicInteger loads = new AtomicInteger();
+    private final Function<SchemasRequestDTO, CompletableFuture<SchemasResponseDTO>> loader = request -> {
+        loads.incrementAndGet();
+        return CompletableFuture.completedFuture(new SchemasResponseDTO());
+    };
+
+    @Test
+    void requestsDifferingInTrackingIdShareResponse() throws Exception {
+        final UpdateServiceSchemasCache cache = new UpdateServiceSchemasCache();
+
+        final SchemasResponseDTO first = cache.get(request("010100", "first"), loader).get();
+        final SchemasResponseDTO second = cache.get(request("010100", "second"), loader).get();
+
+        assertThat("same response", second, sameInstance(first));
+        assertThat("loads", loads.get(), is(1));
+    }
+
+    @Test
+    void leastRecentlyUsedResponseIsEvicted() throws Exception {
+        final UpdateServiceSchemasCache cache = new UpdateServiceSchemasCache()
+                .withMaxEntries(1);
+
+        cache.get(request("010100", "first"), loader).get();
+        cache.get(request("870970", "second"), loader).get();
+        cache.get(request("870970", "third"), loader).get();
+        assertThat("newest group is cached", loads.get(), is(2));
+        cache.get(request("010100", "fourth"), loader).get();
+        assertThat("evicted group is loaded again", loads.get(), is(3));
+    }
+
+    private static SchemasRequestDTO request(String groupId, String trackingId) {
+        final AuthenticationDTO authenticationDTO = new AuthenticationDTO();
+        authenticationDTO.setGroupId(groupId);
+        authenticationDTO.setUserId("");
+        authenticationDTO.setPassword("");
+        final SchemasRequestDTO schemasRequestDTO = new SchemasRequestDTO();
+        schemasRequestDTO.setAuthenticationDTO(authenticationDTO);
+        schemasRequestDTO.setTrackingId(trackingId);
+        return schemasRequestDTO;
+    }
+}
@@ -0,0 +1,57 @@
+package dk.dbc.updateservice;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+class UpdateServiceSingleFlightTest {
+    @Test
+    void identicalCallsInFlightAreCoalesced() throws Exception {
+        final UpdateServiceSingleFlight singleFlight = new UpdateServiceSingleFlight("test");
+        final CompletableFuture<String> response = new CompletableFuture<>();
+        final AtomicInteger calls = new AtomicInteger();
+
+        final CompletableFuture<String> first = singleFlight.execute("key", () -> {
+            calls.incrementAndGet();
+            return response;
+        });
+        final CompletableFuture<String> second = singleFlight.execute("key", () -> {
+            calls.incrementAndGet();
+            return CompletableFuture.completedFuture("duplicate");
+        });
+        response.complete("response");
+
+        assertThat("calls made", calls.get(), is(1));
+        assertThat("first result", first.get(), is("response"));
+        assertThat("second result", second.get(), is("response"));
+        assertThat("calls in flight", singleFlight.getInFlight(), is(0));
+    }
+
+    @Test
+    void callsAfterCompletionAreNotCoalesced() throws Exception {
+        final UpdateServiceSingleFlight singleFlight = new UpdateServiceSingleFlight("test");
+
+        singleFlight.execute("key", () -> CompletableFuture.completedFuture("first")).get();
+        final String second = singleFlight.execute("key", () -> CompletableFuture.completedFuture("second")).get();
+
+        assertThat("second result", second, is("second"));
+    }
+
+    @Test
+    void cancellingOneCallerDoesNotCancelOthers() throws Exception {
+        final UpdateServiceSingleFlight singleFlight = new UpdateServiceSingleFlight("test");
+        final CompletableFuture<String> response = new CompletableFuture<>();
+
+        final CompletableFuture<String> first = singleFlight.execute("key", () -> response);
+        final CompletableFuture<String> second = singleFlight.execute("key", () -> response);
+        first.cancel(true);
+        response.complete("response");
+
+        assertThat("response cancelled", response.isCancelled(), is(false));
+        assertThat("second result", second.get(), is("response"));
+    }
+}
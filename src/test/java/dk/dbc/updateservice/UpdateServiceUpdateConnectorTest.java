@@ -1,7 +1,9 @@
 package dk.dbc.updateservice;
 
 import com.github.tomakehurst.wiremock.WireMockServer;
+import com.github.tomakehurst.wiremock.stubbing.Scenario;
 import dk.dbc.commons.jsonb.JSONBException;
+import dk.dbc.httpclient.FailSafeHttpClient;
 import dk.dbc.httpclient.HttpClient;
 import dk.dbc.updateservice.dto.AuthenticationDTO;
 import dk.dbc.updateservice.dto.BibliographicRecordDTO;
@@ -14,9 +16,18 @@ import dk.dbc.updateservice.dto.TypeEnumDTO;
 import dk.dbc.updateservice.dto.UpdateRecordResponseDTO;
 import dk.dbc.updateservice.dto.UpdateServiceRequestDTO;
 import dk.dbc.updateservice.dto.UpdateStatusEnumDTO;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.zip.GZIPOutputStream;
 import jakarta.ws.rs.client.Client;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.glassfish.jersey.client.ClientConfig;
 import org.glassfish.jersey.jackson.JacksonFeature;
 import org.junit.jupiter.api.AfterAll;
@@ -24,9 +35,21 @@ import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 import static org.hamcrest.MatcherAssert.assertThat;
 
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
 import static com.github.tomakehurst.wiremock.client.WireMock.configureFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.containing;
+import static com.github.tomakehurst.wiremock.client.WireMock.equalTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.matchingJsonPath;
+import static com.github.tomakehurst.wiremock.client.WireMock.okJson;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
 import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
 import static org.hamcrest.core.Is.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
 
 class UpdateServiceUpdateConnectorTest {
     private static WireMockServer wireMockServer;
@@ -92,6 +115,269 @@ class UpdateServiceUpdateConnectorTest {
         assertThat("Update (getschemas) returns OK", actualResponse, is(expectedResponse));
     }
 
+    @Test
+    void checkThatUpdateRecordAsyncWorksWithDTOS() throws Exception {
+        final UpdateServiceRequestDTO updateServiceRequestDTO = getExampleRequest();
+
+        final UpdateRecordResponseDTO expectedResponse = new UpdateRecordResponseDTO();
+        expectedResponse.setUpdateStatusEnumDTO(UpdateStatusEnumDTO.OK);
+
+        final UpdateRecordResponseDTO actualResponse = connector.updateRecordAsync(updateServiceRequestDTO).get();
+
+        assertThat("Async update returns OK", actualResponse, is(expectedResponse));
+    }
+
+    @Test
+    void checkThatGetSchemasAsyncWorksWithDTOS() throws Exception {
+        final SchemasRequestDTO schemasRequestDTO = getExampleRequestForSchemas();
+
+        final SchemasResponseDTO actualResponse = connector.getSchemasAsync(schemasRequestDTO).get();
+
+        assertThat("Async getschemas returns OK", actualResponse, is(getExampleResponseForSchemas()));
+    }
+
+    @Test
+    void checkThatUpdateRecordWorksWithStreamingRequests() throws JSONBException, UpdateServiceUpdateConnectorException {
+        final UpdateServiceUpdateConnector streamingConnector = UpdateServiceUpdateConnectorFactory.create(
+                wireMockHost, UpdateServiceUpdateConnector.TimingLogLevel.INFO, true);
+
+        final UpdateRecordResponseDTO expectedResponse = new UpdateRecordResponseDTO();
+        expectedResponse.setUpdateStatusEnumDTO(UpdateStatusEnumDTO.OK);
+
+        try {
+            assertThat("Streamed update returns OK", streamingConnector.updateRecord(getExampleRequest()), is(expectedResponse));
+        } finally {
+            streamingConnector.close();
+        }
+    }
+
+    @Test
+    void checkThatGetSchemasAsyncRetriesRetryableStatusCodes() throws Exception {
+        wireMockServer.stubFor(post(urlEqualTo("/api/v1/updateservice/getschemas"))
+                .withRequestBody(matchingJsonPath("$.trackingId", equalTo("async-retry")))
+                .inScenario("async-retry")
+                .whenScenarioStateIs(Scenario.STARTED)
+                .willReturn(aResponse().withStatus(503).withHeader("Retry-After", "0"))
+                .willSetStateTo("restarted"));
+        wireMockServer.stubFor(post(urlEqualTo("/api/v1/updateservice/getschemas"))
+                .withRequestBody(matchingJsonPath("$.trackingId", equalTo("async-retry")))
+                .inScenario("async-retry")
+                .whenScenarioStateIs("restarted")
+                .willReturn(okJson("{\"schemaDTOList\": [], \"updateStatusEnumDTO\": \"OK\"}")));
+        final UpdateServiceUpdateConnector retryingConnector = new UpdateServiceUpdateConnector(CLIENT, wireMockHost)
+                .withAsyncRetryPolicy(new UpdateServiceRetrySettings()
+                        .withRetryableStatusCodes(Set.of(503))
+                        .toRetryPolicy());
+        final SchemasRequestDTO schemasRequestDTO = getExampleRequestForSchemas();
+        schemasRequestDTO.setTrackingId("async-retry");
+
+        final SchemasResponseDTO actualResponse = retryingConnector.getSchemasAsync(schemasRequestDTO).get();
+
+        assertThat("Async getschemas returns OK after retry", actualResponse.getUpdateStatusEnumDTO(), is(UpdateStatusEnumDTO.OK));
+    }
+
+    @Test
+    void checkThatCachedGetSchemasServesStaleResponseWhenLoadingFails() throws Exception {
+        wireMockServer.stubFor(post(urlEqualTo("/api/v1/updateservice/getschemas"))
+                .withRequestBody(matchingJsonPath("$.trackingId", equalTo("schemas-cache")))
+                .inScenario("schemas-cache")
+                .whenScenarioStateIs(Scenario.STARTED)
+                .willReturn(okJson("{\"schemaDTOList\": [], \"updateStatusEnumDTO\": \"OK\"}"))
+                .willSetStateTo("down"));
+        wireMockServer.stubFor(post(urlEqualTo("/api/v1/updateservice/getschemas"))
+                .withRequestBody(matchingJsonPath("$.trackingId", equalTo("schemas-cache")))
+                .inScenario("schemas-cache")
+                .whenScenarioStateIs("down")
+                .willReturn(aResponse().withStatus(500)));
+        // a zero time to live makes every call load the response again
+        final UpdateServiceUpdateConnector cachingConnector = new UpdateServiceUpdateConnector(CLIENT, wireMockHost)
+                .withSchemasCache(new UpdateServiceSchemasCache()
+                        .withRefreshAfter(Duration.ZERO)
+                        .withTimeToLive(Duration.ZERO));
+        final SchemasRequestDTO schemasRequestDTO = getExampleRequestForSchemas();
+        schemasRequestDTO.setTrackingId("schemas-cache");
+
+        final SchemasResponseDTO first = cachingConnector.getSchemas(schemasRequestDTO);
+        final SchemasResponseDTO second = cachingConnector.getSchemasAsync(schemasRequestDTO).get();
+
+        assertThat("Stale getschemas response is served while update service fails", second, is(first));
+    }
+
+    @Test
+    void checkThatUpdateRecordFailsWhenDeadlinePasses() {
+        wireMockServer.stubFor(post(urlEqualTo("/api/v1/updateservice"))
+                .withRequestBody(matchingJsonPath("$.trackingId", equalTo("deadline")))
+                .willReturn(okJson("{\"updateStatusEnumDTO\": \"OK\"}").withFixedDelay(5000)));
+        final UpdateServiceRequestDTO updateServiceRequestDTO = getExampleRequest();
+        updateServiceRequestDTO.setTrackingId("deadline");
+
+        final UpdateServiceDeadlineExceededException e = assertThrows(UpdateServiceDeadlineExceededException.class,
+                () -> connector.updateRecord(updateServiceRequestDTO, null,
+                        new UpdateServiceCallOptions().withTimeout(Duration.ofMillis(200))));
+
+        assertThat("timeout in exception", e.getTimeout(), is(Duration.ofMillis(200)));
+    }
+
+    @Test
+    void checkThatUpdateRecordWithOptionsRetriesThroughFailSafeHttpClient() throws Exception {
+        wireMockServer.stubFor(post(urlEqualTo("/api/v1/updateservice"))
+                .withRequestBody(matchingJsonPath("$.trackingId", equalTo("options-retry")))
+                .inScenario("options-retry")
+                .whenScenarioStateIs(Scenario.STARTED)
+                .willReturn(aResponse().withStatus(503).withHeader("Retry-After", "0"))
+                .willSetStateTo("restarted"));
+        wireMockServer.stubFor(post(urlEqualTo("/api/v1/updateservice"))
+                .withRequestBody(matchingJsonPath("$.trackingId", equalTo("options-retry")))
+                .inScenario("options-retry")
+                .whenScenarioStateIs("restarted")
+                .willReturn(okJson("{\"updateStatusEnumDTO\": \"OK\"}")));
+        final UpdateServiceUpdateConnector failSafeConnector = new UpdateServiceUpdateConnector(
+                FailSafeHttpClient.create(CLIENT, new UpdateServiceRetrySettings()
+                        .withRetryableStatusCodes(Set.of(503))
+                        .toRetryPolicy()),
+                wireMockHost);
+        final UpdateServiceRequestDTO updateServiceRequestDTO = getExampleRequest();
+        updateServiceRequestDTO.setTrackingId("options-retry");
+
+        final UpdateRecordResponseDTO actualResponse = failSafeConnector.updateRecord(updateServiceRequestDTO, null,
+                new UpdateServiceCallOptions().withTimeout(Duration.ofSeconds(10)));
+
+        assertThat("Update with options returns OK after retry", actualResponse.getUpdateStatusEnumDTO(), is(UpdateStatusEnumDTO.OK));
+    }
+
+    @Test
+    void checkThatNonOkResponsesReleasePooledConnections() {
+        wireMockServer.stubFor(post(urlEqualTo("/api/v1/updateservice"))
+                .withRequestBody(matchingJsonPath("$.trackingId", equalTo("bad-request")))
+                .willReturn(aResponse().withStatus(400).withBody("bad request")));
+        wireMockServer.stubFor(post(urlEqualTo("/api/v1/updateservice"))
+                .withRequestBody(matchingJsonPath("$.trackingId", equalTo("after-bad-requests")))
+                .willReturn(okJson("{\"updateStatusEnumDTO\": \"OK\"}")));
+        final PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(2);
+        connectionManager.setDefaultMaxPerRoute(2);
+        final Client pooledClient = UpdateServiceHttpClientFactory.create(connectionManager, 0, 0, false);
+        final UpdateServiceUpdateConnector pooledConnector = new UpdateServiceUpdateConnector(
+                FailSafeHttpClient.create(pooledClient, new UpdateServiceRetrySettings().withMaxRetries(0).toRetryPolicy()),
+                wireMockHost);
+        final UpdateServiceRequestDTO badRequest = getExampleRequest();
+        badRequest.setTrackingId("bad-request");
+        final UpdateServiceRequestDTO goodRequest = getExampleRequest();
+        goodRequest.setTrackingId("after-bad-requests");
+
+        try {
+            // a leaked connection would make the pool block the later calls forever
+            assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+                for (int i = 0; i < 5; i++) {
+                    assertThrows(UpdateServiceUpdateConnectorException.class, () -> pooledConnector.updateRecord(badRequest));
+                    assertThrows(ExecutionException.class, () -> pooledConnector.updateRecordAsync(badRequest).get());
+                }
+                assertThat("Update returns OK after failed calls", pooledConnector.updateRecord(goodRequest)
+                        .getUpdateStatusEnumDTO(), is(UpdateStatusEnumDTO.OK));
+            });
+        } finally {
+            pooledConnector.close();
+        }
+    }
+
+    @Test
+    void checkThatUpdateRecordSendsGzipEncodedRequest() throws JSONBException, UpdateServiceUpdateConnectorException {
+        wireMockServer.stubFor(post(urlEqualTo("/api/v1/updateservice"))
+                .withHeader("Content-Encoding", equalTo("gzip"))
+                .withRequestBody(matchingJsonPath("$.trackingId", equalTo("gzip-request")))
+                .willReturn(okJson("{\"updateStatusEnumDTO\": \"OK\"}")));
+        final UpdateServiceUpdateConnector gzipConnector = new UpdateServiceUpdateConnector(CLIENT, wireMockHost)
+                .withGzipRequests(0);
+        final UpdateServiceRequestDTO updateServiceRequestDTO = getExampleRequest();
+        updateServiceRequestDTO.setTrackingId("gzip-request");
+
+        final UpdateRecordResponseDTO actualResponse = gzipConnector.updateRecord(updateServiceRequestDTO);
+
+        assertThat("Gzip encoded update returns OK", actualResponse.getUpdateStatusEnumDTO(), is(UpdateStatusEnumDTO.OK));
+    }
+
+    @Test
+    void checkThatUpdateRecordDecodesGzipEncodedResponse() throws Exception {
+        wireMockServer.stubFor(post(urlEqualTo("/api/v1/updateservice"))
+                .withHeader("Accept-Encoding", containing("gzip"))
+                .withRequestBody(matchingJsonPath("$.trackingId", equalTo("gzip-response")))
+                .willReturn(aResponse()
+                        .withHeader("Content-Type", "application/json")
+                        .withHeader("Content-Encoding", "gzip")
+                        .withBody(gzip("{\"updateStatusEnumDTO\": \"OK\"}"))));
+        final UpdateServiceUpdateConnector gzipConnector = new UpdateServiceUpdateConnector(CLIENT, wireMockHost)
+                .withGzipResponses(true);
+        final UpdateServiceRequestDTO updateServiceRequestDTO = getExampleRequest();
+        updateServiceRequestDTO.setTrackingId("gzip-response");
+
+        final UpdateRecordResponseDTO actualResponse = gzipConnector.updateRecordAsync(updateServiceRequestDTO).get();
+
+        assertThat("Gzip encoded response is decoded", actualResponse.getUpdateStatusEnumDTO(), is(UpdateStatusEnumDTO.OK));
+    }
+
+    @Test
+    void checkThatUpdateRecordUsesBufferPool() throws Exception {
+        wireMockServer.stubFor(post(urlEqualTo("/api/v1/updateservice"))
+                .withHeader("Content-Encoding", equalTo("gzip"))
+                .withRequestBody(matchingJsonPath("$.trackingId", equalTo("buffer-pool")))
+                .willReturn(okJson("{\"updateStatusEnumDTO\": \"OK\"}")));
+        final UpdateServiceBufferPool bufferPool = new UpdateServiceBufferPool(1 << 20, 1 << 20);
+        final UpdateServiceUpdateConnector pooledConnector = new UpdateServiceUpdateConnector(CLIENT, wireMockHost)
+                .withGzipRequests(0)
+                .withBufferPool(bufferPool);
+        final UpdateServiceRequestDTO updateServiceRequestDTO = getExampleRequest();
+        updateServiceRequestDTO.setTrackingId("buffer-pool");
+
+        assertThat("Pooled update returns OK", pooledConnector.updateRecord(updateServiceRequestDTO)
+                .getUpdateStatusEnumDTO(), is(UpdateStatusEnumDTO.OK));
+        assertThat("Pooled async update returns OK", pooledConnector.updateRecordAsync(updateServiceRequestDTO).get()
+                .getUpdateStatusEnumDTO(), is(UpdateStatusEnumDTO.OK));
+        assertThat("Buffers are returned to the pool", bufferPool.getRetainedBytes() > 0, is(true));
+    }
+
+    @Test
+    void checkThatUpdateRecordsReturnsResultsInInputOrder() throws InterruptedException {
+        final UpdateServiceRequestDTO okRequest = getExampleRequest();
+        final UpdateServiceRequestDTO authFailureRequest = getExampleRequest();
+        authFailureRequest.getAuthenticationDTO().setGroupId("");
+
+        final List<UpdateServiceBulkUpdateResult> results = connector.updateRecords(
+                Arrays.asList(okRequest, null, authFailureRequest, okRequest), 2);
+
+        assertThat("number of results", results.size(), is(4));
+        assertThat("result 0 status", results.get(0).getResponse().getUpdateStatusEnumDTO(), is(UpdateStatusEnumDTO.OK));
+        assertThat("result 1 failed", results.get(1).isSuccess(), is(false));
+        assertThat("result 2 status", results.get(2).getResponse().getUpdateStatusEnumDTO(), is(UpdateStatusEnumDTO.FAILED));
+        assertThat("result 3 request", results.get(3).getRequest(), is(okRequest));
+        assertThat("result 3 status", results.get(3).getResponse().getUpdateStatusEnumDTO(), is(UpdateStatusEnumDTO.OK));
+    }
+
+    @Test
+    void checkThatUpdateRecordsStreamsResultsToConsumer() throws InterruptedException {
+        final UpdateServiceRequestDTO okRequest = getExampleRequest();
+        final List<UpdateServiceBulkUpdateResult> results = new ArrayList<>();
+
+        connector.updateRecords(Arrays.asList(okRequest, null, okRequest).iterator(), 2, results::add);
+
+        assertThat("number of results", results.size(), is(3));
+        assertThat("number of failures", results.stream().filter(result -> !result.isSuccess()).count(), is(1L));
+    }
+
+    @Test
+    void checkThatUpdateRecordsThrowsErrorsInsteadOfHanging() {
+        final UpdateServiceRateLimiter rateLimiter = mock(UpdateServiceRateLimiter.class);
+        doThrow(new StackOverflowError()).when(rateLimiter).acquire(any());
+        final UpdateServiceUpdateConnector failingConnector = new UpdateServiceUpdateConnector(CLIENT, wireMockHost)
+                .withRateLimiter(rateLimiter);
+        final List<UpdateServiceRequestDTO> requests = Arrays.asList(getExampleRequest(), getExampleRequest());
+
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            assertThrows(StackOverflowError.class, () -> failingConnector.updateRecords(requests, 2));
+            assertThrows(StackOverflowError.class, () -> failingConnector.updateRecords(requests.iterator(), 2, result -> {
+            }));
+        });
+    }
+
     @Test
     void checkThatConnectorReturnsProperAuthFailure() throws JSONBException, UpdateServiceUpdateConnectorException {
         UpdateServiceRequestDTO updateServiceRequestDTO = getExampleRequest();
@@ -109,6 +395,14 @@ class UpdateServiceUpdateConnectorTest {
         assertThat("Update returns Failure, with proper message", actualRespons, is(expectedResponse));
     }
 
+    private static byte[] gzip(String body) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(bytes)) {
+            gzipOutputStream.write(body.getBytes(StandardCharsets.UTF_8));
+        }
+        return bytes.toByteArray();
+    }
+
     private UpdateServiceRequestDTO getExampleRequest() {
         UpdateServiceRequestDTO updateServiceRequestDTO = new UpdateServiceRequestDTO();
 